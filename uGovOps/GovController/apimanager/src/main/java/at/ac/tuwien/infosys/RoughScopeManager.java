@@ -1,22 +1,52 @@
 package at.ac.tuwien.infosys;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import at.ac.tuwien.infosys.model.uncertain.TrainingSet10;
+import at.ac.tuwien.infosys.scope.BitsetRoughSet;
+import at.ac.tuwien.infosys.scope.MissingValueOverlay;
+import at.ac.tuwien.infosys.scope.ScopeQuery;
+import at.ac.tuwien.infosys.scope.TableRoughSet;
 import at.ac.tuwien.infosys.store.model.DeviceDTO;
 import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+import at.ac.tuwien.infosys.store.model.DeviceTable;
 
 public class RoughScopeManager {
 
+	/**
+	 * Engine used to compute characteristic sets and approximations. All
+	 * engines produce identical results. CLASSES is the bitset engine that
+	 * computes characteristic sets once per equivalence class.
+	 */
+	public enum Engine {
+		SET, BITSET, CLASSES
+	};
+
+	private Engine engine = Engine.BITSET;
+	// Parallel approximations of the bitset engines, 0 = sequential
+	private int parallelThreshold = 0;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	// Sampled inclusion ratios of the bitset engines, 0 = exact
+	private static final double SAMPLING_DELTA = 0.05;
+	private double samplingError = 0;
+	private long samplingSeed = 0;
+
+	public RoughScopeManager() {
+	}
+
+	public RoughScopeManager(Engine engine) {
+		this.engine = engine;
+	}
+
 	BiFunction<? super List<DeviceDTO>, ? super List<DeviceDTO>, ? extends List<DeviceDTO>> bi = (
 			l, d) -> {
 		l.addAll(d);
@@ -178,7 +208,11 @@ public class RoughScopeManager {
 //		System.out.println(">>>>>>>>>>> Original Set <<<<<<<<<<<<<<");
 //		System.out.println(original);
 		System.out.println(">>>>>>>>>>> B lower approximation <<<<<<<<<<<<<<");
-		Set<DeviceDTO> roughL = buildLowerApproximationOptimized(original, devices,
+		// the threshold only takes effect below 1, the experiment keeps the
+		// optimized lower approximation otherwise
+		Set<DeviceDTO> roughL = threshhold < 1 ? buildVariablePrecisionLowerApproximation(
+				original, devicesNoMissing, attributes, processedBblocks,
+				threshhold) : buildLowerApproximationOptimized(original, devices,
 				attributes, processedBblocks);
 //		System.out.println();
 //		System.out.println(">>>>>>>>>>> B upper approximation <<<<<<<<<<<<<<");
@@ -273,10 +307,6 @@ public class RoughScopeManager {
 		return actual;
 	}
 
-	Predicate<DeviceDTO> condition(String key, String value) {
-		return d -> d.getMeta().get(key).equals(value);
-	}
-
 	private double percentMissing(List<DeviceDTO> devices){
 		
 	int missing=0;
@@ -291,57 +321,23 @@ public class RoughScopeManager {
 	}
 	return 1.0-(double)missing/total;
 }
+	/**
+	 * Selects the devices that match the query, e.g.,
+	 * location=home&owner=stefanORlocation=x
+	 */
 	public List<DeviceDTO> getDeviceDTOsForORQuery(List<DeviceDTO> allDeviceDTOs,
 			String query) {
-		
-		//System.out.println("Invoke OR "+ query);
-		List<DeviceDTO> result = new ArrayList<>();
-		if (query.contains("OR")) {
-			String[] scopeConditions = query.split("OR");
-
-			for (String andConditions : scopeConditions) {
-				
-				result.addAll(getDeviceDTOsForANDQuery(allDeviceDTOs, andConditions));
-			}
-		} else {
-			result.addAll(getDeviceDTOsForANDQuery(allDeviceDTOs, query));
-		}
-		return result;
-	}
-
-	private List<DeviceDTO> getDeviceDTOsForANDQuery(List<DeviceDTO> allDeviceDTOs,
-			String query) {
-		
-		List<Predicate<DeviceDTO>> allConditions = new ArrayList<>();
-		
-		if (query.contains("&")) {
-			String[] scopeConditions = query.split("&");
-
-			for (String singleCondition : scopeConditions) {
-				String[] tmp = singleCondition.split("=");
-				allConditions.add(condition(tmp[0], tmp[1]));
-			}
-		} else {
-		
-			String split [] = query.split("=");
-			allConditions.add(condition(split[0], split[1]));
-		}
-
-		
-		Predicate<DeviceDTO> compositePredicate = 
-				allConditions.stream().reduce(
-				w -> true, Predicate::and);
-	
-		List<DeviceDTO> governanceScope = allDeviceDTOs.stream()
-				.filter(compositePredicate).collect(Collectors.toList());
-
-		return governanceScope;
+		return ScopeQuery.compile(query).select(allDeviceDTOs);
 	}
 
 	public Set<DeviceDTO> buildUpperApproximation(List<DeviceDTO> subset,
 			List<DeviceDTO> allDeviceDTOs, List<String> attrList,
 			Map<Block, List<DeviceDTO>> blocks) {
 
+		if (this.engine != Engine.SET) {
+			return bitsetRoughSet(blocks, allDeviceDTOs)
+					.buildUpperApproximation(subset, attrList);
+		}
 		Set<DeviceDTO> union = new HashSet<>();
 		for (DeviceDTO x : allDeviceDTOs) {
 			Set<DeviceDTO> kbx = buildCaracteristicSet(x, attrList, blocks, allDeviceDTOs);
@@ -359,6 +355,10 @@ public class RoughScopeManager {
 			List<DeviceDTO> allDeviceDTOs, List<String> attrList,
 			Map<Block, List<DeviceDTO>> blocks) {
 
+		if (this.engine != Engine.SET) {
+			return bitsetRoughSet(blocks, allDeviceDTOs)
+					.buildLowerApproximationOptimized(subset, attrList);
+		}
 		Set<DeviceDTO> union = new HashSet<>();
 		for (DeviceDTO x : subset) {
 			Set<DeviceDTO> kbx = buildCaracteristicSet(x, attrList, blocks, allDeviceDTOs);
@@ -376,6 +376,10 @@ public class RoughScopeManager {
 			List<DeviceDTO> allDeviceDTOs, List<String> attrList,
 			Map<Block, List<DeviceDTO>> blocks) {
 
+		if (this.engine != Engine.SET) {
+			return bitsetRoughSet(blocks, allDeviceDTOs)
+					.buildLowerApproximation(subset, attrList);
+		}
 		Set<DeviceDTO> union = new HashSet<>();
 		for (DeviceDTO x : allDeviceDTOs) {
 			Set<DeviceDTO> kbx = buildCaracteristicSet(x, attrList, blocks, allDeviceDTOs);
@@ -387,6 +391,70 @@ public class RoughScopeManager {
 		return union;
 	}
 
+	/**
+	 * Variable precision lower approximation: union of the characteristic
+	 * sets with an inclusion ratio |K_B(x) & X| / |K_B(x)| of at least beta,
+	 * beta in (0.5, 1].
+	 */
+	public Set<DeviceDTO> buildVariablePrecisionLowerApproximation(
+			List<DeviceDTO> subset, List<DeviceDTO> allDeviceDTOs,
+			List<String> attrList, Map<Block, List<DeviceDTO>> blocks,
+			double beta) {
+
+		if (this.engine != Engine.SET) {
+			return bitsetRoughSet(blocks, allDeviceDTOs)
+					.buildVariablePrecisionLowerApproximation(subset, attrList,
+							beta);
+		}
+		Set<DeviceDTO> x = new HashSet<>(subset);
+		Set<DeviceDTO> union = new HashSet<>();
+		for (DeviceDTO d : allDeviceDTOs) {
+			Set<DeviceDTO> kbx = buildCaracteristicSet(d, attrList, blocks, allDeviceDTOs);
+			if (inclusion(kbx, x) >= beta) {
+				union.addAll(kbx);
+			}
+		}
+		return union;
+	}
+
+	/**
+	 * Variable precision upper approximation: union of the characteristic
+	 * sets with an inclusion ratio above 1 - beta, beta in (0.5, 1].
+	 */
+	public Set<DeviceDTO> buildVariablePrecisionUpperApproximation(
+			List<DeviceDTO> subset, List<DeviceDTO> allDeviceDTOs,
+			List<String> attrList, Map<Block, List<DeviceDTO>> blocks,
+			double beta) {
+
+		if (this.engine != Engine.SET) {
+			return bitsetRoughSet(blocks, allDeviceDTOs)
+					.buildVariablePrecisionUpperApproximation(subset, attrList,
+							beta);
+		}
+		Set<DeviceDTO> x = new HashSet<>(subset);
+		Set<DeviceDTO> union = new HashSet<>();
+		for (DeviceDTO d : allDeviceDTOs) {
+			Set<DeviceDTO> kbx = buildCaracteristicSet(d, attrList, blocks, allDeviceDTOs);
+			if (inclusion(kbx, x) > 1 - beta) {
+				union.addAll(kbx);
+			}
+		}
+		return union;
+	}
+
+	private double inclusion(Set<DeviceDTO> kbx, Set<DeviceDTO> x) {
+		if (kbx.isEmpty()) {
+			return 0;
+		}
+		int included = 0;
+		for (DeviceDTO d : kbx) {
+			if (x.contains(d)) {
+				included++;
+			}
+		}
+		return (double) included / kbx.size();
+	}
+
 	/**
 	 * 
 	 * Builds a characteristic set for a device.
@@ -557,29 +625,50 @@ public class RoughScopeManager {
 		return positiveBlocks;
 	}
 
+	/**
+	 * Replaces missing data ("") with the special values of the replacement,
+	 * e.g., location=?&type=+&quality=-. The devices are neither copied nor
+	 * modified, the returned list contains read-only views that apply the
+	 * replacement while they are read.
+	 */
 	public List<DeviceDTO> prepareData(List<DeviceDTO> devicesWithMissingValues,
 			String replacement) {
-		// FIXME Shellow copy
-		// replacement = "location=?&type=+&quality=-"
+		return MissingValueOverlay.parse(replacement).view(
+				devicesWithMissingValues);
+	}
 
-		Map<String, String> replacements = new HashMap<String, String>();
-		String[] keyVal = replacement.split("&");
-		for (String datum : keyVal) {
-			String[] split = datum.split("=");
-			replacements.put(split[0], split[1]);
+	/**
+	 * Same as {@link #prepareData(List, String)} on a device table. Only the
+	 * columns of the replaced attributes are copied, the given table is not
+	 * modified.
+	 */
+	public DeviceTable prepareData(DeviceTable devicesWithMissingValues,
+			String replacement) {
+		return devicesWithMissingValues.replace("", MissingValueOverlay
+				.parse(replacement).getReplacements());
+	}
 
-		}
-		List<DeviceDTO> devicesFilledMeta = new ArrayList<>(
-				devicesWithMissingValues);
-		for (DeviceDTO d : devicesFilledMeta) {
-			for (String key : d.getMeta().keySet()) {
-				if (d.getMeta().get(key).equals("")) {
-					d.addMeta(key, replacements.get(key));
-				}
-			}
-		}
-		return devicesFilledMeta;
+	/**
+	 * Rows of the table that match the query, e.g.,
+	 * location=home&owner=stefanORlocation=x
+	 */
+	public BitSet getRowsForORQuery(DeviceTable table, String query) {
+		return ScopeQuery.compile(query).select(table);
+	}
 
+	/**
+	 * Upper approximation of a subset of the rows of a prepared table.
+	 */
+	public BitSet buildUpperApproximation(BitSet subset, DeviceTable table,
+			List<String> attrList) {
+		return new TableRoughSet(table).buildUpperApproximation(subset,
+				attrList);
+	}
+
+	public BitSet buildLowerApproximationOptimized(BitSet subset,
+			DeviceTable table, List<String> attrList) {
+		return new TableRoughSet(table).buildLowerApproximationOptimized(
+				subset, attrList);
 	}
 
 	public Map<Block, List<DeviceDTO>> makeBlocks(List<DeviceDTO> devices) {
@@ -602,6 +691,57 @@ public class RoughScopeManager {
 		return l;
 	}
 
+	private BitsetRoughSet bitsetRoughSet(Map<Block, List<DeviceDTO>> blocks,
+			List<DeviceDTO> allDeviceDTOs) {
+		BitsetRoughSet roughSet = new BitsetRoughSet(blocks, allDeviceDTOs,
+				this.engine == Engine.CLASSES);
+		if (this.parallelThreshold > 0) {
+			roughSet.setParallelism(this.pool, this.parallelThreshold);
+		}
+		if (this.samplingError > 0) {
+			roughSet.setSampling(this.samplingError, SAMPLING_DELTA,
+					this.samplingSeed);
+		}
+		return roughSet;
+	}
+
+	public Engine getEngine() {
+		return engine;
+	}
+
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Computes the approximations of the bitset engines on the pool. Slices
+	 * of at most parallelThreshold devices are processed sequentially, 0
+	 * disables parallel processing.
+	 */
+	public void setParallelism(ForkJoinPool pool, int parallelThreshold) {
+		this.pool = pool;
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * The bitset engines estimate the inclusion ratios of the variable
+	 * precision approximations from random samples, each ratio is within the
+	 * error with a probability of 95%. 0 computes exact ratios, the SET engine
+	 * always does.
+	 */
+	public void setSampling(double samplingError, long seed) {
+		this.samplingError = samplingError;
+		this.samplingSeed = seed;
+	}
+
+	public double getSamplingError() {
+		return samplingError;
+	}
+
 	/**
 	 * Pretty printing
 	 * 
@@ -27,6 +27,7 @@ import at.ac.tuwien.infosys.model.DefaultMappingModel;
 import at.ac.tuwien.infosys.model.Result;
 import at.ac.tuwien.infosys.monitoring.HystrixMetricsPoller;
 import at.ac.tuwien.infosys.monitoring.HystrixMetricsPoller.MetricsAsJsonPollerListener;
+import at.ac.tuwien.infosys.proxy.DeviceTransport;
 import at.ac.tuwien.infosys.proxy.InvocationRegistry;
 import at.ac.tuwien.infosys.store.model.DeviceUpdateRequest;
 
@@ -45,6 +46,9 @@ public class APIManager {
 	@Autowired
 	private InvocationRegistry registry;
 
+	@Autowired
+	private DeviceTransport transport;
+
 	@Value("${builder.port}")
 	private String builderPort;
 	@Value("${builder.context}")
@@ -156,7 +160,7 @@ public class APIManager {
 //					HttpStatus.INTERNAL_SERVER_ERROR);
 //		}
 		
-		ResponseEntity<String> deviceResponse = new SimpleCapabilityInvocation(dynamicURL).execute();
+		ResponseEntity<String> deviceResponse = new SimpleCapabilityInvocation(dynamicURL, this.transport).execute();
 		
 		LOGGER.info("Device JSON: " + deviceResponse.getBody());
 		return new ResponseEntity<String>(deviceResponse.getBody(),
@@ -274,6 +278,15 @@ public class APIManager {
 				HttpStatus.OK);
 	}
 
+	/**
+	 * Connection pool and invocation counters of the device transport.
+	 */
+	@RequestMapping(value = "/transport", method = RequestMethod.GET)
+	public ResponseEntity<DeviceTransport.Metrics> getTransportMetrics() {
+		return new ResponseEntity<DeviceTransport.Metrics>(
+				this.transport.getMetrics(), HttpStatus.OK);
+	}
+
 	@RequestMapping(value = "/removeDevice/{deviceId}", method = RequestMethod.GET)
 	public ResponseEntity<String> removeDevice(@PathVariable String deviceId) {
 
@@ -0,0 +1,200 @@
+package at.ac.tuwien.infosys.governance;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import at.ac.tuwien.infosys.governance.ManagerFanOut.Delta;
+import at.ac.tuwien.infosys.governance.ManagerFanOut.Report;
+import at.ac.tuwien.infosys.scope.BlockIndex;
+import at.ac.tuwien.infosys.scope.BlockIndexStore;
+import at.ac.tuwien.infosys.store.model.DevicesDTO;
+
+/**
+ * Keeps the {@link BlockIndex} consistent with the managers. The managers
+ * push device changes to the index, but a push may get lost. Therefore the
+ * index is also reconciled with the change feeds of the managers every
+ * scope.index.reconcile seconds: every gather of the global scope applies the
+ * devices that changed since the previous one. An index restored from disk
+ * is reloaded with the global scope before it serves scopes.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class BlockIndexSync {
+
+	private static final Logger LOGGER = Logger.getLogger(BlockIndexSync.class);
+
+	@Autowired
+	private RestTemplate restTemplate;
+	@Autowired
+	private ManagerFanOut managerFanOut;
+	@Autowired
+	private BlockIndex blockIndex;
+	@Autowired
+	private BlockIndexStore blockIndexStore;
+
+	@Value("${balancer.url:http://localhost:8080/SDGBalancer}")
+	private String balancerURL = "http://localhost:8080/SDGBalancer";
+	@Value("${scope.index.reconcile:30}")
+	private long interval = 30;
+
+	private ScheduledExecutorService scheduler;
+	// a scope waited for the reconciliation of the restored index
+	private boolean restoreReconciled = false;
+
+	public BlockIndexSync() {
+	}
+
+	public BlockIndexSync(ManagerFanOut managerFanOut, BlockIndex blockIndex,
+			BlockIndexStore blockIndexStore) {
+		this.managerFanOut = managerFanOut;
+		this.blockIndex = blockIndex;
+		this.blockIndexStore = blockIndexStore;
+		this.interval = 0;
+	}
+
+	@PostConstruct
+	public void start() {
+		if (this.interval <= 0) {
+			return;
+		}
+		this.scheduler = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "block-index-sync");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reconcile();
+				} catch (Exception e) {
+					LOGGER.warn("Reconciling the block index failed", e);
+				}
+			}
+		}, this.interval, this.interval, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Gathers the devices of all manager nodes and applies the changes to the
+	 * index. Gathers are serialized, so the changes are applied in the order
+	 * of the change feeds.
+	 *
+	 * @param devices
+	 *            receives the devices of all nodes
+	 * @return null if the nodes are not known
+	 */
+	public synchronized Report gather(DevicesDTO devices) {
+		List<String> nodes = nodes();
+		if (nodes == null) {
+			return null;
+		}
+		LOGGER.info("Get devices from nodes " + nodes);
+		Delta delta = new Delta();
+		Report report = this.managerFanOut.gather(nodes, devices, delta);
+		this.blockIndexStore.apply(delta.getChanged(), delta.getRemoved());
+		return report;
+	}
+
+	/**
+	 * Loads the index with the global scope if it is not loaded yet. An index
+	 * restored from disk is replaced with the global scope once all nodes
+	 * answered, until then the changes of the nodes that answered are applied
+	 * to it. Only the first scope waits for this, later attempts are left to
+	 * the periodic reconciliation.
+	 *
+	 * @throws IllegalStateException
+	 *             if the index is not loaded and the nodes are not known or
+	 *             none of them answered
+	 */
+	public synchronized void ensureLoaded() {
+		boolean loaded = this.blockIndex.isLoaded();
+		if (loaded
+				&& (!this.blockIndexStore.isStale() || this.restoreReconciled)) {
+			return;
+		}
+		DevicesDTO devices = new DevicesDTO();
+		Report report = gather(devices);
+		if (loaded) {
+			this.restoreReconciled = true;
+			if (report != null && report.isComplete()) {
+				this.blockIndexStore.reload(devices.getDevices());
+			} else {
+				LOGGER.info("Restored block index not reconciled with nodes "
+						+ (report == null ? "unknown" : report.getMissingNodes()));
+			}
+			return;
+		}
+		if (report == null) {
+			throw new IllegalStateException("Manager nodes are not known");
+		}
+		if (!report.getNodes().isEmpty()
+				&& report.getMissingNodes().size() == report.getNodes().size()) {
+			throw new IllegalStateException("No manager node answered");
+		}
+		this.blockIndexStore.reload(devices.getDevices());
+	}
+
+	/**
+	 * Applies the changes of the managers since the last gather, a restored
+	 * index is replaced with the global scope once all nodes answered. An
+	 * index that is not loaded yet is loaded by the next scope.
+	 */
+	public synchronized void reconcile() {
+		if (!this.blockIndex.isLoaded()) {
+			return;
+		}
+		DevicesDTO devices = new DevicesDTO();
+		Report report = gather(devices);
+		if (report != null && report.isComplete()
+				&& this.blockIndexStore.isStale()) {
+			this.blockIndexStore.reload(devices.getDevices());
+		}
+		if (report != null && !report.isComplete()) {
+			LOGGER.info("Block index not reconciled with nodes "
+					+ report.getMissingNodes());
+		}
+	}
+
+	/**
+	 * Running manager nodes as known by the balancer, null if the balancer
+	 * fails.
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<String> nodes() {
+		ResponseEntity<List> response = this.restTemplate.getForEntity(
+				this.balancerURL + "/balancer/nodes", List.class);
+		if (response.getStatusCode() != HttpStatus.OK) {
+			return null;
+		}
+		return (List<String>) response.getBody();
+	}
+}
@@ -1,16 +1,29 @@
 package at.ac.tuwien.infosys.governance;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.json.JsonParserFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.concurrent.ListenableFuture;
@@ -26,11 +39,24 @@ import org.springframework.web.client.RestTemplate;
 
 import at.ac.tuwien.infosys.RoughScopeManager;
 import at.ac.tuwien.infosys.RoughScopeManager.Block;
-import at.ac.tuwien.infosys.governance.isolatedactuation.ProcessCapabilityInvocation;
-import at.ac.tuwien.infosys.model.DefaultMappingModel;
+import at.ac.tuwien.infosys.governance.ManagerFanOut.Report;
+import at.ac.tuwien.infosys.governance.isolatedactuation.DelegatedScopeExecutor;
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor;
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor.Completion;
 import at.ac.tuwien.infosys.model.uncertain.Device;
 import at.ac.tuwien.infosys.proxy.ProcessContext;
 import at.ac.tuwien.infosys.proxy.ProcessContext.Context;
+import at.ac.tuwien.infosys.scope.AttributeReduct;
+import at.ac.tuwien.infosys.scope.BlockIndex;
+import at.ac.tuwien.infosys.scope.BlockIndex.Snapshot;
+import at.ac.tuwien.infosys.scope.BlockIndexStore;
+import at.ac.tuwien.infosys.scope.MissingValueOverlay;
+import at.ac.tuwien.infosys.scope.ScopeCache;
+import at.ac.tuwien.infosys.scope.ScopeDelta;
+import at.ac.tuwien.infosys.scope.ScopeEstimate;
+import at.ac.tuwien.infosys.scope.ScopeHistory;
+import at.ac.tuwien.infosys.scope.ScopeQuery;
+import at.ac.tuwien.infosys.scope.ScopeSketches;
 import at.ac.tuwien.infosys.store.model.DeviceDTO;
 import at.ac.tuwien.infosys.store.model.DevicesDTO;
 
@@ -47,6 +73,26 @@ public class GovernanceScopeManager {
 	private RestTemplate restTemplate;
 	@Autowired
 	private ProcessContext processContext;
+	@Autowired
+	private BlockIndex blockIndex;
+	@Autowired
+	private BlockIndexStore blockIndexStore;
+	@Autowired
+	private ManagerFanOut managerFanOut;
+	@Autowired
+	private BlockIndexSync blockIndexSync;
+	@Autowired
+	private DelegatedScopeExecutor delegatedScopeExecutor;
+	@Autowired
+	private ScopeCache scopeCache;
+	@Autowired
+	private AttributeReduct attributeReduct;
+	@Autowired
+	private ScopeSketches scopeSketches;
+	@Autowired
+	private ScopeHistory scopeHistory;
+	@Autowired
+	private ScopeJobs scopeJobs;
 	volatile long endTS = 0;
 
 	@RequestMapping(value = "/setProcessProps/{procId}", method = RequestMethod.POST, consumes = "application/json")
@@ -55,40 +101,116 @@ public class GovernanceScopeManager {
 
 		LOGGER.info("Received properties for process " + procId + "\n"
 				+ propertiesJson);
-		this.processContext.registerIfAbsent(procId).setProperties(
-				propertiesJson);
+		try {
+			this.processContext.registerIfAbsent(procId).setProperties(
+					propertiesJson);
+		} catch (IllegalArgumentException e) {
+			return new ResponseEntity<String>(e.getMessage(),
+					HttpStatus.BAD_REQUEST);
+		}
 		this.processContext.registerIfAbsent(procId).refreshConfig();
 		return new ResponseEntity<String>("Sucessfully updated configuration",
 				HttpStatus.OK);
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Devices of all manager nodes, gathered concurrently. Only the changes
+	 * since the last gather are transferred and applied to the block index.
+	 * If a node fails or does not answer in time, its devices of the last
+	 * gather are returned and the node is listed in the X-Missing-Nodes
+	 * header.
+	 * 
+	 * @return
+	 */
 	@RequestMapping(value = "/globalScope", method = RequestMethod.GET)
 	public ResponseEntity<DevicesDTO> getGlobalScope() {
 		DevicesDTO devices = new DevicesDTO();
-		ResponseEntity<List> balancerResponse = restTemplate.getForEntity(
-				"http://localhost:8080/SDGBalancer/balancer/nodes", List.class);
-		if (balancerResponse.getStatusCode() != HttpStatus.OK) {
+		Report report = this.blockIndexSync.gather(devices);
+		if (report == null) {
 			return new ResponseEntity<DevicesDTO>(
 					HttpStatus.INTERNAL_SERVER_ERROR);
 		}
-		List<String> runningNodes = (List<String>) balancerResponse.getBody();
-		for (String node : runningNodes) {
-			LOGGER.info("Get devies from node " + node);
-			ResponseEntity<DevicesDTO> managerResponse = restTemplate
-					.getForEntity("http://" + node
-							+ ":8080/SDGManager/device-manager/devices",
-							DevicesDTO.class);
-
-			if (managerResponse.getStatusCode() != HttpStatus.OK)
-				return new ResponseEntity<DevicesDTO>(
-						HttpStatus.INTERNAL_SERVER_ERROR);
-			LOGGER.info("Node " + node + " has returned ["
-					+ managerResponse.getBody().getDevices() + "]");
-			devices.getDevices().addAll(managerResponse.getBody().getDevices());
+		LOGGER.info("Gathered " + devices.getDevices().size() + " devices in "
+				+ report.getElapsed() + " ms");
+		if (!report.getNodes().isEmpty() && report.getMissingNodes().size() == report.getNodes().size()) {
+			return new ResponseEntity<DevicesDTO>(
+					HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+		HttpHeaders headers = new HttpHeaders();
+		if (!report.isComplete()) {
+			headers.set("X-Missing-Nodes", String.join(",", report.getMissingNodes()));
 		}
+		return new ResponseEntity<DevicesDTO>(devices, headers, HttpStatus.OK);
+	}
+
+	/**
+	 * State and latency of every manager node in the last gather of the
+	 * global scope and the latency metrics per node.
+	 * 
+	 * @return
+	 */
+	@RequestMapping(value = "/globalScope/nodes", method = RequestMethod.GET)
+	public ResponseEntity<Map<String, Object>> getGlobalScopeNodes() {
+		Map<String, Object> nodes = new LinkedHashMap<>();
+		nodes.put("lastGather", this.managerFanOut.getLastReport());
+		nodes.put("metrics", this.managerFanOut.getMetrics());
+		return new ResponseEntity<Map<String, Object>>(nodes, HttpStatus.OK);
+	}
+
+	/**
+	 * Invoked by a manager when a device registers or updates its meta info.
+	 * 
+	 * @param deviceId
+	 * @param metaInfo e.g., location=gh1&type=FM5300
+	 * @return
+	 */
+	@RequestMapping(value = "/index/{deviceId}", method = RequestMethod.POST)
+	public ResponseEntity<String> registerDevice(
+			@PathVariable String deviceId, @RequestBody String metaInfo) {
+		this.blockIndexStore.register(deviceId, metaInfo);
+		return new ResponseEntity<String>("Indexed device " + deviceId,
+				HttpStatus.OK);
+	}
 
-		return new ResponseEntity<DevicesDTO>(devices, HttpStatus.OK);
+	/**
+	 * Invoked by a manager when a device is unregistered.
+	 * 
+	 * @param deviceId
+	 * @return
+	 */
+	@RequestMapping(value = "/index/{deviceId}", method = RequestMethod.DELETE)
+	public ResponseEntity<String> unregisterDevice(
+			@PathVariable String deviceId) {
+		this.blockIndexStore.unregister(deviceId);
+		return new ResponseEntity<String>("Removed device " + deviceId,
+				HttpStatus.OK);
+	}
+
+	/**
+	 * Previews the size of a scope without selecting it, e.g.,
+	 * /estimate/location=home?missing_data=location=%3F
+	 * 
+	 * @param query
+	 * @param replacement replacement of missing data
+	 * @return estimated number of devices that certainly (lower) and possibly
+	 *         (upper) match the query
+	 */
+	@RequestMapping(value = "/estimate/{query}", method = RequestMethod.GET)
+	public ResponseEntity<ScopeEstimate> estimateScope(
+			@PathVariable String query,
+			@RequestParam(value = "missing_data", required = false, defaultValue = "") String replacement) {
+		ScopeQuery scopeQuery;
+		try {
+			scopeQuery = ScopeQuery.compile(query);
+			MissingValueOverlay.parse(replacement);
+		} catch (IllegalArgumentException e) {
+			// malformed query or missing data
+			return new ResponseEntity<ScopeEstimate>(HttpStatus.BAD_REQUEST);
+		}
+		this.blockIndexSync.ensureLoaded();
+		ScopeEstimate estimate = this.scopeSketches.estimate(replacement,
+				scopeQuery, this.blockIndex);
+		return new ResponseEntity<ScopeEstimate>(estimate, HttpStatus.OK);
 	}
 
 	// TODO: Change this to post - scope=query - uncertainty info will be passed
@@ -106,54 +228,422 @@ public class GovernanceScopeManager {
 		// && d.getMeta().get(scopeMeta[0]).equals(scopeMeta[1]))
 		// .collect(Collectors.toList());
 
-		RoughScopeManager rgsm = new RoughScopeManager();
-		List<DeviceDTO> globalScope =  getGlobalScope().getBody().getDevices();
-		
+		ScopeQuery scopeQuery;
+		try {
+			scopeQuery = ScopeQuery.compile(query);
+		} catch (IllegalArgumentException e) {
+			return new ResponseEntity<String>(e.getMessage(),
+					HttpStatus.BAD_REQUEST);
+		}
+
 		Map<String, Object> propertiesMap = JsonParserFactory.getJsonParser().parseMap(uncertaintiyPropsJson);
+		Set<DeviceDTO> governanceScope;
+		try {
+			governanceScope = resolveScope(scopeQuery, propertiesMap);
+		} catch (IllegalArgumentException e) {
+			// invalid uncertainty properties
+			return new ResponseEntity<String>(e.getMessage(),
+					HttpStatus.BAD_REQUEST);
+		}
+
+		String historyKey = ScopeHistory.key(procId, scopeQuery, capaId,
+				method, args);
+		ScopeDelta delta = this.scopeHistory.update(historyKey, governanceScope);
+		boolean deltaMode = isDeltaMode(propertiesMap);
+		Set<DeviceDTO> invocationScope = deltaMode ? delta.getAdded()
+				: governanceScope;
+		LOGGER.info("Scope of " + procId + ": " + delta);
+
+		StringBuilder response = new StringBuilder();
+		if (deltaMode) {
+			response.append("Invoking " + invocationScope.size() + " added devices ("
+					+ delta.getUnchanged() + " unchanged, "
+					+ delta.getRemoved().size() + " removed) ...<br/><br/>");
+		} else {
+			response.append("Invoking " + invocationScope.size()
+					+ " devices ...<br/><br/>");
+		}
+		LOGGER.info("Waiting for " + invocationScope.size() + " results!");
+		invoke(procId, propertiesMap, invocationScope, capaId, method, args,
+				historyKey, completion -> {
+					if (completion.getError() != null) {
+						LOGGER.info("Invocation of "
+								+ completion.getDevice().getId() + " failed: "
+								+ completion.getError().getMessage());
+					} else {
+						response.append(completion.getResponse().getBody())
+								.append("<br/><br/>");
+					}
+				});
+		return new ResponseEntity<String>(response.toString(), HttpStatus.OK);
+	}
+
+	/**
+	 * Same as {@link #invokeCapabilityOnScope}, but folds the results into a
+	 * {@link ScopeAggregate} as they arrive instead of concatenating them, so
+	 * the memory does not grow with the scope. The raw results are only kept
+	 * with raw_results=true.
+	 */
+	@RequestMapping(value = "/invokeScope/aggregate/{procId}/{query}/{capaId}/{method}", method = RequestMethod.POST, consumes = "application/json")
+	public ResponseEntity<ScopeAggregate> aggregateCapabilityOnScope(
+			@PathVariable String procId, @PathVariable String query,
+			@PathVariable String capaId, @PathVariable String method,
+			@RequestParam(value = "args", required = false) String args,
+			@RequestBody String uncertaintiyPropsJson) {
+		ScopeQuery scopeQuery;
+		Map<String, Object> propertiesMap;
+		Set<DeviceDTO> governanceScope;
+		try {
+			scopeQuery = ScopeQuery.compile(query);
+			propertiesMap = JsonParserFactory.getJsonParser().parseMap(uncertaintiyPropsJson);
+			governanceScope = resolveScope(scopeQuery, propertiesMap);
+		} catch (IllegalArgumentException e) {
+			return new ResponseEntity<ScopeAggregate>(HttpStatus.BAD_REQUEST);
+		}
+
+		String historyKey = ScopeHistory.key(procId, scopeQuery, capaId,
+				method, args);
+		ScopeDelta delta = this.scopeHistory.update(historyKey, governanceScope);
+		Set<DeviceDTO> invocationScope = isDeltaMode(propertiesMap) ? delta
+				.getAdded() : governanceScope;
+		LOGGER.info("Aggregating scope of " + procId + ": " + delta);
+
+		ScopeAggregate aggregate = new ScopeAggregate(isRawResults(propertiesMap));
+		invoke(procId, propertiesMap, invocationScope, capaId, method, args,
+				historyKey, aggregate::add);
+		return new ResponseEntity<ScopeAggregate>(aggregate, HttpStatus.OK);
+	}
+
+	/**
+	 * Same as {@link #invokeCapabilityOnScope}, but streams the result of
+	 * every device as a server-sent event as soon as its invocation completes,
+	 * followed by a summary, see {@link ScopeResultStream}.
+	 */
+	@RequestMapping(value = "/invokeScope/stream/{procId}/{query}/{capaId}/{method}", method = RequestMethod.POST, consumes = "application/json", produces = ScopeResultStream.CONTENT_TYPE)
+	public void streamCapabilityOnScope(
+			@PathVariable String procId, @PathVariable String query,
+			@PathVariable String capaId, @PathVariable String method,
+			@RequestParam(value = "args", required = false) String args,
+			@RequestBody String uncertaintiyPropsJson,
+			HttpServletResponse servletResponse) throws IOException {
+		ScopeQuery scopeQuery;
+		Map<String, Object> propertiesMap;
+		Set<DeviceDTO> governanceScope;
+		try {
+			scopeQuery = ScopeQuery.compile(query);
+			propertiesMap = JsonParserFactory.getJsonParser().parseMap(uncertaintiyPropsJson);
+			governanceScope = resolveScope(scopeQuery, propertiesMap);
+		} catch (IllegalArgumentException e) {
+			// malformed query or invalid uncertainty properties
+			servletResponse.setStatus(HttpStatus.BAD_REQUEST.value());
+			servletResponse.getWriter().write(e.getMessage());
+			return;
+		}
+
+		String historyKey = ScopeHistory.key(procId, scopeQuery, capaId,
+				method, args);
+		ScopeDelta delta = this.scopeHistory.update(historyKey, governanceScope);
+		boolean deltaMode = isDeltaMode(propertiesMap);
+		Set<DeviceDTO> invocationScope = deltaMode ? delta.getAdded()
+				: governanceScope;
+		LOGGER.info("Streaming scope of " + procId + ": " + delta);
+
+		servletResponse.setContentType(ScopeResultStream.CONTENT_TYPE);
+		servletResponse.setCharacterEncoding("UTF-8");
+		servletResponse.setHeader("Cache-Control", "no-cache");
+		ScopeResultStream stream = new ScopeResultStream(servletResponse.getWriter());
+		try {
+			invoke(procId, propertiesMap, invocationScope, capaId, method,
+					args, historyKey, completion -> {
+						String deviceId = completion.getDevice().getId();
+						try {
+							if (completion.getError() != null) {
+								stream.error(deviceId, completion.getError());
+							} else {
+								stream.result(deviceId, completion.getResponse()
+										.getStatusCode().value(), completion
+										.getResponse().getBody());
+							}
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+		} catch (UncheckedIOException e) {
+			// the client went away
+			throw e.getCause();
+		}
+		stream.summary(deltaMode ? delta.getUnchanged() : -1, deltaMode ? delta
+				.getRemoved().size() : 0);
+	}
+
+	/**
+	 * Same as {@link #invokeCapabilityOnScope}, but returns a job right away
+	 * (202 Accepted) and invokes the scope in the background. The progress is
+	 * available at /jobs/{jobId} and the results at /jobs/{jobId}/results
+	 * until the retention period of the finished job is over.
+	 */
+	@RequestMapping(value = "/jobs/{procId}/{query}/{capaId}/{method}", method = RequestMethod.POST, consumes = "application/json")
+	public ResponseEntity<ScopeJob> submitScopeJob(
+			@PathVariable String procId, @PathVariable String query,
+			@PathVariable String capaId, @PathVariable String method,
+			@RequestParam(value = "args", required = false) String args,
+			@RequestBody String uncertaintiyPropsJson) {
+		ScopeQuery scopeQuery;
+		Map<String, Object> propertiesMap;
+		Set<DeviceDTO> governanceScope;
+		try {
+			scopeQuery = ScopeQuery.compile(query);
+			propertiesMap = JsonParserFactory.getJsonParser().parseMap(uncertaintiyPropsJson);
+			governanceScope = resolveScope(scopeQuery, propertiesMap);
+		} catch (IllegalArgumentException e) {
+			return new ResponseEntity<ScopeJob>(HttpStatus.BAD_REQUEST);
+		}
+
+		String historyKey = ScopeHistory.key(procId, scopeQuery, capaId,
+				method, args);
+		ScopeDelta delta = this.scopeHistory.update(historyKey, governanceScope);
+		Set<DeviceDTO> invocationScope = isDeltaMode(propertiesMap) ? delta
+				.getAdded() : governanceScope;
+
+		ScopeJob job;
+		try {
+			job = this.scopeJobs.submit(procId, query + "/" + capaId + "/"
+					+ method, invocationScope.size(),
+					isRawResults(propertiesMap), j -> invoke(procId,
+							propertiesMap, invocationScope, capaId, method,
+							args, historyKey, j::complete));
+		} catch (RejectedExecutionException e) {
+			// too many jobs waiting, none of the devices is invoked
+			for (DeviceDTO device : invocationScope) {
+				this.scopeHistory.forget(historyKey, device.getId());
+			}
+			return new ResponseEntity<ScopeJob>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		LOGGER.info("Submitted job " + job.getId() + " of " + procId + ": "
+				+ delta);
+		return new ResponseEntity<ScopeJob>(job, HttpStatus.ACCEPTED);
+	}
+
+	@RequestMapping(value = "/jobs", method = RequestMethod.GET)
+	public ResponseEntity<Collection<ScopeJob>> getScopeJobs() {
+		return new ResponseEntity<Collection<ScopeJob>>(
+				this.scopeJobs.getJobs(), HttpStatus.OK);
+	}
+
+	/**
+	 * Progress of a job: done, fallback, failed and pending devices.
+	 */
+	@RequestMapping(value = "/jobs/{jobId}", method = RequestMethod.GET)
+	public ResponseEntity<ScopeJob> getScopeJob(@PathVariable String jobId) {
+		ScopeJob job = this.scopeJobs.get(jobId);
+		if (job == null) {
+			return new ResponseEntity<ScopeJob>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<ScopeJob>(job, HttpStatus.OK);
+	}
+
+	/**
+	 * Raw results of a job in completion order, e.g.,
+	 * /jobs/{jobId}/results?offset=100&limit=100. Only kept if the job was
+	 * submitted with raw_results=true, the aggregate is part of the job.
+	 */
+	@RequestMapping(value = "/jobs/{jobId}/results", method = RequestMethod.GET)
+	public ResponseEntity<ScopeAggregate.Page> getScopeJobResults(
+			@PathVariable String jobId,
+			@RequestParam(value = "offset", required = false, defaultValue = "0") int offset,
+			@RequestParam(value = "limit", required = false, defaultValue = "100") int limit) {
+		ScopeJob job = this.scopeJobs.get(jobId);
+		if (job == null) {
+			return new ResponseEntity<ScopeAggregate.Page>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<ScopeAggregate.Page>(job.getResults(offset, limit),
+				HttpStatus.OK);
+	}
+
+	/**
+	 * Invokes the devices and takes their completions. Devices that failed
+	 * or fell back are forgotten by the scope history, so they are retried in
+	 * the next cycle. The same holds for devices without a completion because
+	 * the invocation could not be started, the thread was interrupted or the
+	 * consumer failed.
+	 */
+	private void invoke(String procId, Map<String, Object> propertiesMap,
+			Set<DeviceDTO> invocationScope, String capaId, String method,
+			String args, String historyKey, Consumer<Completion> consumer) {
+		invoke(() -> startInvocation(procId, propertiesMap, invocationScope,
+				capaId, method, args), invocationScope, this.scopeHistory,
+				historyKey, consumer);
+	}
+
+	static void invoke(Supplier<BlockingQueue<Completion>> invocation,
+			Set<DeviceDTO> invocationScope, ScopeHistory scopeHistory,
+			String historyKey, Consumer<Completion> consumer) {
+		Set<String> pending = new HashSet<>();
+		for (DeviceDTO device : invocationScope) {
+			pending.add(device.getId());
+		}
+		try {
+			BlockingQueue<Completion> completions = invocation.get();
+			for (int i = 0; i < invocationScope.size(); i++) {
+				Completion completion;
+				try {
+					completion = completions.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				pending.remove(completion.getDevice().getId());
+				if (!completion.isSuccessful()) {
+					scopeHistory.forget(historyKey, completion.getDevice()
+							.getId());
+				}
+				consumer.accept(completion);
+			}
+		} finally {
+			for (String deviceId : pending) {
+				scopeHistory.forget(historyKey, deviceId);
+			}
+		}
+	}
+
+	/**
+	 * raw_results=true keeps the result of every device besides the
+	 * aggregate.
+	 */
+	private static boolean isRawResults(Map<String, Object> propertiesMap) {
+		return Boolean.valueOf(String.valueOf(propertiesMap.getOrDefault(
+				"raw_results", "false")));
+	}
+
+	/**
+	 * invocation_mode=delta only invokes the devices that were not in the
+	 * scope of the last cycle, for idempotent capabilities.
+	 */
+	private static boolean isDeltaMode(Map<String, Object> propertiesMap) {
+		return "delta".equals(propertiesMap.getOrDefault("invocation_mode",
+				"full"));
+	}
+
+	/**
+	 * Starts the invocations of the scope. execution_mode=delegated sends
+	 * them in batches to the managers of the devices instead of invoking
+	 * every device from here.
+	 */
+	private BlockingQueue<Completion> startInvocation(String procId,
+			Map<String, Object> propertiesMap, Set<DeviceDTO> invocationScope,
+			String capaId, String method, String args) {
+		Context procC = this.processContext.registerIfAbsent(procId);
+		if ("delegated".equals(propertiesMap.getOrDefault("execution_mode",
+				"direct"))) {
+			return this.delegatedScopeExecutor.invoke(procC, invocationScope,
+					capaId, method, args);
+		}
+		return ScopeExecutor.invoke(procC, invocationScope, capaId, method,
+				args);
+	}
+
+	private static RoughScopeManager.Engine parseEngine(String roughEngine) {
+		try {
+			return RoughScopeManager.Engine.valueOf(roughEngine.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("rough_engine must be one of "
+					+ Arrays.toString(RoughScopeManager.Engine.values()).toLowerCase()
+					+ " but was " + roughEngine);
+		}
+	}
+
+	/**
+	 * Resolves the governance scope of a query considering the selection
+	 * uncertainty. Resolved scopes are cached until a device changes.
+	 * 
+	 * @param scopeQuery
+	 * @param propertiesMap uncertainty properties
+	 * @return
+	 */
+	private Set<DeviceDTO> resolveScope(ScopeQuery scopeQuery,
+			Map<String, Object> propertiesMap) {
+		// the index is kept up to date by the managers and the
+		// reconciliation afterwards
+		this.blockIndexSync.ensureLoaded();
+		
 		String replacement = (((String) propertiesMap.getOrDefault("missing_data","")));
 		String selectionStrategy = (((String) propertiesMap.getOrDefault("selection_strategy","")));
 		String attrs = (((String) propertiesMap.getOrDefault("attributes","")));
+
+		// decision_treshold=0.8 selects with variable precision, sampling_error=0.05
+		// estimates the inclusion ratios from samples
+		String decisionThreshold = String.valueOf(propertiesMap.getOrDefault("decision_treshold",""));
+		String samplingError = String.valueOf(propertiesMap.getOrDefault("sampling_error","0"));
+		// rough_engine=[bitset|set|classes]
+		RoughScopeManager.Engine engine = parseEngine(String.valueOf(propertiesMap.getOrDefault("rough_engine","bitset")));
+		// Devices per fork-join task, 0 = sequential
+		int parallelThreshold = Integer.valueOf(String.valueOf(propertiesMap.getOrDefault("parallel_threshold","1024")));
+
+		String cacheKey = ScopeCache.key(scopeQuery, replacement,
+				selectionStrategy, attrs, decisionThreshold, samplingError);
+		Set<DeviceDTO> governanceScope = this.scopeCache.get(cacheKey,
+				this.blockIndex.getVersion());
+		if (governanceScope != null) {
+			return governanceScope;
+		}
+
+		// attributes=owner,location (default: all attributes of the fleet)
+		List<String> attributes = attrs.isEmpty() ? null : Arrays.asList(attrs.split(","));
+
+		// incremental_scope=true keeps optimistic/pessimistic scopes up to date
+		// on device changes instead of recomputing them
+		boolean incremental = Boolean.valueOf(String.valueOf(propertiesMap.getOrDefault("incremental_scope","false")));
+		if (incremental && decisionThreshold.isEmpty() && !"reduct".equals(selectionStrategy)) {
+			if (attributes == null) {
+				attributes = this.blockIndex.getAttributes();
+			}
+			long version = this.blockIndex.getVersion();
+			governanceScope = this.blockIndex.getIncrementalScope(replacement,
+					scopeQuery, attributes, "pessimistic".equals(selectionStrategy));
+			this.scopeCache.put(cacheKey, version, governanceScope);
+			return governanceScope;
+		}
+
+		RoughScopeManager rgsm = new RoughScopeManager(engine);
+		rgsm.setParallelism(ForkJoinPool.commonPool(), parallelThreshold);
+		rgsm.setSampling(Double.valueOf(samplingError), cacheKey.hashCode());
 		
-		List<DeviceDTO> targetScope = rgsm
-				.getDeviceDTOsForORQuery(globalScope, query);
-		List<DeviceDTO> devicesNoMissing = rgsm.prepareData(targetScope,
-				replacement);
-		Map<Block, List<DeviceDTO>> blocks = rgsm.makeBlocks(devicesNoMissing);
-		Map<Block, List<DeviceDTO>> processedBblocks = rgsm.handleSpecialValues(
-				blocks, devicesNoMissing);
-		List<String> attributes = new ArrayList<String>();
-		attributes.add("owner");
-		attributes.add("location");
-		attributes.add("type");
-		Set<DeviceDTO> governanceScope = null;
-		if ("pessimistic".equals(selectionStrategy)) {
+		// Devices with replaced missing data, processed blocks and the
+		// devices that match the query
+		Snapshot snapshot = this.blockIndex.getSnapshot(replacement, scopeQuery);
+		List<DeviceDTO> globalScope = snapshot.getDevices();
+		List<DeviceDTO> targetScope = snapshot.getTargetScope();
+		Map<Block, List<DeviceDTO>> processedBblocks = snapshot.getBlocks();
+		if (attributes == null) {
+			attributes = snapshot.getAttributes();
+		}
+		if (!decisionThreshold.isEmpty()) {
+			double beta = Double.valueOf(decisionThreshold);
+			if (beta <= 0.5 || beta > 1) {
+				throw new IllegalArgumentException(
+						"decision_treshold must be in (0.5, 1] but was " + beta);
+			}
+			if ("pessimistic".equals(selectionStrategy)) {
+				governanceScope = rgsm.buildVariablePrecisionLowerApproximation(
+						targetScope, globalScope, attributes, processedBblocks, beta);
+			} else {
+				governanceScope = rgsm.buildVariablePrecisionUpperApproximation(
+						targetScope, globalScope, attributes, processedBblocks, beta);
+			}
+		} else if ("pessimistic".equals(selectionStrategy)) {
 			governanceScope = rgsm.buildLowerApproximationOptimized(
 					targetScope, globalScope, attributes, processedBblocks);
-		}else{
+		} else if ("reduct".equals(selectionStrategy)) {
+			// optimistic, but only with the attributes that discern devices
+			List<String> reduct = this.attributeReduct.get(replacement,
+					attributes, snapshot);
+			governanceScope = rgsm.buildUpperApproximation(targetScope,
+					globalScope, reduct, processedBblocks);
+		} else {
 			governanceScope = rgsm.buildUpperApproximation(targetScope, globalScope,attributes, processedBblocks);
 		}
-
-		String response = "Invoking " + governanceScope.size()
-				+ " devices ...<br/><br/>";
-		List<Future<ResponseEntity<String>>> invocationResults = new ArrayList<>();
-		for (DeviceDTO deviceDTO : governanceScope) {
-			String dynamicURL = new DefaultMappingModel(capaId,
-					deviceDTO.getId(), method, args).getMapping();
-			Context procC = this.processContext.registerIfAbsent(procId);
-			Future<ResponseEntity<String>> r = new ProcessCapabilityInvocation(
-					dynamicURL, procC).queue();
-			invocationResults.add(r);
-		}
-		LOGGER.info("Waiting for " + invocationResults.size() + " results!");
-		for (Future<ResponseEntity<String>> result : invocationResults) {
-			try {
-				String resultBody = result.get().getBody();
-				response += resultBody + "<br/><br/>";
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-		return new ResponseEntity<String>(response, HttpStatus.OK);
+		this.scopeCache.put(cacheKey, snapshot.getVersion(), governanceScope);
+		return governanceScope;
 	}
 
 	@RequestMapping(value = "/checkDevices/{scopeSize}/{capaId}", method = RequestMethod.GET)
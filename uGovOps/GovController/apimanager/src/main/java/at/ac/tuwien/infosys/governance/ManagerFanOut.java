@@ -0,0 +1,409 @@
+package at.ac.tuwien.infosys.governance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import at.ac.tuwien.infosys.store.model.DeviceChangesDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DevicesDTO;
+
+/**
+ * Gathers the devices of all manager nodes concurrently. All requests are
+ * sent at once and a node that does not answer within the timeout is
+ * reported as missing instead of stalling the others, so a gather takes as
+ * long as the slowest healthy node. Latencies and failures are kept per node.
+ *
+ * The devices of every node are kept in a {@link ManagerReplica}, a gather
+ * only transfers the devices that changed since the previous one. The
+ * effect of a gather on the replicas is reported as a {@link Delta}, e.g., to
+ * keep the block index up to date.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class ManagerFanOut {
+
+	private static final Logger LOGGER = Logger.getLogger(ManagerFanOut.class);
+
+	public enum State {
+		OK, FAILED, TIMEOUT
+	}
+
+	// default of manager.url, {node} is replaced with the manager node
+	public static final String MANAGER_URL = "http://{node}:8080/SDGManager";
+
+	@Autowired
+	private AsyncRestTemplate asyncRestTemplate;
+
+	@Value("${scope.gather.timeout:5000}")
+	private long timeout = 5000;
+	@Value("${manager.url:" + MANAGER_URL + "}")
+	private String managerURL = MANAGER_URL;
+
+	private final Map<String, NodeMetrics> metrics = new ConcurrentHashMap<>();
+	private final Map<String, ManagerReplica> replicas = new ConcurrentHashMap<>();
+	private volatile Report lastReport;
+
+	public ManagerFanOut() {
+	}
+
+	public ManagerFanOut(AsyncRestTemplate asyncRestTemplate, long timeout) {
+		this.asyncRestTemplate = asyncRestTemplate;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * URL of the devices of a manager node.
+	 */
+	protected String devicesURL(String node) {
+		return managerURL(this.managerURL, node) + "/device-manager/devices";
+	}
+
+	/**
+	 * Base URL of a manager node.
+	 *
+	 * @param pattern
+	 *            e.g., http://{node}:8080/SDGManager
+	 */
+	public static String managerURL(String pattern, String node) {
+		return pattern.replace("{node}", node);
+	}
+
+	/**
+	 * Requests the changes of all nodes and waits at most the timeout.
+	 *
+	 * @param nodes
+	 * @param devices
+	 *            receives the devices of all nodes, in the order of the nodes.
+	 *            For a node that did not answer, the devices of its last
+	 *            successful gather are used.
+	 * @return state and latency of every node
+	 */
+	public Report gather(List<String> nodes, DevicesDTO devices) {
+		return gather(nodes, devices, new Delta());
+	}
+
+	/**
+	 * Same as {@link #gather(List, DevicesDTO)}, additionally collects the
+	 * devices that changed in the replicas. Devices of nodes that left count
+	 * as removed, unless another node has them.
+	 */
+	public Report gather(List<String> nodes, DevicesDTO devices, Delta delta) {
+		final long start = System.currentTimeMillis();
+		// nodes that left are not replicated anymore
+		for (String node : new ArrayList<>(this.replicas.keySet())) {
+			if (!nodes.contains(node)) {
+				ManagerReplica left = this.replicas.remove(node);
+				if (left != null) {
+					delta.removed.addAll(left.getDeviceIds());
+				}
+			}
+		}
+		Map<String, ListenableFuture<ResponseEntity<DeviceChangesDTO>>> requests = new LinkedHashMap<>();
+		final Map<String, Long> latencies = new ConcurrentHashMap<>();
+		for (final String node : nodes) {
+			ListenableFuture<ResponseEntity<DeviceChangesDTO>> request;
+			try {
+				request = this.asyncRestTemplate.getForEntity(devicesURL(node)
+						+ replica(node).changesQuery(), DeviceChangesDTO.class);
+			} catch (Exception e) {
+				LOGGER.info("Cannot request devices of node " + node + ": "
+						+ e.getMessage());
+				requests.put(node, null);
+				continue;
+			}
+			request.addCallback(new ListenableFutureCallback<ResponseEntity<DeviceChangesDTO>>() {
+				@Override
+				public void onSuccess(ResponseEntity<DeviceChangesDTO> result) {
+					latencies.put(node, System.currentTimeMillis() - start);
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					latencies.put(node, System.currentTimeMillis() - start);
+				}
+			});
+			requests.put(node, request);
+		}
+
+		long deadline = start + this.timeout;
+		List<NodeStatus> statuses = new ArrayList<>();
+		for (Map.Entry<String, ListenableFuture<ResponseEntity<DeviceChangesDTO>>> e : requests
+				.entrySet()) {
+			String node = e.getKey();
+			NodeStatus status;
+			if (e.getValue() == null) {
+				status = new NodeStatus(node, State.FAILED, 0, 0, 0,
+						"request not sent");
+			} else {
+				status = await(node, e.getValue(), deadline, delta);
+			}
+			if (status.getState() != State.TIMEOUT) {
+				// the callback may not have run yet, the wait is an upper
+				// bound then
+				Long latency = latencies.get(node);
+				status.latency = latency != null ? latency : System
+						.currentTimeMillis() - start;
+			}
+			metrics(node).record(status);
+			statuses.add(status);
+			devices.getDevices().addAll(replica(node).getDevices());
+		}
+		// a device may have moved to another node
+		for (String node : nodes) {
+			for (String deviceId : replica(node).getDeviceIds()) {
+				delta.removed.remove(deviceId);
+			}
+		}
+		Report report = new Report(statuses, System.currentTimeMillis()
+				- start);
+		if (!report.isComplete()) {
+			LOGGER.warn("Partial global scope, missing nodes: "
+					+ report.getMissingNodes());
+		}
+		this.lastReport = report;
+		return report;
+	}
+
+	public Report getLastReport() {
+		return lastReport;
+	}
+
+	public Map<String, NodeMetrics> getMetrics() {
+		return metrics;
+	}
+
+	private NodeStatus await(String node,
+			ListenableFuture<ResponseEntity<DeviceChangesDTO>> request,
+			long deadline, Delta delta) {
+		long remaining = Math.max(0, deadline - System.currentTimeMillis());
+		ManagerReplica replica = replica(node);
+		try {
+			ResponseEntity<DeviceChangesDTO> response = request.get(remaining,
+					TimeUnit.MILLISECONDS);
+			if (response.getStatusCode() != HttpStatus.OK
+					|| response.getBody() == null) {
+				return new NodeStatus(node, State.FAILED, 0, replica.size(), 0,
+						"status " + response.getStatusCode());
+			}
+			DeviceChangesDTO changes = response.getBody();
+			replica.apply(changes, delta.changed, delta.removed);
+			return new NodeStatus(node, State.OK, 0, replica.size(), changes
+					.getDevices().size() + changes.getRemoved().size(), null);
+		} catch (TimeoutException e) {
+			request.cancel(true);
+			return new NodeStatus(node, State.TIMEOUT, this.timeout,
+					replica.size(), 0, "no answer within " + this.timeout
+							+ " ms");
+		} catch (ExecutionException e) {
+			return new NodeStatus(node, State.FAILED, 0, replica.size(), 0, e
+					.getCause().getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			request.cancel(true);
+			return new NodeStatus(node, State.FAILED, 0, replica.size(), 0,
+					"interrupted");
+		}
+	}
+
+	private ManagerReplica replica(String node) {
+		ManagerReplica replica = this.replicas.get(node);
+		if (replica == null) {
+			this.replicas.putIfAbsent(node, new ManagerReplica());
+			replica = this.replicas.get(node);
+		}
+		return replica;
+	}
+
+	private NodeMetrics metrics(String node) {
+		NodeMetrics m = this.metrics.get(node);
+		if (m == null) {
+			this.metrics.putIfAbsent(node, new NodeMetrics());
+			m = this.metrics.get(node);
+		}
+		return m;
+	}
+
+	/**
+	 * Devices added to or changed in the replicas and ids of removed devices.
+	 */
+	public static class Delta {
+		private final List<DeviceDTO> changed = new ArrayList<>();
+		private final Set<String> removed = new LinkedHashSet<>();
+
+		public List<DeviceDTO> getChanged() {
+			return changed;
+		}
+
+		public Set<String> getRemoved() {
+			return removed;
+		}
+
+		public boolean isEmpty() {
+			return this.changed.isEmpty() && this.removed.isEmpty();
+		}
+	}
+
+	/**
+	 * Outcome of one node in a gather.
+	 */
+	public static class NodeStatus {
+		private final String node;
+		private final State state;
+		private long latency;
+		private final int devices;
+		private final int changes;
+		private final String error;
+
+		NodeStatus(String node, State state, long latency, int devices,
+				int changes, String error) {
+			this.node = node;
+			this.state = state;
+			this.latency = latency;
+			this.devices = devices;
+			this.changes = changes;
+			this.error = error;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * Milliseconds from sending the request until the answer.
+		 */
+		public long getLatency() {
+			return latency;
+		}
+
+		/**
+		 * Number of devices of the replica of the node.
+		 */
+		public int getDevices() {
+			return devices;
+		}
+
+		/**
+		 * Number of changed devices transferred.
+		 */
+		public int getChanges() {
+			return changes;
+		}
+
+		public String getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Outcome of a gather over all nodes.
+	 */
+	public static class Report {
+		private final List<NodeStatus> nodes;
+		private final long elapsed;
+
+		Report(List<NodeStatus> nodes, long elapsed) {
+			this.nodes = nodes;
+			this.elapsed = elapsed;
+		}
+
+		public List<NodeStatus> getNodes() {
+			return nodes;
+		}
+
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		/**
+		 * True if every node answered.
+		 */
+		public boolean isComplete() {
+			return getMissingNodes().isEmpty();
+		}
+
+		public List<String> getMissingNodes() {
+			List<String> missing = new ArrayList<>();
+			for (NodeStatus status : this.nodes) {
+				if (status.getState() != State.OK) {
+					missing.add(status.getNode());
+				}
+			}
+			return missing;
+		}
+	}
+
+	/**
+	 * Latency and failure counters of a node over all gathers.
+	 */
+	public static class NodeMetrics {
+		private long requests;
+		private long failures;
+		private long timeouts;
+		private long lastLatency;
+		private long maxLatency;
+		private long totalLatency;
+
+		synchronized void record(NodeStatus status) {
+			this.requests++;
+			if (status.getState() == State.FAILED) {
+				this.failures++;
+			} else if (status.getState() == State.TIMEOUT) {
+				this.timeouts++;
+			}
+			this.lastLatency = status.getLatency();
+			this.maxLatency = Math.max(this.maxLatency, status.getLatency());
+			this.totalLatency += status.getLatency();
+		}
+
+		public synchronized long getRequests() {
+			return requests;
+		}
+
+		public synchronized long getFailures() {
+			return failures;
+		}
+
+		public synchronized long getTimeouts() {
+			return timeouts;
+		}
+
+		public synchronized long getLastLatency() {
+			return lastLatency;
+		}
+
+		public synchronized long getMaxLatency() {
+			return maxLatency;
+		}
+
+		public synchronized double getMeanLatency() {
+			return this.requests == 0 ? 0 : (double) this.totalLatency
+					/ this.requests;
+		}
+	}
+}
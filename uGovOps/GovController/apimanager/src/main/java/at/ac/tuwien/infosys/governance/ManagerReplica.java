@@ -0,0 +1,116 @@
+package at.ac.tuwien.infosys.governance;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import at.ac.tuwien.infosys.store.model.DeviceChangesDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+/**
+ * Local copy of the devices of one manager node, advanced with the changes
+ * of the manager's change feed. A fresh replica (or one of another epoch)
+ * receives all devices once, afterwards only the changed devices are
+ * transferred.
+ *
+ * @author stefan
+ *
+ */
+public class ManagerReplica {
+
+	private String epoch = "";
+	private long sequence = 0;
+	private final Map<String, DeviceDTO> devices = new LinkedHashMap<>();
+
+	public synchronized String getEpoch() {
+		return epoch;
+	}
+
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Query of the changes the replica is missing, e.g.,
+	 * ?since=42&epoch=...
+	 */
+	public synchronized String changesQuery() {
+		return "?since=" + this.sequence + "&epoch=" + this.epoch;
+	}
+
+	/**
+	 * Applies the changes if they are based on the state of the replica.
+	 * Changes based on another sequence number and outdated full states
+	 * (e.g., answers to concurrent requests) are ignored.
+	 *
+	 * @return true if the changes were applied
+	 */
+	public boolean apply(DeviceChangesDTO changes) {
+		return apply(changes, new ArrayList<DeviceDTO>(),
+				new ArrayList<String>());
+	}
+
+	/**
+	 * Same as {@link #apply(DeviceChangesDTO)}, additionally collects the
+	 * effect on the replica: devices that were added or whose meta info
+	 * changed and ids of devices that were removed. For a full state, devices
+	 * missing in it count as removed.
+	 */
+	public synchronized boolean apply(DeviceChangesDTO changes,
+			Collection<DeviceDTO> changed, Collection<String> removed) {
+		if (changes.isFull()) {
+			if (changes.getEpoch().equals(this.epoch)
+					&& changes.getSequence() < this.sequence) {
+				return false;
+			}
+			Map<String, DeviceDTO> previous = new LinkedHashMap<>(this.devices);
+			this.devices.clear();
+			for (DeviceDTO device : changes.getDevices()) {
+				this.devices.put(device.getId(), device);
+				DeviceDTO old = previous.remove(device.getId());
+				if (old == null || !Objects.equals(old.metaInfo, device.metaInfo)) {
+					changed.add(device);
+				}
+			}
+			removed.addAll(previous.keySet());
+		} else if (!changes.getEpoch().equals(this.epoch)
+				|| changes.getSince() != this.sequence) {
+			return false;
+		} else {
+			for (String deviceId : changes.getRemoved()) {
+				if (this.devices.remove(deviceId) != null) {
+					removed.add(deviceId);
+				}
+			}
+			for (DeviceDTO device : changes.getDevices()) {
+				this.devices.put(device.getId(), device);
+				changed.add(device);
+			}
+		}
+		this.epoch = changes.getEpoch();
+		this.sequence = changes.getSequence();
+		return true;
+	}
+
+	public synchronized List<DeviceDTO> getDevices() {
+		return new ArrayList<>(this.devices.values());
+	}
+
+	public synchronized boolean contains(String deviceId) {
+		return this.devices.containsKey(deviceId);
+	}
+
+	/**
+	 * Ids of the devices of the replica.
+	 */
+	public synchronized List<String> getDeviceIds() {
+		return new ArrayList<>(this.devices.keySet());
+	}
+
+	public synchronized int size() {
+		return this.devices.size();
+	}
+}
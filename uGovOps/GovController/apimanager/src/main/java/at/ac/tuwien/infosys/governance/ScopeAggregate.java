@@ -0,0 +1,384 @@
+package at.ac.tuwien.infosys.governance;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor.Completion;
+
+/**
+ * Folds the results of a scope invocation as they arrive, in memory
+ * independent of the number of devices:
+ * <ul>
+ * <li>counters of succeeded, fallback and failed devices and of the status
+ * codes</li>
+ * <li>min, max, mean and a histogram of the numeric results</li>
+ * <li>the distinct results and how often they occurred, up to MAX_DISTINCT
+ * values</li>
+ * </ul>
+ * Only responses of the devices themselves (2xx, not the fallback) are
+ * values. The raw results are only kept if requested.
+ *
+ * @author stefan
+ *
+ */
+public class ScopeAggregate {
+
+	static final int MAX_DISTINCT = 1000;
+	// longer values are truncated in the distinct values
+	static final int MAX_VALUE_LENGTH = 256;
+	// longer values are not parsed as numbers
+	private static final int MAX_NUMBER_LENGTH = 64;
+
+	private int devices = 0;
+	private int succeeded = 0;
+	private int fallback = 0;
+	private int failed = 0;
+	private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+	private int numeric = 0;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private double sum = 0;
+	private final Histogram histogram = new Histogram();
+
+	private final Map<String, Integer> distinct = new LinkedHashMap<>();
+	// values that did not fit into the distinct values anymore
+	private int otherValues = 0;
+
+	private final List<Result> raw;
+
+	public ScopeAggregate(boolean keepRaw) {
+		this.raw = keepRaw ? new ArrayList<>() : null;
+	}
+
+	public synchronized void add(Completion completion) {
+		this.devices++;
+		String deviceId = completion.getDevice().getId();
+		if (completion.getError() != null) {
+			this.failed++;
+			if (this.raw != null) {
+				this.raw.add(new Result(deviceId, 0, null, String
+						.valueOf(completion.getError().getMessage()), false));
+			}
+			return;
+		}
+		int status = completion.getResponse().getStatusCode().value();
+		String body = completion.getResponse().getBody();
+		this.statuses.merge(status, 1, Integer::sum);
+		if (completion.isFallback()) {
+			this.fallback++;
+		} else if (!completion.isSuccessful()) {
+			this.failed++;
+		} else {
+			this.succeeded++;
+			addValue(body == null ? "" : body.trim());
+		}
+		if (this.raw != null) {
+			this.raw.add(new Result(deviceId, status, body, null, completion
+					.isFallback()));
+		}
+	}
+
+	private void addValue(String value) {
+		if (value.length() > MAX_VALUE_LENGTH) {
+			value = value.substring(0, MAX_VALUE_LENGTH) + "...";
+		}
+		Integer count = this.distinct.get(value);
+		if (count != null) {
+			this.distinct.put(value, count + 1);
+		} else if (this.distinct.size() < MAX_DISTINCT) {
+			this.distinct.put(value, 1);
+		} else {
+			this.otherValues++;
+		}
+
+		if (value.isEmpty() || value.length() > MAX_NUMBER_LENGTH) {
+			return;
+		}
+		double number;
+		try {
+			// only plain decimal numbers, no NaN, Infinity or hex
+			number = new BigDecimal(value).doubleValue();
+		} catch (NumberFormatException e) {
+			return;
+		}
+		if (Double.isInfinite(number)) {
+			return;
+		}
+		if (this.numeric == 0) {
+			this.min = number;
+			this.max = number;
+		} else {
+			this.min = Math.min(this.min, number);
+			this.max = Math.max(this.max, number);
+		}
+		this.numeric++;
+		this.sum += number;
+		this.histogram.add(number);
+	}
+
+	public synchronized int getDevices() {
+		return devices;
+	}
+
+	public synchronized int getSucceeded() {
+		return succeeded;
+	}
+
+	public synchronized int getFallback() {
+		return fallback;
+	}
+
+	public synchronized int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Devices per status code of their response.
+	 */
+	public synchronized Map<Integer, Integer> getStatuses() {
+		return new TreeMap<>(statuses);
+	}
+
+	/**
+	 * Number of numeric values.
+	 */
+	public synchronized int getNumeric() {
+		return numeric;
+	}
+
+	/**
+	 * NaN if there are no numeric values.
+	 */
+	public synchronized double getMin() {
+		return min;
+	}
+
+	public synchronized double getMax() {
+		return max;
+	}
+
+	public synchronized double getMean() {
+		return this.numeric == 0 ? Double.NaN : this.sum / this.numeric;
+	}
+
+	/**
+	 * Non-empty bins of the numeric values in ascending order.
+	 */
+	public synchronized List<Bin> getHistogram() {
+		return this.histogram.getBins();
+	}
+
+	/**
+	 * Distinct values in order of their first occurrence and the devices
+	 * that returned them.
+	 */
+	public synchronized Map<String, Integer> getDistinct() {
+		return new LinkedHashMap<>(distinct);
+	}
+
+	public synchronized int getOtherValues() {
+		return otherValues;
+	}
+
+	public boolean isRawKept() {
+		return this.raw != null;
+	}
+
+	/**
+	 * Raw results in order of arrival, from offset to at most offset + limit,
+	 * empty if they are not kept.
+	 */
+	public synchronized Page getRaw(int offset, int limit) {
+		if (this.raw == null) {
+			return new Page(0, 0, new ArrayList<Result>());
+		}
+		int from = Math.min(Math.max(0, offset), this.raw.size());
+		int to = Math.min(this.raw.size(), from + Math.max(0, limit));
+		return new Page(from, this.raw.size(), new ArrayList<>(this.raw
+				.subList(from, to)));
+	}
+
+	/**
+	 * Histogram of BINS equally wide bins. The bins start at the first value
+	 * with width 0 and grow by powers of two until they cover the range of
+	 * the values. Bin boundaries are multiples of the width, so doubling the
+	 * width merges neighboring bins exactly.
+	 */
+	static class Histogram {
+
+		static final int BINS = 32;
+		// larger values are put into the outermost bins, the width stays finite
+		private static final double LIMIT = 1e300;
+
+		private long[] counts = new long[BINS];
+		private double low = 0;
+		private double width = 0;
+		private double min = Double.NaN;
+		private double max = Double.NaN;
+
+		void add(double value) {
+			value = Math.max(-LIMIT, Math.min(LIMIT, value));
+			if (Double.isNaN(this.min)) {
+				this.low = value;
+				this.min = value;
+				this.max = value;
+			} else {
+				this.min = Math.min(this.min, value);
+				this.max = Math.max(this.max, value);
+				if (!covers(this.low, this.width, this.min, this.max)) {
+					grow(this.min, this.max);
+				}
+			}
+			this.counts[bin(value)]++;
+		}
+
+		private int bin(double value) {
+			if (this.width == 0) {
+				return 0;
+			}
+			return Math.max(0, Math.min(BINS - 1,
+					(int) ((value - this.low) / this.width)));
+		}
+
+		private static boolean covers(double low, double width, double min,
+				double max) {
+			if (width == 0) {
+				return min == low && max == low;
+			}
+			return low <= min && max < low + width * BINS;
+		}
+
+		private void grow(double min, double max) {
+			double width = this.width > 0 ? this.width * 2 : Math.scalb(1.0,
+					Math.getExponent((max - min) / BINS));
+			double low = Math.floor(min / width) * width;
+			while (!covers(low, width, min, max)) {
+				width *= 2;
+				low = Math.floor(min / width) * width;
+			}
+			long[] counts = new long[BINS];
+			for (int i = 0; i < BINS; i++) {
+				if (this.counts[i] > 0) {
+					double start = this.low + i * this.width;
+					counts[(int) ((start - low) / width)] += this.counts[i];
+				}
+			}
+			this.counts = counts;
+			this.low = low;
+			this.width = width;
+		}
+
+		List<Bin> getBins() {
+			List<Bin> bins = new ArrayList<>();
+			for (int i = 0; i < BINS; i++) {
+				if (this.counts[i] > 0) {
+					double from = this.low + i * this.width;
+					bins.add(new Bin(from, from + this.width, this.counts[i]));
+				}
+			}
+			return bins;
+		}
+	}
+
+	public static class Bin {
+		private final double from;
+		private final double to;
+		private final long count;
+
+		Bin(double from, double to, long count) {
+			this.from = from;
+			this.to = to;
+			this.count = count;
+		}
+
+		/**
+		 * Inclusive.
+		 */
+		public double getFrom() {
+			return from;
+		}
+
+		/**
+		 * Exclusive, equal to from if all values are equal.
+		 */
+		public double getTo() {
+			return to;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+
+	public static class Result {
+		private final String device;
+		private final int status;
+		private final String body;
+		private final String error;
+		private final boolean fallback;
+
+		Result(String device, int status, String body, String error,
+				boolean fallback) {
+			this.device = device;
+			this.status = status;
+			this.body = body;
+			this.error = error;
+			this.fallback = fallback;
+		}
+
+		public String getDevice() {
+			return device;
+		}
+
+		/**
+		 * 0 if the invocation failed.
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		public String getBody() {
+			return body;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public boolean isFallback() {
+			return fallback;
+		}
+	}
+
+	public static class Page {
+		private final int offset;
+		private final int total;
+		private final List<Result> results;
+
+		Page(int offset, int total, List<Result> results) {
+			this.offset = offset;
+			this.total = total;
+			this.results = results;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Results available so far.
+		 */
+		public int getTotal() {
+			return total;
+		}
+
+		public List<Result> getResults() {
+			return results;
+		}
+	}
+}
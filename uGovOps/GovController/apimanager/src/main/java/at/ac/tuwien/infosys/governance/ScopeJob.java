@@ -0,0 +1,128 @@
+package at.ac.tuwien.infosys.governance;
+
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor.Completion;
+
+/**
+ * Progress and results of an asynchronous scope invocation. The counts are
+ * exclusive: every device is pending until it is done (successful response),
+ * fallback (response of the process's fallback) or failed (error or non-2xx
+ * response). The results are folded into a {@link ScopeAggregate}, the raw
+ * results are only kept if requested.
+ *
+ * @author stefan
+ *
+ */
+public class ScopeJob {
+
+	public enum State {
+		QUEUED, RUNNING, FINISHED
+	}
+
+	private final String id;
+	private final String procId;
+	private final String description;
+	private final int devices;
+	private final long submitted = System.currentTimeMillis();
+	private long started = 0;
+	private long finished = 0;
+	private State state = State.QUEUED;
+	private final ScopeAggregate aggregate;
+	// devices without a result when the job finished
+	private int missing = 0;
+
+	public ScopeJob(String id, String procId, String description,
+			int devices, boolean keepResults) {
+		this.id = id;
+		this.procId = procId;
+		this.description = description;
+		this.devices = devices;
+		this.aggregate = new ScopeAggregate(keepResults);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getProcId() {
+		return procId;
+	}
+
+	/**
+	 * e.g., location=gh1/sensor/read
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	public int getDevices() {
+		return devices;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public long getSubmitted() {
+		return submitted;
+	}
+
+	public synchronized long getStarted() {
+		return started;
+	}
+
+	/**
+	 * 0 until the job is finished.
+	 */
+	public synchronized long getFinished() {
+		return finished;
+	}
+
+	public int getDone() {
+		return this.aggregate.getSucceeded();
+	}
+
+	public int getFallback() {
+		return this.aggregate.getFallback();
+	}
+
+	public synchronized int getFailed() {
+		return this.aggregate.getFailed() + this.missing;
+	}
+
+	public synchronized int getPending() {
+		return this.devices - this.aggregate.getDevices() - this.missing;
+	}
+
+	/**
+	 * Aggregate of the results so far.
+	 */
+	public ScopeAggregate getAggregate() {
+		return aggregate;
+	}
+
+	synchronized void start() {
+		this.state = State.RUNNING;
+		this.started = System.currentTimeMillis();
+	}
+
+	/**
+	 * Devices without a result are counted as failed.
+	 */
+	synchronized void finish() {
+		this.missing = getPending();
+		this.state = State.FINISHED;
+		this.finished = System.currentTimeMillis();
+	}
+
+	synchronized void complete(Completion completion) {
+		this.aggregate.add(completion);
+	}
+
+	/**
+	 * Results in completion order, from offset to at most offset + limit.
+	 * Empty if the results are not kept.
+	 */
+	public ScopeAggregate.Page getResults(int offset, int limit) {
+		return this.aggregate.getRaw(offset, limit);
+	}
+}
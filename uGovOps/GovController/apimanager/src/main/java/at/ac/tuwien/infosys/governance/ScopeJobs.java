@@ -0,0 +1,127 @@
+package at.ac.tuwien.infosys.governance;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+/**
+ * Asynchronous scope invocations. Jobs are executed by scope.jobs.threads
+ * workers, at most scope.jobs.queue jobs wait for a worker. A finished job
+ * and its results are kept for scope.jobs.retention seconds.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class ScopeJobs {
+
+	private static final Logger LOGGER = Logger.getLogger(ScopeJobs.class);
+
+	@Value("${scope.jobs.threads:4}")
+	private int threads = 4;
+	@Value("${scope.jobs.queue:64}")
+	private int queueSize = 64;
+	@Value("${scope.jobs.retention:3600}")
+	private long retention = 3600;
+
+	private final Map<String, ScopeJob> jobs = new ConcurrentHashMap<>();
+	private ThreadPoolExecutor executor;
+
+	public ScopeJobs() {
+	}
+
+	public ScopeJobs(int threads, int queueSize, long retention) {
+		this.threads = threads;
+		this.queueSize = queueSize;
+		this.retention = retention;
+		start();
+	}
+
+	@PostConstruct
+	public void start() {
+		this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						this.queueSize));
+	}
+
+	@PreDestroy
+	public void stop() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Queues a job, the work completes the devices of the job. The job is
+	 * finished afterwards, even if the work fails.
+	 *
+	 * @param keepResults
+	 *            keep the raw results besides the aggregate
+	 * @throws RejectedExecutionException
+	 *             if the queue is full
+	 */
+	public ScopeJob submit(String procId, String description, int devices,
+			boolean keepResults, Consumer<ScopeJob> work) {
+		evictExpired(System.currentTimeMillis());
+		ScopeJob job = new ScopeJob(UUID.randomUUID().toString(), procId,
+				description, devices, keepResults);
+		this.jobs.put(job.getId(), job);
+		try {
+			this.executor.execute(() -> {
+				job.start();
+				try {
+					work.accept(job);
+				} catch (RuntimeException e) {
+					LOGGER.warn("Scope job " + job.getId() + " failed", e);
+				} finally {
+					job.finish();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.jobs.remove(job.getId());
+			throw e;
+		}
+		return job;
+	}
+
+	/**
+	 * @return null if the job is not known or expired
+	 */
+	public ScopeJob get(String id) {
+		evictExpired(System.currentTimeMillis());
+		return this.jobs.get(id);
+	}
+
+	public Collection<ScopeJob> getJobs() {
+		evictExpired(System.currentTimeMillis());
+		List<ScopeJob> jobs = new ArrayList<>(this.jobs.values());
+		jobs.sort((a, b) -> Long.compare(a.getSubmitted(), b.getSubmitted()));
+		return jobs;
+	}
+
+	void evictExpired(long now) {
+		Iterator<ScopeJob> it = this.jobs.values().iterator();
+		while (it.hasNext()) {
+			long finished = it.next().getFinished();
+			if (finished > 0 && now - finished >= this.retention * 1000) {
+				it.remove();
+			}
+		}
+	}
+}
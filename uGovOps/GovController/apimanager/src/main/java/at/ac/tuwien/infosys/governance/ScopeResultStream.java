@@ -0,0 +1,114 @@
+package at.ac.tuwien.infosys.governance;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the results of a scope invocation as server-sent events, one
+ * "result" event per device as soon as its invocation completes and a final
+ * "summary" event:
+ *
+ * <pre>
+ * event: result
+ * data: {"device":"D1","status":200,"latency":35,"body":"..."}
+ *
+ * event: summary
+ * data: {"devices":2,"succeeded":1,"failed":1,"elapsed":120}
+ * </pre>
+ *
+ * Every event is flushed, nothing is buffered beyond the current event.
+ *
+ * @author stefan
+ *
+ */
+public class ScopeResultStream {
+
+	public static final String CONTENT_TYPE = "text/event-stream";
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private final Writer writer;
+	private final long start = System.currentTimeMillis();
+	private int succeeded = 0;
+	private int failed = 0;
+
+	public ScopeResultStream(Writer writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Result of a device that answered.
+	 */
+	public void result(String deviceId, int status, String body)
+			throws IOException {
+		if (status >= 200 && status < 300) {
+			this.succeeded++;
+		} else {
+			this.failed++;
+		}
+		JsonGenerator json = begin("result");
+		json.writeStringField("device", deviceId);
+		json.writeNumberField("status", status);
+		json.writeNumberField("latency", System.currentTimeMillis() - this.start);
+		json.writeStringField("body", body);
+		end(json);
+	}
+
+	/**
+	 * Result of a device whose invocation failed.
+	 */
+	public void error(String deviceId, Throwable error) throws IOException {
+		this.failed++;
+		JsonGenerator json = begin("result");
+		json.writeStringField("device", deviceId);
+		json.writeStringField("error", String.valueOf(error.getMessage()));
+		json.writeNumberField("latency", System.currentTimeMillis() - this.start);
+		end(json);
+	}
+
+	/**
+	 * Final event with the counts of all results.
+	 *
+	 * @param unchanged
+	 *            devices not invoked since they were already in the scope of
+	 *            the last cycle, -1 if all devices were invoked
+	 */
+	public void summary(int unchanged, int removed) throws IOException {
+		JsonGenerator json = begin("summary");
+		json.writeNumberField("devices", this.succeeded + this.failed);
+		json.writeNumberField("succeeded", this.succeeded);
+		json.writeNumberField("failed", this.failed);
+		if (unchanged >= 0) {
+			json.writeNumberField("unchanged", unchanged);
+			json.writeNumberField("removed", removed);
+		}
+		json.writeNumberField("elapsed", System.currentTimeMillis() - this.start);
+		end(json);
+	}
+
+	public int getSucceeded() {
+		return succeeded;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+	private JsonGenerator begin(String event) throws IOException {
+		this.writer.write("event: " + event + "\ndata: ");
+		JsonGenerator json = JSON.createGenerator(this.writer);
+		json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		json.writeStartObject();
+		return json;
+	}
+
+	private void end(JsonGenerator json) throws IOException {
+		json.writeEndObject();
+		json.close();
+		this.writer.write("\n\n");
+		this.writer.flush();
+	}
+}
@@ -0,0 +1,294 @@
+package at.ac.tuwien.infosys.governance.isolatedactuation;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import at.ac.tuwien.infosys.governance.ManagerFanOut;
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor.Completion;
+import at.ac.tuwien.infosys.proxy.ProcessContext.Context;
+import at.ac.tuwien.infosys.store.model.BatchInvocationDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.InvocationResultDTO;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Delegates the invocations of a scope to the manager nodes of the devices.
+ * The devices are grouped by their manager with one request to the balancer
+ * and every manager receives batches of at most scope.delegation.batch
+ * devices, which it invokes locally and streams back the results, so the API
+ * manager sends a few batches instead of a request per device.
+ *
+ * Delegated invocations bypass the Hystrix commands of the process (no
+ * result cache, no fallback). Devices without a running manager are invoked
+ * directly with the {@link ScopeExecutor}. The balancer is found at
+ * balancer.url and the managers at manager.url, as for the gathers of the
+ * global scope.
+ *
+ * Requests to the balancer and the managers time out after
+ * scope.delegation.connect.timeout milliseconds without a connection and
+ * scope.delegation.read.timeout milliseconds without data. The devices of a
+ * batch without a result after scope.delegation.deadline milliseconds fail.
+ *
+ * @author stefan
+ *
+ */
+@Component
+public class DelegatedScopeExecutor {
+
+	private static final Logger LOGGER = Logger
+			.getLogger(DelegatedScopeExecutor.class);
+
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	@Value("${balancer.url:http://localhost:8080/SDGBalancer}")
+	private String balancerURL = "http://localhost:8080/SDGBalancer";
+	@Value("${manager.url:" + ManagerFanOut.MANAGER_URL + "}")
+	private String managerURL = ManagerFanOut.MANAGER_URL;
+	@Value("${scope.delegation.batch:500}")
+	private int batchSize = 500;
+	// batches in flight over all invocations
+	@Value("${scope.delegation.threads:32}")
+	private int threads = 32;
+	@Value("${scope.delegation.connect.timeout:2000}")
+	private int connectTimeout = 2000;
+	// the managers send a result at least every invocation.timeout
+	@Value("${scope.delegation.read.timeout:15000}")
+	private int readTimeout = 15000;
+	@Value("${scope.delegation.deadline:120000}")
+	private long deadline = 120000;
+
+	private ExecutorService executor;
+	private ScheduledExecutorService deadlines;
+	private RestTemplate restTemplate;
+
+	public DelegatedScopeExecutor() {
+	}
+
+	public DelegatedScopeExecutor(int batchSize, int threads, long deadline) {
+		this.batchSize = batchSize;
+		this.threads = threads;
+		this.deadline = deadline;
+		start();
+	}
+
+	@PostConstruct
+	public void start() {
+		this.executor = Executors.newFixedThreadPool(this.threads);
+		this.deadlines = Executors.newSingleThreadScheduledExecutor();
+		SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+		factory.setConnectTimeout(this.connectTimeout);
+		factory.setReadTimeout(this.readTimeout);
+		this.restTemplate = new RestTemplate(factory);
+	}
+
+	@PreDestroy
+	public void stop() {
+		this.executor.shutdownNow();
+		this.deadlines.shutdownNow();
+	}
+
+	/**
+	 * Starts the invocations and returns immediately.
+	 *
+	 * @return the completions in completion order, one per device
+	 */
+	public BlockingQueue<Completion> invoke(Context context,
+			Collection<DeviceDTO> devices, String capaId, String method,
+			String args) {
+		BlockingQueue<Completion> completed = new LinkedBlockingQueue<>();
+		Map<String, DeviceDTO> byId = new LinkedHashMap<>();
+		List<DeviceDTO> direct = new ArrayList<>();
+		for (DeviceDTO device : devices) {
+			if (byId.putIfAbsent(device.getId(), device) != null) {
+				direct.add(device);
+			}
+		}
+
+		Map<String, List<String>> byNode = resolve(byId.keySet());
+		int batches = 0;
+		for (Map.Entry<String, List<String>> node : byNode.entrySet()) {
+			List<DeviceDTO> nodeDevices = new ArrayList<>();
+			for (String id : node.getValue()) {
+				DeviceDTO device = byId.remove(id);
+				if (device != null) {
+					nodeDevices.add(device);
+				}
+			}
+			for (int from = 0; from < nodeDevices.size(); from += this.batchSize) {
+				List<DeviceDTO> batchDevices = nodeDevices.subList(from,
+						Math.min(nodeDevices.size(), from + this.batchSize));
+				List<String> batchIds = new ArrayList<>();
+				for (DeviceDTO device : batchDevices) {
+					batchIds.add(device.getId());
+				}
+				BatchInvocationDTO batch = new BatchInvocationDTO(capaId,
+						method, args, batchIds);
+				this.executor.execute(() -> invokeBatch(node.getKey(), batch,
+						batchDevices, completed));
+				batches++;
+			}
+		}
+		// not managed by a running node
+		direct.addAll(byId.values());
+		LOGGER.info("Delegated " + (devices.size() - direct.size())
+				+ " devices in " + batches + " batches to " + byNode.size()
+				+ " managers, invoking " + direct.size() + " directly");
+		if (!direct.isEmpty()) {
+			ScopeExecutor.invoke(context, direct, capaId, method, args,
+					completed);
+		}
+		return completed;
+	}
+
+	/**
+	 * Manager node of every device.
+	 *
+	 * @return device ids per manager node, devices without a manager are
+	 *         omitted
+	 */
+	@SuppressWarnings("unchecked")
+	protected Map<String, List<String>> resolve(Collection<String> deviceIds) {
+		if (deviceIds.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		try {
+			Map<String, List<String>> byNode = restTemplate.postForObject(
+					this.balancerURL + "/balancer/resolve",
+					new ArrayList<>(deviceIds), Map.class);
+			return byNode == null ? Collections.emptyMap() : byNode;
+		} catch (RestClientException e) {
+			LOGGER.info("Could not resolve the managers: " + e.getMessage());
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Sends the batch to the manager node and passes every result to the
+	 * consumer as soon as it is received.
+	 */
+	protected void send(String node, BatchInvocationDTO batch,
+			Consumer<InvocationResultDTO> results) {
+		restTemplate.execute(ManagerFanOut.managerURL(this.managerURL, node)
+				+ "/device-manager/invoke", HttpMethod.POST,
+				request -> {
+					request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+					JSON.writeValue(request.getBody(), batch);
+				}, response -> {
+					BufferedReader reader = new BufferedReader(
+							new InputStreamReader(response.getBody(),
+									StandardCharsets.UTF_8));
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (!line.isEmpty()) {
+							results.accept(InvocationResultDTO.readFrom(line));
+						}
+					}
+					return null;
+				});
+	}
+
+	/**
+	 * Every device of the batch completes exactly once, devices without a
+	 * result (e.g., the manager failed) complete with an error. At the
+	 * deadline the devices without a result fail and the rest of the response
+	 * is not read anymore.
+	 */
+	void invokeBatch(String node, BatchInvocationDTO batch,
+			List<DeviceDTO> devices, BlockingQueue<Completion> completed) {
+		Map<String, DeviceDTO> pending = new LinkedHashMap<>();
+		for (DeviceDTO device : devices) {
+			pending.put(device.getId(), device);
+		}
+		AtomicBoolean expired = new AtomicBoolean();
+		ScheduledFuture<?> expiry = this.deadlines.schedule(() -> {
+			expired.set(true);
+			fail(pending, completed, new TimeoutException(
+					"No result from manager " + node + " within "
+							+ this.deadline + " ms"));
+		}, this.deadline, TimeUnit.MILLISECONDS);
+
+		Throwable failure = null;
+		try {
+			send(node, batch, result -> {
+				if (expired.get()) {
+					throw new IllegalStateException("Deadline of the batch exceeded");
+				}
+				synchronized (pending) {
+					// ignores unknown devices and second results
+					DeviceDTO device = pending.remove(result.getDevice());
+					if (device != null) {
+						completed.add(toCompletion(device, result));
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			LOGGER.info("Batch of " + batch.getDeviceIds().size()
+					+ " devices failed on manager " + node + ": "
+					+ e.getMessage());
+			failure = e;
+		} finally {
+			expiry.cancel(false);
+		}
+		fail(pending, completed, failure != null ? failure
+				: new IllegalStateException("No result from manager " + node));
+	}
+
+	private static void fail(Map<String, DeviceDTO> pending,
+			BlockingQueue<Completion> completed, Throwable error) {
+		synchronized (pending) {
+			for (DeviceDTO device : pending.values()) {
+				completed.add(new Completion(device, null, error));
+			}
+			pending.clear();
+		}
+	}
+
+	private static Completion toCompletion(DeviceDTO device,
+			InvocationResultDTO result) {
+		if (result.getError() != null) {
+			return new Completion(device, null, new IllegalStateException(
+					result.getError()));
+		}
+		HttpStatus status;
+		try {
+			status = HttpStatus.valueOf(result.getStatus());
+		} catch (IllegalArgumentException e) {
+			return new Completion(device, null, new IllegalStateException(
+					"Unknown status " + result.getStatus()));
+		}
+		return new Completion(device, new ResponseEntity<String>(
+				result.getBody(), status), null);
+	}
+}
@@ -1,13 +1,11 @@
 package at.ac.tuwien.infosys.governance.isolatedactuation;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-
 import org.apache.log4j.Logger;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.util.concurrent.ListenableFuture;
-import org.springframework.util.concurrent.ListenableFutureCallback;
-import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.RestClientException;
+
+import at.ac.tuwien.infosys.proxy.DeviceTransport;
 
 import com.netflix.hystrix.HystrixCommand;
 import com.netflix.hystrix.HystrixCommandGroupKey;
@@ -26,8 +24,10 @@ public class FallBackRetryInvocation extends
 	private final int MAX_WAIT_INTERVAL = 60000;// will be interrupted
 												// afterwards by hystrix
 	private final int maxRetries;
+	private final DeviceTransport transport;
 
-	public FallBackRetryInvocation(final String URL, int maxRetries) {
+	public FallBackRetryInvocation(final String URL, int maxRetries,
+			DeviceTransport transport) {
 		super(Setter
 				.withGroupKey(
 						HystrixCommandGroupKey.Factory
@@ -49,55 +49,30 @@ public class FallBackRetryInvocation extends
 								.withCircuitBreakerEnabled(false)));
 		this.URL = URL;
 		this.maxRetries = maxRetries;
+		this.transport = transport;
 	}
 
 	@Override
 	protected ResponseEntity<String> run() throws Exception {
 
 		LOGGER.info("Fallback logic invoked ...");
-		ListenableFuture<ResponseEntity<String>> deviceResponse = null;
 		int retries = 0;
-		AtomicBoolean retry = new AtomicBoolean();
-		retry.set(true);
-
-		try {
-			do {
-				long waitTime = Math.min(getWaitTimeExp(retries),
-						MAX_WAIT_INTERVAL);
-				LOGGER.info("Fallback logic going " + retries);
-				// Get the result
-				deviceResponse = new AsyncRestTemplate().getForEntity(this.URL,
-						String.class);
-
-				deviceResponse
-						.addCallback(new ListenableFutureCallback<ResponseEntity<String>>() {
-							@Override
-							public void onSuccess(ResponseEntity<String> result) {
-								// String deviceResponse = result.getBody();
-								retry.set(false);
-								FallBackRetryInvocation.LOGGER
-										.info("Success in Fallback ...");
-							}
-
-							@Override
-							public void onFailure(Throwable t) {
-								retry.set(true);
-								FallBackRetryInvocation.LOGGER
-										.info("Failure in Fallback ...");
-								t.printStackTrace(System.out);
-							}
-						});
-
-				// Wait for the result.
-				Thread.sleep(waitTime);
-
-			} while (retry.get() && (retries++ < this.maxRetries));
-
-			if (deviceResponse != null)
-				return deviceResponse.get();
-
-		} catch (Exception ex) {
-			ex.printStackTrace();
+		while (true) {
+			LOGGER.info("Fallback logic going " + retries);
+			try {
+				ResponseEntity<String> deviceResponse = this.transport
+						.get(this.URL);
+				LOGGER.info("Success in Fallback ...");
+				return deviceResponse;
+			} catch (RestClientException e) {
+				LOGGER.info("Failure in Fallback: " + e.getMessage());
+			}
+			if (retries >= this.maxRetries) {
+				break;
+			}
+			// Wait before the next retry
+			Thread.sleep(Math.min(getWaitTimeExp(retries), MAX_WAIT_INTERVAL));
+			retries++;
 		}
 
 		return new ResponseEntity<String>("Unreachable device after " + retries
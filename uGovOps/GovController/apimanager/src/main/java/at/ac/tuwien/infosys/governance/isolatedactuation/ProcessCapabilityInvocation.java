@@ -3,7 +3,6 @@ package at.ac.tuwien.infosys.governance.isolatedactuation;
 import org.apache.log4j.Logger;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
 
 import at.ac.tuwien.infosys.proxy.ProcessContext.Context;
 
@@ -57,12 +56,11 @@ public class ProcessCapabilityInvocation extends
 			deviceResponse = this.context.getCache(URL);
 				if (deviceResponse == null){
 					//not available in cache
-					deviceResponse = new RestTemplate().getForEntity(this.URL, String.class);
+					deviceResponse = this.context.getTransport().get(this.URL);
 					context.registerResult(URL, deviceResponse);
 				}
 		}else{
-			deviceResponse = new RestTemplate()
-				.getForEntity(this.URL, String.class);
+			deviceResponse = this.context.getTransport().get(this.URL);
 		}
 		return deviceResponse;
 	}
@@ -75,7 +73,7 @@ public class ProcessCapabilityInvocation extends
 		LOGGER.info("Fallingback with "+retries+" retries ...");
 		
 		if (retries > 0){
-			FallBackRetryInvocation fallback = new FallBackRetryInvocation(URL, retries);
+			FallBackRetryInvocation fallback = new FallBackRetryInvocation(URL, retries, this.context.getTransport());
 			ResponseEntity<String> response = fallback.execute();
 			LOGGER.info("I was alive and waiting for the response ....");
 			return new ResponseEntity<>("Eddited by "+getCommandKey().name()+"-FALLBACK"+response.getBody(),HttpStatus.OK);
@@ -2,9 +2,9 @@ package at.ac.tuwien.infosys.governance.isolatedactuation;
 
 import org.apache.log4j.Logger;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
 
 import at.ac.tuwien.infosys.governance.GovernanceScopeManager;
+import at.ac.tuwien.infosys.proxy.DeviceTransport;
 
 import com.netflix.hystrix.HystrixCommand;
 import com.netflix.hystrix.HystrixCommandGroupKey;
@@ -18,9 +18,10 @@ public class ScopeCapabilityInvocation extends HystrixCommand<ResponseEntity<Str
 	private static final Logger LOGGER = Logger
 			.getLogger(ScopeCapabilityInvocation.class);
 	private final String URL;
+	private final DeviceTransport transport;
 
 
-	public ScopeCapabilityInvocation(String URL) {
+	public ScopeCapabilityInvocation(String URL, DeviceTransport transport) {
 //		super(HystrixCommandGroupKey.Factory
 //				.asKey("ScopeCapabilityInvocationGroup"));
 		super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("ScopeCapabilityInvocationGroup"))
@@ -43,6 +44,7 @@ public class ScopeCapabilityInvocation extends HystrixCommand<ResponseEntity<Str
                  //.andThreadPoolKey(HystrixThreadPoolKey.Factory.asKey("ScopeInvocationFallback"))		
 				);
 		this.URL = URL;
+		this.transport = transport;
 //		HystrixCommandProperties.Setter().withExecutionTimeoutInMilliseconds(3);
 //		getProperties().executionTimeoutInMilliseconds().get();
 		
@@ -53,7 +55,7 @@ public class ScopeCapabilityInvocation extends HystrixCommand<ResponseEntity<Str
 	protected ResponseEntity<String> run() throws Exception {
 
 		LOGGER.info("Circuit break at %: "+this.getProperties().circuitBreakerErrorThresholdPercentage().get());
-		ResponseEntity<String> deviceResponse =  new RestTemplate().getForEntity(this.URL, String.class);
+		ResponseEntity<String> deviceResponse =  this.transport.get(this.URL);
 	
 		return  deviceResponse;
 	}
@@ -0,0 +1,152 @@
+package at.ac.tuwien.infosys.governance.isolatedactuation;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.springframework.http.ResponseEntity;
+
+import rx.Observer;
+import at.ac.tuwien.infosys.model.DefaultMappingModel;
+import at.ac.tuwien.infosys.proxy.AdaptiveLimit;
+import at.ac.tuwien.infosys.proxy.FairShareScheduler;
+import at.ac.tuwien.infosys.proxy.ProcessContext.Context;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+/**
+ * Invokes a capability on the devices of a scope with at most the
+ * {@link AdaptiveLimit} of the process in flight, instead of queuing all
+ * invocations at once and letting Hystrix reject the overflow. The
+ * invocations of all processes are started by the {@link FairShareScheduler}
+ * according to their priority and weight. A command that
+ * failed, was rejected, timed out or fell back is reported to the limit as
+ * dropped.
+ *
+ * @author stefan
+ *
+ */
+public class ScopeExecutor {
+
+	/**
+	 * Outcome of the invocation of one device, either a response or an
+	 * error.
+	 */
+	public static class Completion {
+		private final DeviceDTO device;
+		private final ResponseEntity<String> response;
+		private final Throwable error;
+		private final boolean fallback;
+
+		public Completion(DeviceDTO device, ResponseEntity<String> response,
+				Throwable error) {
+			this(device, response, error, false);
+		}
+
+		public Completion(DeviceDTO device, ResponseEntity<String> response,
+				Throwable error, boolean fallback) {
+			this.device = device;
+			this.response = response;
+			this.error = error;
+			this.fallback = fallback;
+		}
+
+		public DeviceDTO getDevice() {
+			return device;
+		}
+
+		public ResponseEntity<String> getResponse() {
+			return response;
+		}
+
+		public Throwable getError() {
+			return error;
+		}
+
+		/**
+		 * True if the response is the fallback of the process, e.g., after a
+		 * timeout or with an open circuit.
+		 */
+		public boolean isFallback() {
+			return fallback;
+		}
+
+		/**
+		 * True if the device responded with 2xx. A fallback is not
+		 * successful even though it is answered with 200.
+		 */
+		public boolean isSuccessful() {
+			return this.error == null && !this.fallback
+					&& this.response.getStatusCode().is2xxSuccessful();
+		}
+	}
+
+	private ScopeExecutor() {
+	}
+
+	/**
+	 * Starts the invocations and returns immediately.
+	 *
+	 * @return the completions in completion order, one per device
+	 */
+	public static BlockingQueue<Completion> invoke(Context context,
+			Collection<DeviceDTO> devices, String capaId, String method,
+			String args) {
+		BlockingQueue<Completion> completed = new LinkedBlockingQueue<>();
+		invoke(context, devices, capaId, method, args, completed);
+		return completed;
+	}
+
+	/**
+	 * Starts the invocations, the completions are added to the given queue.
+	 */
+	static void invoke(final Context context, Collection<DeviceDTO> devices,
+			String capaId, String method, String args,
+			final BlockingQueue<Completion> completed) {
+		final FairShareScheduler scheduler = context.getScheduler();
+		for (final DeviceDTO device : devices) {
+			final String url = new DefaultMappingModel(capaId, device.getId(),
+					method, args).getMapping();
+			scheduler.submit(context, new Runnable() {
+				@Override
+				public void run() {
+					final long start = System.currentTimeMillis();
+					final ProcessCapabilityInvocation command = new ProcessCapabilityInvocation(
+							url, context);
+					command.observe().subscribe(
+							new Observer<ResponseEntity<String>>() {
+								private ResponseEntity<String> response;
+
+								@Override
+								public void onNext(ResponseEntity<String> response) {
+									this.response = response;
+								}
+
+								@Override
+								public void onCompleted() {
+									scheduler.release(context, System
+											.currentTimeMillis() - start,
+											!command.isSuccessfulExecution());
+									if (this.response == null) {
+										completed.add(new Completion(device,
+												null, new IllegalStateException(
+														"No response")));
+									} else {
+										completed.add(new Completion(device,
+												this.response, null, command
+														.isResponseFromFallback()));
+									}
+								}
+
+								@Override
+								public void onError(Throwable t) {
+									scheduler.release(context, System
+											.currentTimeMillis() - start, true);
+									completed.add(new Completion(device, null,
+											t));
+								}
+							});
+				}
+			});
+		}
+	}
+}
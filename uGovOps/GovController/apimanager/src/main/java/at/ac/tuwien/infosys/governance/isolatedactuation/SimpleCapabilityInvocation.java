@@ -3,9 +3,9 @@ package at.ac.tuwien.infosys.governance.isolatedactuation;
 import org.apache.log4j.Logger;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
 
 import at.ac.tuwien.infosys.governance.GovernanceScopeManager;
+import at.ac.tuwien.infosys.proxy.DeviceTransport;
 
 import com.netflix.hystrix.HystrixCommand;
 import com.netflix.hystrix.HystrixCommandGroupKey;
@@ -16,6 +16,7 @@ public class SimpleCapabilityInvocation extends HystrixCommand<ResponseEntity<St
 	private static final Logger LOGGER = Logger
 			.getLogger(SimpleCapabilityInvocation.class);
 	private final String URL;
+	private final DeviceTransport transport;
 
 //	   G1: GOVERNANCE_SCOPE: QUERY=location=home&owner=stefan||location=x
 //							 CONSIDERING_SELECTION_UNCERTAINTY missing_data=location<=-, owner<=+ AND 
@@ -29,10 +30,11 @@ public class SimpleCapabilityInvocation extends HystrixCommand<ResponseEntity<St
 //															  tolerate_fault_persentage = 20% AND (this applies for all commands of instanceType=X )
 	
 	
-	public SimpleCapabilityInvocation(String URL) {
+	public SimpleCapabilityInvocation(String URL, DeviceTransport transport) {
 		super(HystrixCommandGroupKey.Factory
 				.asKey("SimpleCapabilityInvocationGroup"));
 		this.URL = URL;
+		this.transport = transport;
 //		HystrixCommandProperties.Setter().withExecutionTimeoutInMilliseconds(3);
 //		getProperties().executionTimeoutInMilliseconds().get();
 		
@@ -42,7 +44,7 @@ public class SimpleCapabilityInvocation extends HystrixCommand<ResponseEntity<St
 	@Override
 	protected ResponseEntity<String> run() throws Exception {
 
-		ResponseEntity<String> deviceResponse = new RestTemplate().getForEntity(this.URL, String.class);
+		ResponseEntity<String> deviceResponse = this.transport.get(this.URL);
 		LOGGER.info("Invoked " + this.URL + " and got "+ deviceResponse.getStatusCode());
 		
 		if (deviceResponse.getStatusCode() != HttpStatus.OK) {
@@ -0,0 +1,96 @@
+package at.ac.tuwien.infosys.proxy;
+
+/**
+ * Adaptive limit of the invocations in flight of a process (AIMD). The
+ * invocations are queued by the {@link FairShareScheduler}, which starts an
+ * invocation only if the limit allows it. Every completed invocation reports
+ * its latency: the limit grows by one per limit successful completions
+ * (additive increase) and shrinks by the backoff factor if an invocation
+ * failed, was rejected, fell back or took longer than the tolerance times the
+ * latency without load (multiplicative decrease), at most once per latency
+ * without load.
+ *
+ * The limit stays between 1 and the maximum, which is the degree of
+ * parallelism of the process, since Hystrix rejects invocations beyond it.
+ *
+ * @author stefan
+ *
+ */
+public class AdaptiveLimit {
+
+	private static final double BACKOFF = 0.9;
+	private static final double TOLERANCE = 2.0;
+	// drift of the latency without load towards the observed latencies
+	private static final double DRIFT = 0.01;
+
+	private int maxLimit;
+	private double limit;
+	private int inFlight = 0;
+	private double noLoadLatency = 0;
+	private long lastDecrease = 0;
+
+	public AdaptiveLimit(int maxLimit) {
+		setMaxLimit(maxLimit);
+	}
+
+	/**
+	 * Sets the maximum and restarts the adaption from it.
+	 */
+	public synchronized void setMaxLimit(int maxLimit) {
+		this.maxLimit = Math.max(1, maxLimit);
+		this.limit = this.maxLimit;
+	}
+
+	/**
+	 * Counts an invocation in flight if the limit allows it. The invocation
+	 * must call {@link #release} when it completes.
+	 *
+	 * @return false if the limit is reached
+	 */
+	public synchronized boolean tryAcquire() {
+		if (this.inFlight >= (int) this.limit) {
+			return false;
+		}
+		this.inFlight++;
+		return true;
+	}
+
+	/**
+	 * Completes an invocation.
+	 *
+	 * @param latency
+	 *            milliseconds from starting the invocation until its
+	 *            completion
+	 * @param dropped
+	 *            true if the invocation failed, was rejected or fell back
+	 */
+	public synchronized void release(long latency, boolean dropped) {
+		this.inFlight--;
+		long now = System.currentTimeMillis();
+		if (!dropped) {
+			if (this.noLoadLatency == 0 || latency < this.noLoadLatency) {
+				this.noLoadLatency = latency;
+			} else {
+				this.noLoadLatency += (latency - this.noLoadLatency) * DRIFT;
+			}
+		}
+		boolean congested = dropped
+				|| latency > TOLERANCE * Math.max(1, this.noLoadLatency);
+		if (congested) {
+			if (now - this.lastDecrease >= this.noLoadLatency) {
+				this.limit = Math.max(1, this.limit * BACKOFF);
+				this.lastDecrease = now;
+			}
+		} else {
+			this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+		}
+	}
+
+	public synchronized int getLimit() {
+		return (int) this.limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+}
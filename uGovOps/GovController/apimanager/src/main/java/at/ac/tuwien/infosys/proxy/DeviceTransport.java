@@ -0,0 +1,253 @@
+package at.ac.tuwien.infosys.proxy;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * HTTP client of the capability invocations. Connections to the devices are
+ * pooled, at most device.transport.connections in total and
+ * device.transport.connections.host per host. A connection that is idle for
+ * device.transport.keepalive seconds, or longer than the device allows, is
+ * closed, so connections closed by the gateways in the meantime are not
+ * reused. An invocation waits at most device.transport.connect.timeout
+ * milliseconds for a connection and device.transport.read.timeout
+ * milliseconds for the response.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class DeviceTransport {
+
+	private static final Logger LOGGER = Logger.getLogger(DeviceTransport.class);
+
+	@Value("${device.transport.connections:512}")
+	private int connections = 512;
+	@Value("${device.transport.connections.host:16}")
+	private int connectionsPerHost = 16;
+	@Value("${device.transport.connect.timeout:2000}")
+	private int connectTimeout = 2000;
+	@Value("${device.transport.read.timeout:5000}")
+	private int readTimeout = 5000;
+	@Value("${device.transport.keepalive:60}")
+	private long keepAlive = 60;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong opened = new AtomicLong();
+
+	private PoolingHttpClientConnectionManager pool;
+	private CloseableHttpClient httpClient;
+	private ScheduledExecutorService evictor;
+	private RestTemplate restTemplate;
+
+	public DeviceTransport() {
+	}
+
+	public DeviceTransport(int connections, int connectionsPerHost,
+			int connectTimeout, int readTimeout, long keepAlive) {
+		this.connections = connections;
+		this.connectionsPerHost = connectionsPerHost;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.keepAlive = keepAlive;
+		start();
+	}
+
+	@PostConstruct
+	public void start() {
+		// counts the connections opened to tell how often they are reused
+		HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = new HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection>() {
+			@Override
+			public ManagedHttpClientConnection create(HttpRoute route,
+					ConnectionConfig config) {
+				opened.incrementAndGet();
+				return ManagedHttpClientConnectionFactory.INSTANCE.create(
+						route, config);
+			}
+		};
+		this.pool = new PoolingHttpClientConnectionManager(RegistryBuilder
+				.<ConnectionSocketFactory> create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", SSLConnectionSocketFactory.getSocketFactory())
+				.build(), connectionFactory);
+		this.pool.setMaxTotal(this.connections);
+		this.pool.setDefaultMaxPerRoute(this.connectionsPerHost);
+
+		this.httpClient = HttpClients
+				.custom()
+				.setConnectionManager(this.pool)
+				.setDefaultRequestConfig(
+						RequestConfig.custom()
+								.setConnectionRequestTimeout(this.connectTimeout)
+								.setConnectTimeout(this.connectTimeout)
+								.setSocketTimeout(this.readTimeout).build())
+				.build();
+		// HttpClient 4.3 does not evict idle connections by itself
+		this.evictor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "device-transport-evictor");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		long interval = Math.max(1000, this.keepAlive * 1000 / 2);
+		this.evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evict();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+
+		this.restTemplate = new RestTemplate(
+				new HttpComponentsClientHttpRequestFactory(this.httpClient));
+		LOGGER.info("Device transport with " + this.connections
+				+ " connections, " + this.connectionsPerHost + " per host");
+	}
+
+	@PreDestroy
+	public void stop() {
+		this.evictor.shutdownNow();
+		try {
+			this.httpClient.close();
+		} catch (IOException e) {
+			LOGGER.warn("Could not close device transport", e);
+		}
+	}
+
+	/**
+	 * Invokes the capability URL, see {@link RestTemplate#getForEntity}.
+	 *
+	 * @throws RestClientException
+	 *             if the device is not reachable or responds with an error
+	 */
+	public ResponseEntity<String> get(String url) {
+		this.requests.incrementAndGet();
+		try {
+			return this.restTemplate.getForEntity(url, String.class);
+		} catch (RestClientException e) {
+			this.failures.incrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the connections that are idle for longer than the keep alive or
+	 * than the device allows (Keep-Alive header).
+	 */
+	void evict() {
+		this.pool.closeExpiredConnections();
+		this.pool.closeIdleConnections(this.keepAlive, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * The pooled client, e.g., for requests other than GET.
+	 */
+	public CloseableHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	public Metrics getMetrics() {
+		return new Metrics(this.requests.get(), this.failures.get(),
+				this.opened.get(), this.pool.getTotalStats());
+	}
+
+	public static class Metrics {
+		private final long requests;
+		private final long failures;
+		private final long opened;
+		private final int leased;
+		private final int available;
+		private final int pending;
+		private final int max;
+
+		Metrics(long requests, long failures, long opened, PoolStats stats) {
+			this.requests = requests;
+			this.failures = failures;
+			this.opened = opened;
+			this.leased = stats.getLeased();
+			this.available = stats.getAvailable();
+			this.pending = stats.getPending();
+			this.max = stats.getMax();
+		}
+
+		/**
+		 * Invocations, including failed ones.
+		 */
+		public long getRequests() {
+			return requests;
+		}
+
+		/**
+		 * Invocations that failed or got an error response.
+		 */
+		public long getFailures() {
+			return failures;
+		}
+
+		/**
+		 * Connections opened so far.
+		 */
+		public long getOpened() {
+			return opened;
+		}
+
+		/**
+		 * Connections in use.
+		 */
+		public int getLeased() {
+			return leased;
+		}
+
+		/**
+		 * Idle connections kept alive.
+		 */
+		public int getAvailable() {
+			return available;
+		}
+
+		/**
+		 * Invocations waiting for a connection.
+		 */
+		public int getPending() {
+			return pending;
+		}
+
+		public int getMax() {
+			return max;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package at.ac.tuwien.infosys.proxy;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import at.ac.tuwien.infosys.proxy.ProcessContext.Context;
+
+/**
+ * Shares the invocation capacity of the API manager between the governance
+ * processes. At most scope.scheduler.capacity invocations are in flight, of
+ * which scope.scheduler.reserve are reserved for control processes. Each
+ * process is further bounded by its {@link AdaptiveLimit}.
+ *
+ * Waiting invocations of control processes are started before those of bulk
+ * processes. Within a priority class the processes share the capacity in
+ * proportion to their weight (start-time fair queuing): the process with the
+ * smallest virtual time is served next and its virtual time advances by
+ * 1/weight. A process that becomes active starts at the virtual time of its
+ * class, so idle processes do not save up capacity.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class FairShareScheduler {
+
+	private static final int CONTROL = 0;
+	private static final int BULK = 1;
+
+	@Value("${scope.scheduler.capacity:512}")
+	private int capacity = 512;
+	@Value("${scope.scheduler.reserve:64}")
+	private int reserve = 64;
+
+	// processes with waiting or running invocations
+	private final Map<String, Flow> flows = new LinkedHashMap<>();
+	private final double[] virtualTime = new double[2];
+	private int inFlight = 0;
+	private int bulkInFlight = 0;
+	private boolean draining = false;
+
+	public FairShareScheduler() {
+	}
+
+	public FairShareScheduler(int capacity, int reserve) {
+		this.capacity = capacity;
+		this.reserve = reserve;
+	}
+
+	/**
+	 * Runs the task of the process as soon as its share allows it. The task
+	 * must call {@link #release} when it completes.
+	 */
+	public void submit(Context context, Runnable task) {
+		synchronized (this) {
+			Flow flow = this.flows.get(context.getProcessId());
+			if (flow == null) {
+				flow = new Flow(context,
+						this.virtualTime[classOf(context)]);
+				this.flows.put(context.getProcessId(), flow);
+			} else if (flow.waiting.isEmpty()) {
+				flow.virtualTime = Math.max(flow.virtualTime,
+						this.virtualTime[classOf(context)]);
+			}
+			flow.waiting.add(task);
+		}
+		drain();
+	}
+
+	/**
+	 * Completes a task of the process.
+	 *
+	 * @param latency
+	 *            milliseconds from running the task until its completion
+	 * @param dropped
+	 *            true if the task failed, was rejected or fell back
+	 */
+	public void release(Context context, long latency, boolean dropped) {
+		context.getConcurrencyLimit().release(latency, dropped);
+		synchronized (this) {
+			this.inFlight--;
+			Flow flow = this.flows.get(context.getProcessId());
+			if (flow != null) {
+				flow.inFlight--;
+				if (flow.bulkInFlight > 0) {
+					flow.bulkInFlight--;
+					this.bulkInFlight--;
+				}
+				if (flow.inFlight == 0 && flow.waiting.isEmpty()) {
+					this.flows.remove(context.getProcessId());
+				}
+			}
+		}
+		drain();
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized int getBulkInFlight() {
+		return bulkInFlight;
+	}
+
+	/**
+	 * Waiting invocations of the process.
+	 */
+	public synchronized int getWaiting(String procId) {
+		Flow flow = this.flows.get(procId);
+		return flow == null ? 0 : flow.waiting.size();
+	}
+
+	/**
+	 * Runs waiting tasks while the capacity allows it. Tasks are run outside
+	 * of the lock, and only by one thread at a time, so a task that completes
+	 * synchronously (e.g., a short-circuited command) does not recurse.
+	 */
+	private void drain() {
+		synchronized (this) {
+			if (this.draining) {
+				return;
+			}
+			this.draining = true;
+		}
+		while (true) {
+			Flow flow;
+			Runnable task;
+			synchronized (this) {
+				flow = next();
+				if (flow == null) {
+					this.draining = false;
+					return;
+				}
+				task = flow.waiting.poll();
+				this.inFlight++;
+				flow.inFlight++;
+				if (classOf(flow.context) == BULK) {
+					this.bulkInFlight++;
+					flow.bulkInFlight++;
+				}
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					this.draining = false;
+				}
+				release(flow.context, 0, true);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Selects the process to serve next and counts the task in flight of its
+	 * limit.
+	 *
+	 * @return null if no task can be started
+	 */
+	private Flow next() {
+		if (this.inFlight >= this.capacity) {
+			return null;
+		}
+		Flow flow = next(CONTROL);
+		if (flow == null && this.bulkInFlight < this.capacity - this.reserve) {
+			flow = next(BULK);
+		}
+		return flow;
+	}
+
+	private Flow next(int priorityClass) {
+		// processes that reached their own limit
+		Set<Flow> full = new HashSet<>();
+		while (true) {
+			Flow next = null;
+			for (Flow flow : this.flows.values()) {
+				if (!flow.waiting.isEmpty() && !full.contains(flow)
+						&& classOf(flow.context) == priorityClass
+						&& (next == null || flow.virtualTime < next.virtualTime)) {
+					next = flow;
+				}
+			}
+			if (next == null) {
+				return null;
+			}
+			if (next.context.getConcurrencyLimit().tryAcquire()) {
+				this.virtualTime[priorityClass] = next.virtualTime;
+				next.virtualTime += 1.0 / next.context.getWeight();
+				return next;
+			}
+			full.add(next);
+		}
+	}
+
+	private static int classOf(Context context) {
+		return context.isControl() ? CONTROL : BULK;
+	}
+
+	private static class Flow {
+		private final Context context;
+		private final Queue<Runnable> waiting = new ArrayDeque<>();
+		private double virtualTime;
+		private int inFlight = 0;
+		// invocations started while the process was a bulk process
+		private int bulkInFlight = 0;
+
+		Flow(Context context, double virtualTime) {
+			this.context = context;
+			this.virtualTime = virtualTime;
+		}
+	}
+}
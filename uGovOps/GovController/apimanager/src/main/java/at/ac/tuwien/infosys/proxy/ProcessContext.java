@@ -4,6 +4,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.json.JsonParserFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.http.ResponseEntity;
@@ -19,12 +20,19 @@ public class ProcessContext {
 
 	private ConcurrentHashMap<String, Context> registry = new ConcurrentHashMap<>();
 
+	@Autowired
+	private FairShareScheduler scheduler;
+
+	@Autowired
+	private DeviceTransport transport;
+
 	public ProcessContext() {
 	}
 
 	public Context registerIfAbsent(String procId) {
 		if (!this.registry.containsKey(procId)) {
-			registry.put(procId, new Context(procId));
+			registry.put(procId, new Context(procId, this.scheduler,
+					this.transport));
 		}
 		return this.registry.get(procId);
 	}
@@ -51,6 +59,8 @@ public class ProcessContext {
 //										  degree_parallelism = 200 AND
 //										  keep_alive = 5 AND (in minutes)
 //										  tolerate_fault_percentage  = 20% AND (this applies for all commands of instanceType=X )
+//										  weight = 1 AND (share of the invocation capacity relative to the other processes)
+//										  priority = [control|bulk] (control processes are served first)
 
 
 		private final String processId;
@@ -67,12 +77,24 @@ public class ProcessContext {
 		private String time_before_fallback = "1000";
 		private String degree_parallelism = "200";
 		private String keep_alive = "5";
+		private int weight = 1;
+		private String priority = "bulk";
+
+		// Invocations in flight, adapted within [1, degree_parallelism]
+		private final AdaptiveLimit concurrencyLimit = new AdaptiveLimit(
+				Integer.valueOf(this.degree_parallelism));
+
+		private final FairShareScheduler scheduler;
+		private final DeviceTransport transport;
 
 		// TODO This cache is not invalidated automatically
 		private ConcurrentHashMap<String, ResponseEntity<String>> cache = new ConcurrentHashMap<String, ResponseEntity<String>>();
 
-		public Context(final String procId) {
+		public Context(final String procId, FairShareScheduler scheduler,
+				DeviceTransport transport) {
 			this.processId = procId;
+			this.scheduler = scheduler;
+			this.transport = transport;
 			this.threadPoolKey = procId + "_ThreadPoolKey";
 			this.comandKey = procId + "_CapabilityInvocationKey";
 			this.fallbackThreadPoolKey = procId + "__ThreadPoolKey_Fallback";
@@ -159,9 +181,22 @@ public class ProcessContext {
 			// uses ThreadLocal variable)
 		}
 
+		/**
+		 * @throws IllegalArgumentException
+		 *             if the weight is not a number or the priority is
+		 *             unknown, nothing is set then
+		 */
 		public void setProperties(String propertiesJson) {
 			Map<String, Object> propertiesMap = JsonParserFactory
 					.getJsonParser().parseMap(propertiesJson);
+			int weight = Math.max(1, Integer.valueOf(String
+					.valueOf(propertiesMap.getOrDefault("weight", this.weight))));
+			String priority = String.valueOf(propertiesMap.getOrDefault(
+					"priority", this.priority));
+			if (!"control".equals(priority) && !"bulk".equals(priority)) {
+				throw new IllegalArgumentException(
+						"priority must be control or bulk but was " + priority);
+			}
 			this.tolerate_fault_percentage = (((String) propertiesMap
 					.getOrDefault("tolerate_fault_percentage",
 							this.tolerate_fault_percentage)));
@@ -183,7 +218,7 @@ public class ProcessContext {
 			LOGGER.info("Set property \"time_before_fallback\"="
 					+ this.time_before_fallback);
 			this.casheEnabled = new Boolean((String)propertiesMap.getOrDefault(
-					"cache_enabled", false));					
+					"cache_enabled", "false"));					
 			LOGGER.info("Set property \"cache_enabled\"="
 					+ this.casheEnabled);
 			this.degree_parallelism = (((String) propertiesMap
@@ -191,11 +226,17 @@ public class ProcessContext {
 							this.degree_parallelism)));
 			LOGGER.info("Set property \"degree_parallelism\"="
 					+ this.degree_parallelism);
+			this.concurrencyLimit.setMaxLimit(Integer
+					.valueOf(this.degree_parallelism));
 			this.keep_alive = (((String) propertiesMap
 					.getOrDefault("keep_alive",
 							this.keep_alive)));
 			LOGGER.info("Set property \"keep_alive\"="
 					+ this.keep_alive);
+			this.weight = weight;
+			LOGGER.info("Set property \"weight\"=" + this.weight);
+			this.priority = priority;
+			LOGGER.info("Set property \"priority\"=" + this.priority);
 
 
 		}
@@ -220,5 +261,38 @@ public class ProcessContext {
 			return casheEnabled;
 		}
 
+		public AdaptiveLimit getConcurrencyLimit() {
+			return concurrencyLimit;
+		}
+
+		/**
+		 * Scheduler that shares the invocation capacity between the processes.
+		 */
+		public FairShareScheduler getScheduler() {
+			return scheduler;
+		}
+
+		/**
+		 * Pooled HTTP client of the capability invocations.
+		 */
+		public DeviceTransport getTransport() {
+			return transport;
+		}
+
+		/**
+		 * Share of the invocation capacity relative to the other processes of
+		 * the same priority, at least 1.
+		 */
+		public int getWeight() {
+			return weight;
+		}
+
+		/**
+		 * True if the process has priority "control" rather than "bulk".
+		 */
+		public boolean isControl() {
+			return "control".equals(this.priority);
+		}
+
 	}
 }
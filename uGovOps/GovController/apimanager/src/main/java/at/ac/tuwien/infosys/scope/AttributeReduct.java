@@ -0,0 +1,136 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.scope.BlockIndex.Snapshot;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+/**
+ * Minimal attribute reducts of the global scope. A reduct is a minimal
+ * subset B of the attributes A with K_B(x) = K_A(x) for every device x.
+ * Since the characteristic sets do not change, the upper and lower
+ * approximations computed with B are the same as with A, but every
+ * characteristic set intersects fewer blocks.
+ *
+ * The reduct is computed greedily: the attributes with the fewest blocks
+ * (the least discerning ones) are dropped first, as long as no
+ * characteristic set changes. Reducts are cached per replacement of missing
+ * data and attributes until the registry version changes.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class AttributeReduct {
+
+	private static final Logger LOGGER = Logger
+			.getLogger(AttributeReduct.class);
+
+	private long version = -1;
+	private final Map<String, List<String>> reducts = new HashMap<>();
+
+	public AttributeReduct() {
+	}
+
+	/**
+	 * Returns the cached reduct of the snapshot or computes it.
+	 * 
+	 * @param replacement
+	 *            replacement of missing data the snapshot was taken with
+	 * @param attributes
+	 * @param snapshot
+	 * @return
+	 */
+	public synchronized List<String> get(String replacement,
+			List<String> attributes, Snapshot snapshot) {
+		if (snapshot.getVersion() > this.version) {
+			this.reducts.clear();
+			this.version = snapshot.getVersion();
+		}
+		if (snapshot.getVersion() < this.version) {
+			// outdated snapshot, do not pollute the cache
+			return compute(snapshot.getBlocks(), snapshot.getDevices(),
+					attributes);
+		}
+		String key = replacement + "|" + String.join(",", attributes);
+		List<String> reduct = this.reducts.get(key);
+		if (reduct == null) {
+			reduct = compute(snapshot.getBlocks(), snapshot.getDevices(),
+					attributes);
+			LOGGER.info("Reduct of " + attributes + " is " + reduct);
+			this.reducts.put(key, reduct);
+		}
+		return reduct;
+	}
+
+	/**
+	 * Computes a minimal reduct of the attributes. The attributes of the
+	 * reduct keep their order.
+	 * 
+	 * @param processedBlocks
+	 *            blocks with the special values already handled
+	 * @param devices
+	 * @param attributes
+	 * @return
+	 */
+	public static List<String> compute(
+			Map<Block, List<DeviceDTO>> processedBlocks,
+			List<DeviceDTO> devices, List<String> attributes) {
+		BitsetRoughSet roughSet = new BitsetRoughSet(processedBlocks, devices,
+				true);
+		// devices with the same values share the characteristic set
+		Collection<DeviceDTO> representatives = roughSet.representatives(
+				devices, attributes);
+		Map<DeviceDTO, Integer> cardinalities = new HashMap<>();
+		for (DeviceDTO d : representatives) {
+			cardinalities.put(d, roughSet.buildCaracteristicSet(d, attributes)
+					.cardinality());
+		}
+
+		Map<String, Integer> blocksPerAttribute = new HashMap<>();
+		for (Block block : processedBlocks.keySet()) {
+			blocksPerAttribute.merge(block.getKey(), 1, Integer::sum);
+		}
+		List<String> candidates = new ArrayList<>(attributes);
+		candidates.sort(Comparator.comparingInt(a -> blocksPerAttribute
+				.getOrDefault(a, 0)));
+
+		List<String> reduct = new ArrayList<>(attributes);
+		for (String candidate : candidates) {
+			List<String> smaller = new ArrayList<>(reduct);
+			smaller.remove(candidate);
+			if (preserves(roughSet, representatives, smaller, cardinalities)) {
+				reduct = smaller;
+			}
+		}
+		return Collections.unmodifiableList(reduct);
+	}
+
+	/**
+	 * K_B(x) is a superset of K_A(x) for B a subset of A (or empty if no
+	 * attribute of B constrains x), thus equal cardinality means equal sets.
+	 */
+	private static boolean preserves(BitsetRoughSet roughSet,
+			Collection<DeviceDTO> representatives, List<String> attributes,
+			Map<DeviceDTO, Integer> cardinalities) {
+		for (DeviceDTO d : representatives) {
+			if (roughSet.buildCaracteristicSet(d, attributes).cardinality() != cardinalities
+					.get(d)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,472 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+/**
+ * Bitset representation of the rough-set structures used by the
+ * {@link at.ac.tuwien.infosys.RoughScopeManager}. Every device gets an ordinal
+ * and every block becomes a {@link BitSet} over these ordinals, so that
+ * characteristic sets and approximations are computed with word-wise AND/OR
+ * instead of copying and intersecting hash sets.
+ *
+ * The results are identical to the set-based engine. Devices are identified
+ * by reference, just like in the {@link HashSet}s of the set-based engine.
+ * Blocks that do not exist are treated as empty (the set-based engine fails
+ * with a NPE in this case).
+ *
+ * With equivalence classes enabled, devices with the same values for the
+ * attributes and the same decision are grouped, since they share the same
+ * characteristic set. The characteristic set is then computed once per class
+ * instead of once per device.
+ *
+ * Variable precision approximations relax the inclusion of a characteristic
+ * set in the target scope to a ratio. The ratios can be estimated from
+ * bounded random samples of the characteristic sets for very large fleets.
+ *
+ * The approximations can be computed in parallel on a {@link ForkJoinPool}.
+ * The devices are split until a slice is not larger than the parallelism
+ * threshold, each slice builds a partial union and the partial unions are
+ * merged with OR. The result does not depend on the split.
+ *
+ * An instance is bound to one set of processed blocks. Apart from the
+ * parallel approximations, it is not thread safe.
+ *
+ * @author stefan
+ *
+ */
+public class BitsetRoughSet {
+
+	private final List<DeviceDTO> allDeviceDTOs;
+	private final List<DeviceDTO> devices = new ArrayList<>();
+	private final Map<DeviceDTO, Integer> ordinals = new IdentityHashMap<>();
+	private final Map<Block, BitSet> blocks = new HashMap<>();
+	private final boolean equivalenceClasses;
+	private ForkJoinPool pool = null;
+	private int parallelThreshold = Integer.MAX_VALUE;
+
+	// Lazily computed unions for the special values "+" and "-"
+	private final Map<String, BitSet> positives = new ConcurrentHashMap<>();
+	private final Map<String, BitSet> negatives = new ConcurrentHashMap<>();
+	// Members of the blocks and unions, for the inclusion ratios
+	private final Map<Object, int[]> members = new ConcurrentHashMap<>();
+	// 0 = exact inclusion ratios
+	private int sampleSize = 0;
+	private long seed = 0;
+
+	public BitsetRoughSet(Map<Block, List<DeviceDTO>> processedBlocks,
+			List<DeviceDTO> allDeviceDTOs) {
+		this(processedBlocks, allDeviceDTOs, false);
+	}
+
+	public BitsetRoughSet(Map<Block, List<DeviceDTO>> processedBlocks,
+			List<DeviceDTO> allDeviceDTOs, boolean equivalenceClasses) {
+		this.allDeviceDTOs = allDeviceDTOs;
+		this.equivalenceClasses = equivalenceClasses;
+		for (DeviceDTO d : allDeviceDTOs) {
+			ordinalOf(d);
+		}
+		for (Map.Entry<Block, List<DeviceDTO>> e : processedBlocks.entrySet()) {
+			BitSet bits = new BitSet(this.devices.size());
+			for (DeviceDTO d : e.getValue()) {
+				bits.set(ordinalOf(d));
+			}
+			this.blocks.put(e.getKey(), bits);
+		}
+	}
+
+	public Set<DeviceDTO> buildUpperApproximation(List<DeviceDTO> subset,
+			List<String> attrList) {
+		BitSet x = toBitSet(subset);
+		return toDevices(union(representatives(this.allDeviceDTOs, attrList),
+				attrList, kbx -> kbx.intersects(x)));
+	}
+
+	public Set<DeviceDTO> buildLowerApproximationOptimized(
+			List<DeviceDTO> subset, List<String> attrList) {
+		BitSet x = toBitSet(subset);
+		return toDevices(union(representatives(subset, attrList), attrList,
+				kbx -> kbx.intersects(x)));
+	}
+
+	public Set<DeviceDTO> buildLowerApproximation(List<DeviceDTO> subset,
+			List<String> attrList) {
+		BitSet x = toBitSet(subset);
+		return toDevices(union(representatives(this.allDeviceDTOs, attrList),
+				attrList, kbx -> {
+					// kbx is a subset of x
+					BitSet outside = (BitSet) kbx.clone();
+					outside.andNot(x);
+					return outside.isEmpty();
+				}));
+	}
+
+	/**
+	 * Variable precision lower approximation: union of the characteristic
+	 * sets K_B(x) with an inclusion ratio |K_B(x) & X| / |K_B(x)| of at least
+	 * beta. For beta = 1 this is the lower approximation.
+	 * 
+	 * @param beta
+	 *            precision in (0.5, 1]
+	 */
+	public Set<DeviceDTO> buildVariablePrecisionLowerApproximation(
+			List<DeviceDTO> subset, List<String> attrList, double beta) {
+		BitSet x = toBitSet(subset);
+		return toDevices(union(representatives(this.allDeviceDTOs, attrList),
+				d -> inclusion(d, attrList, x) >= beta ? buildCaracteristicSet(
+						d, attrList) : null));
+	}
+
+	/**
+	 * Variable precision upper approximation: union of the characteristic
+	 * sets K_B(x) with an inclusion ratio above 1 - beta. For beta = 1 this
+	 * is the upper approximation.
+	 * 
+	 * @param beta
+	 *            precision in (0.5, 1]
+	 */
+	public Set<DeviceDTO> buildVariablePrecisionUpperApproximation(
+			List<DeviceDTO> subset, List<String> attrList, double beta) {
+		BitSet x = toBitSet(subset);
+		return toDevices(union(representatives(this.allDeviceDTOs, attrList),
+				d -> inclusion(d, attrList, x) > 1 - beta ? buildCaracteristicSet(
+						d, attrList) : null));
+	}
+
+	/**
+	 * Estimates the inclusion ratios of the variable precision approximations
+	 * from a random sample of each characteristic set instead of computing
+	 * them exactly. By Hoeffding's inequality, a sample of
+	 * ln(2 / delta) / (2 * error^2) members is within the error of the exact
+	 * ratio with probability 1 - delta. Characteristic sets that are not
+	 * larger than the sample are still counted exactly. The sample of a device
+	 * only depends on the seed and the device, not on the parallelism.
+	 * 
+	 * @param error
+	 *            maximal error of an inclusion ratio, 0 disables sampling
+	 * @param delta
+	 *            probability that the error is exceeded
+	 * @param seed
+	 */
+	public void setSampling(double error, double delta, long seed) {
+		this.sampleSize = error <= 0 ? 0 : (int) Math.ceil(Math.log(2 / delta)
+				/ (2 * error * error));
+		this.seed = seed;
+	}
+
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	/**
+	 * Enables parallel approximations. Slices with at most parallelThreshold
+	 * devices are processed sequentially.
+	 */
+	public void setParallelism(ForkJoinPool pool, int parallelThreshold) {
+		this.pool = pool;
+		this.parallelThreshold = Math.max(1, parallelThreshold);
+	}
+
+	/**
+	 * Union of the characteristic sets of the devices that satisfy the
+	 * condition.
+	 */
+	private BitSet union(Collection<DeviceDTO> devices, List<String> attrList,
+			Predicate<BitSet> condition) {
+		return union(devices, d -> {
+			BitSet kbx = buildCaracteristicSet(d, attrList);
+			return condition.test(kbx) ? kbx : null;
+		});
+	}
+
+	/**
+	 * Union of the bitsets the selector returns for the devices, null means
+	 * that the device does not contribute.
+	 */
+	private BitSet union(Collection<DeviceDTO> devices,
+			Function<DeviceDTO, BitSet> selector) {
+		List<DeviceDTO> list = devices instanceof List ? (List<DeviceDTO>) devices
+				: new ArrayList<>(devices);
+		// make sure that all devices have an ordinal before going parallel
+		for (DeviceDTO d : list) {
+			ordinalOf(d);
+		}
+		UnionTask task = new UnionTask(list, 0, list.size(), selector);
+		if (this.pool == null || list.size() <= this.parallelThreshold) {
+			return task.compute();
+		}
+		return this.pool.invoke(task);
+	}
+
+	private class UnionTask extends RecursiveTask<BitSet> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<DeviceDTO> devices;
+		private final int from;
+		private final int to;
+		private final Function<DeviceDTO, BitSet> selector;
+
+		UnionTask(List<DeviceDTO> devices, int from, int to,
+				Function<DeviceDTO, BitSet> selector) {
+			this.devices = devices;
+			this.from = from;
+			this.to = to;
+			this.selector = selector;
+		}
+
+		@Override
+		protected BitSet compute() {
+			if (this.to - this.from <= parallelThreshold) {
+				BitSet union = new BitSet(BitsetRoughSet.this.devices.size());
+				for (int i = this.from; i < this.to; i++) {
+					BitSet selected = this.selector.apply(this.devices.get(i));
+					if (selected != null) {
+						union.or(selected);
+					}
+				}
+				return union;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			UnionTask left = new UnionTask(this.devices, this.from, middle,
+					this.selector);
+			UnionTask right = new UnionTask(this.devices, middle, this.to,
+					this.selector);
+			left.fork();
+			BitSet union = right.compute();
+			union.or(left.join());
+			return union;
+		}
+	}
+
+	/**
+	 * Builds the characteristic set K_B(x) of a device as a bitset. The
+	 * returned bitset is owned by the caller.
+	 */
+	public BitSet buildCaracteristicSet(DeviceDTO device, List<String> attrList) {
+		BitSet s = null;
+		for (String attrKey : attrList) {
+			String value = device.getMeta().get(attrKey);
+			BitSet attrSet = null;
+			if (isDefined(value)) {
+				attrSet = this.blocks.get(new Block(attrKey, value));
+				if (attrSet == null) {
+					attrSet = new BitSet();
+				}
+			} else if ("+".equals(value)) {
+				attrSet = positive(attrKey);
+			} else if ("-".equals(value)) {
+				BitSet union = negative(attrKey, device.getDecision());
+				if (!union.isEmpty()) {
+					attrSet = union;
+				}
+			}
+			// "?" and "*" contribute U, which is neutral for the intersection
+
+			if (attrSet != null) {
+				if (s == null) {
+					s = (BitSet) attrSet.clone();
+				} else {
+					s.and(attrSet);
+				}
+			}
+		}
+		return s == null ? new BitSet() : s;
+	}
+
+	public BitSet toBitSet(Collection<DeviceDTO> subset) {
+		BitSet bits = new BitSet(this.devices.size());
+		for (DeviceDTO d : subset) {
+			bits.set(ordinalOf(d));
+		}
+		return bits;
+	}
+
+	public Set<DeviceDTO> toDevices(BitSet bits) {
+		Set<DeviceDTO> result = new HashSet<>();
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			result.add(this.devices.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * One device per equivalence class, i.e., per combination of attribute
+	 * values and decision. Returns the devices unchanged if equivalence
+	 * classes are disabled.
+	 */
+	public Collection<DeviceDTO> representatives(Collection<DeviceDTO> devices,
+			List<String> attrList) {
+		if (!this.equivalenceClasses) {
+			return devices;
+		}
+		Map<List<Object>, DeviceDTO> classes = new LinkedHashMap<>();
+		for (DeviceDTO d : devices) {
+			List<Object> key = new ArrayList<>(attrList.size() + 1);
+			for (String attrKey : attrList) {
+				key.add(d.getMeta().get(attrKey));
+			}
+			key.add(d.getDecision());
+			classes.putIfAbsent(key, d);
+		}
+		return classes.values();
+	}
+
+	/**
+	 * Inclusion ratio |K_B(x) & X| / |K_B(x)|, 0 for an empty K_B(x). K_B(x)
+	 * is not materialized, the members of its smallest constituent set are
+	 * tested against the other ones instead.
+	 */
+	double inclusion(DeviceDTO device, List<String> attrList, BitSet x) {
+		List<BitSet> sets = new ArrayList<>(attrList.size());
+		int[] smallest = null;
+		for (String attrKey : attrList) {
+			String value = device.getMeta().get(attrKey);
+			Object key = null;
+			BitSet attrSet = null;
+			if (isDefined(value)) {
+				key = new Block(attrKey, value);
+				attrSet = this.blocks.get(key);
+				if (attrSet == null) {
+					return 0;
+				}
+			} else if ("+".equals(value)) {
+				key = "+" + attrKey;
+				attrSet = positive(attrKey);
+			} else if ("-".equals(value)) {
+				BitSet union = negative(attrKey, device.getDecision());
+				if (!union.isEmpty()) {
+					key = "-" + attrKey + "|" + device.getDecision();
+					attrSet = union;
+				}
+			}
+			if (attrSet != null) {
+				sets.add(attrSet);
+				int[] members = members(key, attrSet);
+				if (smallest == null || members.length < smallest.length) {
+					smallest = members;
+				}
+			}
+		}
+		if (smallest == null) {
+			return 0;
+		}
+
+		int size = 0;
+		int included = 0;
+		if (this.sampleSize > 0 && smallest.length > this.sampleSize) {
+			Random random = new Random(this.seed * 31 + ordinalOf(device));
+			// rejection sampling, bounded in case K_B(x) is very sparse
+			for (int draws = 0; draws < 16 * this.sampleSize
+					&& size < this.sampleSize; draws++) {
+				int member = smallest[random.nextInt(smallest.length)];
+				if (containedInAll(member, sets)) {
+					size++;
+					if (x.get(member)) {
+						included++;
+					}
+				}
+			}
+			if (size == this.sampleSize) {
+				return (double) included / size;
+			}
+			size = 0;
+			included = 0;
+		}
+		for (int member : smallest) {
+			if (containedInAll(member, sets)) {
+				size++;
+				if (x.get(member)) {
+					included++;
+				}
+			}
+		}
+		return size == 0 ? 0 : (double) included / size;
+	}
+
+	private static boolean containedInAll(int member, List<BitSet> sets) {
+		for (BitSet set : sets) {
+			if (!set.get(member)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorted ordinals of a block or a union of blocks.
+	 */
+	private int[] members(Object key, BitSet set) {
+		return this.members.computeIfAbsent(key, k -> set.stream().toArray());
+	}
+
+	/**
+	 * Union of all blocks of the attribute.
+	 */
+	private BitSet positive(String attrKey) {
+		return this.positives.computeIfAbsent(attrKey, k -> {
+			BitSet union = new BitSet(this.devices.size());
+			for (Map.Entry<Block, BitSet> e : this.blocks.entrySet()) {
+				if (e.getKey().getKey().equals(attrKey)) {
+					union.or(e.getValue());
+				}
+			}
+			return union;
+		});
+	}
+
+	/**
+	 * Union of the blocks of all values the attribute takes for devices with
+	 * the same decision.
+	 */
+	private BitSet negative(String attrKey, DECISION decision) {
+		return this.negatives.computeIfAbsent(attrKey + "|" + decision, k -> {
+			BitSet union = new BitSet(this.devices.size());
+			Set<String> seen = new HashSet<>();
+			for (DeviceDTO d : this.allDeviceDTOs) {
+				String value = d.getMeta().get(attrKey);
+				if (decision == d.getDecision() && isDefined(value)
+						&& seen.add(value)) {
+					BitSet block = this.blocks.get(new Block(attrKey, value));
+					if (block != null) {
+						union.or(block);
+					}
+				}
+			}
+			return union;
+		});
+	}
+
+	private int ordinalOf(DeviceDTO device) {
+		Integer ordinal = this.ordinals.get(device);
+		if (ordinal == null) {
+			ordinal = this.devices.size();
+			this.devices.add(device);
+			this.ordinals.put(device, ordinal);
+		}
+		return ordinal;
+	}
+
+	static boolean isDefined(String value) {
+		return !("?".equals(value) || "+".equals(value) || "-".equals(value) || "*"
+				.equals(value));
+	}
+}
@@ -0,0 +1,707 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+/**
+ * Long-lived index of the rough-set blocks of the global scope. The index is
+ * fed per device by the managers (register/unregister), reconciled with
+ * their change feeds by the BlockIndexSync, and keeps the blocks with the
+ * special values ("?", "+", "-", "*") already expanded, i.e., the blocks are
+ * always equal to
+ *
+ * <pre>
+ * handleSpecialValues(makeBlocks(prepareData(devices, replacement)))
+ * </pre>
+ *
+ * Since the replacement of missing data is part of the uncertainty
+ * properties of a query, the index keeps one view per replacement. A view is
+ * created on the first query with the replacement and maintained
+ * incrementally afterwards. Each view also keeps an {@link InvertedIndex} of
+ * its devices to select the target scope of a query.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class BlockIndex {
+
+	private static final Logger LOGGER = Logger.getLogger(BlockIndex.class);
+	private static final int MAX_INCREMENTAL_SCOPES = 64;
+	private static final int MAX_CHANGES = 4096;
+
+	// Raw devices as reported by the managers
+	private final Map<String, DeviceDTO> devices = new LinkedHashMap<>();
+	private final Map<String, View> views = new HashMap<>();
+	private boolean loaded = false;
+	// Bumped on every change of the devices
+	private long version = 0;
+	// version -> device changed to this version, since the horizon
+	private final TreeMap<Long, Change> changes = new TreeMap<>();
+	private long horizon = 0;
+
+	public BlockIndex() {
+	}
+
+	public synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Monotonically increasing version of the registered devices.
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Replaces the content of the index, e.g., with the global scope.
+	 */
+	public synchronized void reload(List<DeviceDTO> globalScope) {
+		LOGGER.info("Reload block index with " + globalScope.size()
+				+ " devices");
+		this.devices.clear();
+		this.views.clear();
+		for (DeviceDTO d : globalScope) {
+			this.devices.put(d.getId(), d);
+		}
+		this.loaded = true;
+		this.version++;
+		this.changes.clear();
+		this.horizon = this.version;
+	}
+
+	/**
+	 * Registers a device with its meta info, e.g., location=gh1&type=FM5300.
+	 * If the device is already known, its meta info is replaced.
+	 */
+	public void register(String deviceId, String metaInfo) {
+		DeviceDTO device = new DeviceDTO(deviceId, deviceId, metaInfo);
+		if (metaInfo != null && !metaInfo.isEmpty()) {
+			for (String datum : metaInfo.split("&")) {
+				String[] split = datum.split("=", 2);
+				device.addMetaData(split[0], split.length > 1 ? split[1] : "");
+			}
+		}
+		register(device);
+	}
+
+	public synchronized void register(DeviceDTO device) {
+		DeviceDTO old = this.devices.put(device.getId(), device);
+		this.version++;
+		changed(device.getId(), old != null);
+		for (View view : this.views.values()) {
+			if (old != null) {
+				view.remove(old.getId());
+			}
+			view.add(device);
+		}
+	}
+
+	public synchronized void unregister(String deviceId) {
+		DeviceDTO old = this.devices.remove(deviceId);
+		if (old != null) {
+			this.version++;
+			changed(deviceId, true);
+			for (View view : this.views.values()) {
+				view.remove(deviceId);
+			}
+		}
+	}
+
+	private void changed(String deviceId, boolean existed) {
+		this.changes.put(this.version, new Change(deviceId, existed));
+		if (this.changes.size() > MAX_CHANGES) {
+			this.horizon = this.changes.pollFirstEntry().getKey();
+		}
+	}
+
+	/**
+	 * Raw devices that changed after the version, or all devices if the
+	 * changes since the version are not known anymore.
+	 */
+	public synchronized Changes getChanges(long since) {
+		if (since < this.horizon) {
+			return new Changes(true, getDevices(), 0, this.version,
+					this.devices.size());
+		}
+		// whether the device existed at the version
+		Map<String, Boolean> existed = new LinkedHashMap<>();
+		for (Change change : this.changes.tailMap(since, false).values()) {
+			existed.putIfAbsent(change.deviceId, change.existed);
+		}
+		List<DeviceDTO> changed = new ArrayList<>();
+		int replaced = 0;
+		for (Map.Entry<String, Boolean> e : existed.entrySet()) {
+			DeviceDTO device = this.devices.get(e.getKey());
+			if (device != null) {
+				changed.add(device);
+			}
+			if (e.getValue()) {
+				replaced++;
+			}
+		}
+		return new Changes(false, changed, replaced, this.version,
+				this.devices.size());
+	}
+
+	/**
+	 * Copy of the raw devices in registration order.
+	 */
+	public synchronized List<DeviceDTO> getDevices() {
+		return new ArrayList<>(this.devices.values());
+	}
+
+	public synchronized int size() {
+		return this.devices.size();
+	}
+
+	/**
+	 * Sorted meta info keys of all devices.
+	 */
+	public synchronized List<String> getAttributes() {
+		Set<String> attributes = new TreeSet<>();
+		for (DeviceDTO d : this.devices.values()) {
+			attributes.addAll(d.getMeta().keySet());
+		}
+		return new ArrayList<>(attributes);
+	}
+
+	/**
+	 * Returns a consistent snapshot of the devices (with missing data already
+	 * replaced) and the processed blocks for the given replacement.
+	 */
+	public Snapshot getSnapshot(String replacement) {
+		return getSnapshot(replacement, null);
+	}
+
+	/**
+	 * Same as {@link #getSnapshot(String)}, additionally selects the devices
+	 * that match the query (if not null) in the same snapshot.
+	 */
+	public synchronized Snapshot getSnapshot(String replacement,
+			ScopeQuery query) {
+		return view(replacement).snapshot(query, this.version);
+	}
+
+	private View view(String replacement) {
+		View view = this.views.get(replacement);
+		if (view == null) {
+			view = new View(replacement);
+			for (DeviceDTO d : this.devices.values()) {
+				view.add(d);
+			}
+			this.views.put(replacement, view);
+		}
+		return view;
+	}
+
+	/**
+	 * Returns the approximation of the query, which is maintained
+	 * incrementally from now on. The scope is the same as the upper
+	 * approximation (or the optimized lower approximation if pessimistic) of
+	 * a snapshot of the replacement.
+	 */
+	public synchronized Set<DeviceDTO> getIncrementalScope(String replacement,
+			ScopeQuery query, List<String> attributes, boolean pessimistic) {
+		return view(replacement).scope(query, attributes, pessimistic)
+				.getScope();
+	}
+
+	private static class Change {
+		private final String deviceId;
+		private final boolean existed;
+
+		Change(String deviceId, boolean existed) {
+			this.deviceId = deviceId;
+			this.existed = existed;
+		}
+	}
+
+	/**
+	 * Devices that changed between two versions.
+	 */
+	public static class Changes {
+		private final boolean full;
+		private final List<DeviceDTO> devices;
+		private final int replaced;
+		private final long version;
+		private final int size;
+
+		Changes(boolean full, List<DeviceDTO> devices, int replaced,
+				long version, int size) {
+			this.full = full;
+			this.devices = devices;
+			this.replaced = replaced;
+			this.version = version;
+			this.size = size;
+		}
+
+		/**
+		 * True if the devices are all devices of the index instead of the
+		 * changed ones.
+		 */
+		public boolean isFull() {
+			return full;
+		}
+
+		/**
+		 * Current state of the devices that were added or changed.
+		 */
+		public List<DeviceDTO> getDevices() {
+			return devices;
+		}
+
+		/**
+		 * Number of devices that were changed or removed, i.e., whose former
+		 * state is outdated.
+		 */
+		public int getReplaced() {
+			return replaced;
+		}
+
+		/**
+		 * Version of the index the changes lead to.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Number of devices at the version.
+		 */
+		public int getSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * Devices and processed blocks of a view at a point in time. Both are
+	 * immutable and shared with other snapshots of the view.
+	 */
+	public static class Snapshot {
+		private final List<DeviceDTO> devices;
+		private final Map<Block, List<DeviceDTO>> blocks;
+		private final List<DeviceDTO> targetScope;
+		private final long version;
+
+		public Snapshot(List<DeviceDTO> devices,
+				Map<Block, List<DeviceDTO>> blocks,
+				List<DeviceDTO> targetScope, long version) {
+			this.devices = devices;
+			this.blocks = blocks;
+			this.targetScope = targetScope;
+			this.version = version;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public List<DeviceDTO> getDevices() {
+			return devices;
+		}
+
+		public Map<Block, List<DeviceDTO>> getBlocks() {
+			return blocks;
+		}
+
+		/**
+		 * Devices that match the query of the snapshot, null if there was no
+		 * query.
+		 */
+		public List<DeviceDTO> getTargetScope() {
+			return targetScope;
+		}
+
+		/**
+		 * Sorted meta info keys of all devices.
+		 */
+		public List<String> getAttributes() {
+			Set<String> attributes = new TreeSet<>();
+			for (DeviceDTO d : this.devices) {
+				attributes.addAll(d.getMeta().keySet());
+			}
+			return new ArrayList<>(attributes);
+		}
+	}
+
+	/**
+	 * Blocks of all devices for one replacement of missing data. A device is
+	 * member of a block (attr,v) for exactly one reason: its value is v, its
+	 * value is "+" or "*", or its value is "-" and some device with value v
+	 * has the same decision.
+	 */
+	static class View {
+
+		private final MissingValueOverlay overlay;
+		private final Map<String, DeviceDTO> devices = new LinkedHashMap<>();
+		// attr -> value -> members of the block (attr,value)
+		private final Map<String, Map<String, Set<DeviceDTO>>> blocks = new HashMap<>();
+		// attr -> value -> decision -> number of devices with this value
+		private final Map<String, Map<String, Map<DECISION, Integer>>> decisions = new HashMap<>();
+		// attr -> devices with "+" or "*"
+		private final Map<String, Set<DeviceDTO>> positives = new HashMap<>();
+		// attr -> decision -> devices with "-"
+		private final Map<String, Map<DECISION, Set<DeviceDTO>>> negatives = new HashMap<>();
+		private final InvertedIndex inverted = new InvertedIndex();
+		// immutable blocks and devices handed out by snapshots, null if
+		// not published yet or outdated
+		private Map<Block, List<DeviceDTO>> publishedBlocks;
+		private List<DeviceDTO> publishedDevices;
+		// blocks and attributes (all of their blocks) changed since the
+		// blocks were published
+		private final Set<Block> changedBlocks = new HashSet<>();
+		private final Set<String> changedAttributes = new HashSet<>();
+		// attributes whose blocks changed for more devices than the changed one
+		private final Set<String> restructured = new HashSet<>();
+		// maintained scopes by query, attributes and strategy
+		private final Map<String, IncrementalScope> scopes = new LinkedHashMap<String, IncrementalScope>(
+				16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, IncrementalScope> eldest) {
+				return size() > MAX_INCREMENTAL_SCOPES;
+			}
+		};
+
+		View(String replacement) {
+			// replacement = "location=?&type=+&quality=-"
+			this.overlay = MissingValueOverlay.parse(replacement);
+		}
+
+		void add(DeviceDTO raw) {
+			this.restructured.clear();
+			DeviceDTO device = prepare(raw);
+			this.devices.put(device.getId(), device);
+			this.publishedDevices = null;
+			this.inverted.add(device);
+			for (Map.Entry<String, String> e : device.getMeta().entrySet()) {
+				String attr = e.getKey();
+				String value = e.getValue();
+				Map<String, Set<DeviceDTO>> attrBlocks = attrBlocks(attr);
+				if ("?".equals(value)) {
+					continue;
+				} else if ("+".equals(value) || "*".equals(value)) {
+					this.changedAttributes.add(attr);
+					attrSet(this.positives, attr).add(device);
+					for (Set<DeviceDTO> block : attrBlocks.values()) {
+						block.add(device);
+					}
+				} else if ("-".equals(value)) {
+					this.changedAttributes.add(attr);
+					negatives(attr, device.getDecision()).add(device);
+					for (Map.Entry<String, Set<DeviceDTO>> b : attrBlocks
+							.entrySet()) {
+						if (count(attr, b.getKey(), device.getDecision()) > 0) {
+							b.getValue().add(device);
+						}
+					}
+				} else {
+					this.changedBlocks.add(new Block(attr, value));
+					Set<DeviceDTO> block = attrBlocks.get(value);
+					if (block == null) {
+						block = new LinkedHashSet<>();
+						block.addAll(attrSet(this.positives, attr));
+						attrBlocks.put(value, block);
+						this.restructured.add(attr);
+					}
+					if (increment(attr, value, device.getDecision(), 1) == 1) {
+						block.addAll(negatives(attr, device.getDecision()));
+						this.restructured.add(attr);
+					}
+					block.add(device);
+				}
+			}
+			for (IncrementalScope scope : this.scopes.values()) {
+				scope.added(device, this.restructured);
+			}
+		}
+
+		void remove(String deviceId) {
+			this.restructured.clear();
+			DeviceDTO device = this.devices.remove(deviceId);
+			if (device == null) {
+				return;
+			}
+			this.publishedDevices = null;
+			this.inverted.remove(deviceId);
+			for (Map.Entry<String, String> e : device.getMeta().entrySet()) {
+				String attr = e.getKey();
+				String value = e.getValue();
+				Map<String, Set<DeviceDTO>> attrBlocks = attrBlocks(attr);
+				if ("?".equals(value)) {
+					continue;
+				} else if ("+".equals(value) || "*".equals(value)) {
+					this.changedAttributes.add(attr);
+					attrSet(this.positives, attr).remove(device);
+					for (Set<DeviceDTO> block : attrBlocks.values()) {
+						block.remove(device);
+					}
+				} else if ("-".equals(value)) {
+					this.changedAttributes.add(attr);
+					negatives(attr, device.getDecision()).remove(device);
+					for (Set<DeviceDTO> block : attrBlocks.values()) {
+						block.remove(device);
+					}
+				} else {
+					this.changedBlocks.add(new Block(attr, value));
+					Set<DeviceDTO> block = attrBlocks.get(value);
+					block.remove(device);
+					if (increment(attr, value, device.getDecision(), -1) == 0) {
+						block.removeAll(negatives(attr, device.getDecision()));
+						this.restructured.add(attr);
+					}
+					if (this.decisions.get(attr).get(value).isEmpty()) {
+						// no device defines the value anymore
+						attrBlocks.remove(value);
+						this.decisions.get(attr).remove(value);
+					}
+				}
+			}
+			for (IncrementalScope scope : this.scopes.values()) {
+				scope.removed(device, this.restructured);
+			}
+		}
+
+		IncrementalScope scope(ScopeQuery query, List<String> attributes,
+				boolean pessimistic) {
+			String key = query.getNormalizedText() + "|" + attributes + "|"
+					+ pessimistic;
+			IncrementalScope scope = this.scopes.get(key);
+			if (scope == null) {
+				scope = new IncrementalScope(this, query, attributes,
+						pessimistic, this.devices.values());
+				this.scopes.put(key, scope);
+			}
+			return scope;
+		}
+
+		/**
+		 * Constituent set of K_B(x) for the value of an attribute: the block
+		 * of a defined value (empty if there is none), the union of the
+		 * blocks for "+", the union of the blocks of the values taken by
+		 * devices with the same decision for "-" and null (U) for "?", "*"
+		 * and a "-" without such values. The same as in
+		 * {@link BitsetRoughSet#buildCaracteristicSet}.
+		 */
+		Set<DeviceDTO> constituent(String attr, String value,
+				DECISION decision) {
+			Map<String, Set<DeviceDTO>> attrBlocks = attrBlocks(attr);
+			if ("?".equals(value) || "*".equals(value)) {
+				return null;
+			} else if ("+".equals(value)) {
+				Set<DeviceDTO> union = new HashSet<>();
+				for (Set<DeviceDTO> block : attrBlocks.values()) {
+					union.addAll(block);
+				}
+				return union;
+			} else if ("-".equals(value)) {
+				Set<DeviceDTO> union = new HashSet<>();
+				for (Map.Entry<String, Set<DeviceDTO>> b : attrBlocks
+						.entrySet()) {
+					if (count(attr, b.getKey(), decision) > 0) {
+						union.addAll(b.getValue());
+					}
+				}
+				return union.isEmpty() ? null : union;
+			}
+			Set<DeviceDTO> block = attrBlocks.get(value);
+			return block == null ? Collections.<DeviceDTO> emptySet() : block;
+		}
+
+		/**
+		 * Same as constituent(attr, value, decision).contains(device), null if
+		 * the constituent set is U.
+		 */
+		Boolean constituentContains(String attr, String value,
+				DECISION decision, DeviceDTO device) {
+			Map<String, Set<DeviceDTO>> attrBlocks = attrBlocks(attr);
+			if ("?".equals(value) || "*".equals(value)) {
+				return null;
+			} else if ("+".equals(value)) {
+				for (Set<DeviceDTO> block : attrBlocks.values()) {
+					if (block.contains(device)) {
+						return true;
+					}
+				}
+				return false;
+			} else if ("-".equals(value)) {
+				boolean any = false;
+				for (Map.Entry<String, Set<DeviceDTO>> b : attrBlocks
+						.entrySet()) {
+					if (count(attr, b.getKey(), decision) > 0
+							&& !b.getValue().isEmpty()) {
+						any = true;
+						if (b.getValue().contains(device)) {
+							return true;
+						}
+					}
+				}
+				return any ? false : null;
+			}
+			Set<DeviceDTO> block = attrBlocks.get(value);
+			return block != null && block.contains(device);
+		}
+
+		/**
+		 * Snapshot of the published blocks and devices. Nothing is copied
+		 * unless the view changed since the last snapshot, and then only the
+		 * changed blocks are.
+		 */
+		Snapshot snapshot(ScopeQuery query, long version) {
+			if (this.publishedDevices == null) {
+				this.publishedDevices = Collections
+						.unmodifiableList(new ArrayList<>(this.devices.values()));
+			}
+			return new Snapshot(this.publishedDevices, publishBlocks(),
+					query == null ? null : this.inverted.select(query), version);
+		}
+
+		private Map<Block, List<DeviceDTO>> publishBlocks() {
+			if (this.publishedBlocks != null && this.changedBlocks.isEmpty()
+					&& this.changedAttributes.isEmpty()) {
+				return this.publishedBlocks;
+			}
+			Map<Block, List<DeviceDTO>> published;
+			if (this.publishedBlocks == null) {
+				published = new HashMap<>();
+				this.changedAttributes.addAll(this.blocks.keySet());
+			} else {
+				published = new HashMap<>(this.publishedBlocks);
+				for (Iterator<Block> it = published.keySet().iterator(); it
+						.hasNext();) {
+					if (this.changedAttributes.contains(it.next().getKey())) {
+						it.remove();
+					}
+				}
+			}
+			for (String attr : this.changedAttributes) {
+				Map<String, Set<DeviceDTO>> attrBlocks = this.blocks.get(attr);
+				if (attrBlocks == null) {
+					continue;
+				}
+				for (Map.Entry<String, Set<DeviceDTO>> b : attrBlocks
+						.entrySet()) {
+					published.put(new Block(attr, b.getKey()),
+							immutable(b.getValue()));
+				}
+			}
+			for (Block block : this.changedBlocks) {
+				if (this.changedAttributes.contains(block.getKey())) {
+					continue;
+				}
+				Map<String, Set<DeviceDTO>> attrBlocks = this.blocks.get(block
+						.getKey());
+				Set<DeviceDTO> members = attrBlocks == null ? null
+						: attrBlocks.get(block.getValue());
+				if (members == null) {
+					published.remove(block);
+				} else {
+					published.put(block, immutable(members));
+				}
+			}
+			this.changedBlocks.clear();
+			this.changedAttributes.clear();
+			this.publishedBlocks = Collections.unmodifiableMap(published);
+			return this.publishedBlocks;
+		}
+
+		private static List<DeviceDTO> immutable(Set<DeviceDTO> block) {
+			return Collections.unmodifiableList(new ArrayList<>(block));
+		}
+
+		/**
+		 * Read-only view of the device with missing data replaced. The raw
+		 * device is neither copied nor modified.
+		 */
+		private DeviceDTO prepare(DeviceDTO raw) {
+			return this.overlay.view(raw);
+		}
+
+		private Map<String, Set<DeviceDTO>> attrBlocks(String attr) {
+			Map<String, Set<DeviceDTO>> attrBlocks = this.blocks.get(attr);
+			if (attrBlocks == null) {
+				attrBlocks = new HashMap<>();
+				this.blocks.put(attr, attrBlocks);
+			}
+			return attrBlocks;
+		}
+
+		private Set<DeviceDTO> attrSet(Map<String, Set<DeviceDTO>> sets,
+				String attr) {
+			Set<DeviceDTO> set = sets.get(attr);
+			if (set == null) {
+				set = new LinkedHashSet<>();
+				sets.put(attr, set);
+			}
+			return set;
+		}
+
+		private Set<DeviceDTO> negatives(String attr, DECISION decision) {
+			Map<DECISION, Set<DeviceDTO>> byDecision = this.negatives.get(attr);
+			if (byDecision == null) {
+				byDecision = new HashMap<>();
+				this.negatives.put(attr, byDecision);
+			}
+			Set<DeviceDTO> set = byDecision.get(decision);
+			if (set == null) {
+				set = new LinkedHashSet<>();
+				byDecision.put(decision, set);
+			}
+			return set;
+		}
+
+		private int count(String attr, String value, DECISION decision) {
+			Map<String, Map<DECISION, Integer>> byValue = this.decisions
+					.get(attr);
+			if (byValue == null || !byValue.containsKey(value)) {
+				return 0;
+			}
+			return byValue.get(value).getOrDefault(decision, 0);
+		}
+
+		private int increment(String attr, String value, DECISION decision,
+				int delta) {
+			Map<String, Map<DECISION, Integer>> byValue = this.decisions
+					.get(attr);
+			if (byValue == null) {
+				byValue = new HashMap<>();
+				this.decisions.put(attr, byValue);
+			}
+			Map<DECISION, Integer> counts = byValue.get(value);
+			if (counts == null) {
+				counts = new HashMap<>();
+				byValue.put(value, counts);
+			}
+			int count = counts.getOrDefault(decision, 0) + delta;
+			if (count == 0) {
+				counts.remove(decision);
+			} else {
+				counts.put(decision, count);
+			}
+			return count;
+		}
+	}
+}
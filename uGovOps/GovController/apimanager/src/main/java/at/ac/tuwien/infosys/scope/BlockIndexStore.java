@@ -0,0 +1,385 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+/**
+ * Keeps the {@link BlockIndex} on disk, so that a restarted controller does
+ * not have to pull the whole fleet from the managers. Changes are applied to
+ * the index through the store and appended to a journal, and the devices are
+ * periodically written to an {@link IndexSnapshotFile}. Each snapshot starts
+ * a new generation of the journal:
+ *
+ * <pre>
+ * index-7.snapshot   devices at the start of generation 7
+ * journal-7.log      changes since then
+ * </pre>
+ *
+ * At startup, the newest complete snapshot is memory-mapped and the journals
+ * of its generation and later are replayed on top. The restored index is
+ * stale, since devices may have changed while the controller was down, until
+ * it is reconciled with the managers (see {@link #isStale()}). Persistence is
+ * disabled if no scope.snapshot.dir is configured.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class BlockIndexStore {
+
+	private static final Logger LOGGER = Logger
+			.getLogger(BlockIndexStore.class);
+	private static final byte REGISTER = 1;
+	private static final byte UNREGISTER = 2;
+
+	@Autowired
+	private BlockIndex blockIndex;
+
+	@Value("${scope.snapshot.dir:}")
+	private String directory = "";
+	@Value("${scope.snapshot.interval:60}")
+	private long interval = 60;
+
+	private File dir;
+	private long generation = 0;
+	private DataOutputStream journal;
+	// index version of the last snapshot
+	private long snapshotVersion = -1;
+	// restored and not reloaded from the managers since
+	private volatile boolean stale = false;
+	private ScheduledExecutorService scheduler;
+
+	public BlockIndexStore() {
+	}
+
+	/**
+	 * Store without persistence.
+	 */
+	public BlockIndexStore(BlockIndex blockIndex) {
+		this.blockIndex = blockIndex;
+	}
+
+	public BlockIndexStore(BlockIndex blockIndex, File dir) {
+		this.blockIndex = blockIndex;
+		this.directory = dir.getPath();
+		this.interval = 0;
+	}
+
+	/**
+	 * Restores the index and starts writing snapshots periodically.
+	 */
+	@PostConstruct
+	public void start() {
+		if (this.directory.isEmpty()) {
+			return;
+		}
+		this.dir = new File(this.directory);
+		if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+			LOGGER.warn("Cannot create snapshot directory " + this.dir);
+			this.dir = null;
+			return;
+		}
+		restore();
+		if (this.interval > 0) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor();
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						snapshot();
+					} catch (Exception e) {
+						LOGGER.warn("Writing index snapshot failed", e);
+					}
+				}
+			}, this.interval, this.interval, TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdown();
+		}
+		synchronized (this) {
+			closeJournal();
+		}
+	}
+
+	public boolean isEnabled() {
+		return this.dir != null;
+	}
+
+	/**
+	 * True if the index was restored from disk and not reloaded with the
+	 * global scope since. Devices that were removed while the controller was
+	 * down are still in a stale index.
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
+	/**
+	 * Replaces the content of the index, e.g., with the global scope, and
+	 * writes a snapshot of it.
+	 */
+	public void reload(List<DeviceDTO> globalScope) {
+		synchronized (this) {
+			this.blockIndex.reload(globalScope);
+			this.stale = false;
+		}
+		try {
+			snapshot();
+		} catch (IOException e) {
+			LOGGER.warn("Writing index snapshot failed", e);
+		}
+	}
+
+	/**
+	 * Registers the device in the index (if loaded) and journals the change.
+	 */
+	public synchronized void register(String deviceId, String metaInfo) {
+		if (this.blockIndex.isLoaded()) {
+			this.blockIndex.register(deviceId, metaInfo);
+			append(REGISTER, deviceId, metaInfo);
+		}
+	}
+
+	public synchronized void unregister(String deviceId) {
+		this.blockIndex.unregister(deviceId);
+		if (this.blockIndex.isLoaded()) {
+			append(UNREGISTER, deviceId, "");
+		}
+	}
+
+	/**
+	 * Applies changes pulled from the managers to the index (if loaded) and
+	 * journals them.
+	 *
+	 * @param changed
+	 *            devices that were added or whose meta info changed
+	 * @param removed
+	 *            ids of devices that were removed
+	 */
+	public synchronized void apply(Collection<DeviceDTO> changed,
+			Collection<String> removed) {
+		if (!this.blockIndex.isLoaded()) {
+			return;
+		}
+		for (String deviceId : removed) {
+			this.blockIndex.unregister(deviceId);
+			append(UNREGISTER, deviceId, "");
+		}
+		for (DeviceDTO device : changed) {
+			this.blockIndex.register(device);
+			append(REGISTER, device.getId(), device.metaInfo);
+		}
+	}
+
+	/**
+	 * Writes a snapshot if the index changed since the last one and starts a
+	 * new journal generation.
+	 */
+	public void snapshot() throws IOException {
+		List<DeviceDTO> devices;
+		long version;
+		long snapshotGeneration;
+		synchronized (this) {
+			if (this.dir == null || !this.blockIndex.isLoaded()
+					|| this.blockIndex.getVersion() == this.snapshotVersion) {
+				return;
+			}
+			devices = this.blockIndex.getDevices();
+			version = this.blockIndex.getVersion();
+			closeJournal();
+			snapshotGeneration = ++this.generation;
+			this.snapshotVersion = version;
+		}
+		// changes from now on go to the journal of the new generation
+		long start = System.currentTimeMillis();
+		IndexSnapshotFile.write(snapshotFile(snapshotGeneration), devices,
+				version);
+		LOGGER.info("Wrote index snapshot " + snapshotGeneration + " with "
+				+ devices.size() + " devices in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		deleteOlderThan(snapshotGeneration);
+	}
+
+	/**
+	 * Loads the newest snapshot and replays the journals written after it.
+	 */
+	private synchronized void restore() {
+		TreeMap<Long, File> snapshots = generations("index-", ".snapshot");
+		TreeMap<Long, File> journals = generations("journal-", ".log");
+		long from = 0;
+		IndexSnapshotFile snapshot = null;
+		for (Long g : snapshots.descendingKeySet()) {
+			try {
+				snapshot = IndexSnapshotFile.read(snapshots.get(g));
+				from = g;
+				break;
+			} catch (IOException e) {
+				LOGGER.warn("Skipping index snapshot " + snapshots.get(g), e);
+			}
+		}
+		if (!snapshots.isEmpty() || !journals.isEmpty()) {
+			this.generation = Math.max(
+					snapshots.isEmpty() ? 0 : snapshots.lastKey(),
+					journals.isEmpty() ? 0 : journals.lastKey());
+		}
+		if (snapshot == null) {
+			// no fleet known, the next scope pulls the global scope
+			return;
+		}
+		long start = System.currentTimeMillis();
+		this.blockIndex.reload(snapshot.getDevices());
+		int replayed = 0;
+		for (File journal : journals.tailMap(from, true).values()) {
+			replayed += replay(journal);
+		}
+		this.snapshotVersion = replayed == 0 ? this.blockIndex.getVersion()
+				: -1;
+		this.stale = true;
+		LOGGER.info("Restored " + snapshot.getDevices().size()
+				+ " devices and " + replayed + " changes in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private int replay(File file) {
+		int changes = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			while (true) {
+				byte op = in.readByte();
+				String deviceId = readString(in, file.length());
+				String metaInfo = readString(in, file.length());
+				if (op == REGISTER) {
+					this.blockIndex.register(deviceId, metaInfo);
+				} else {
+					this.blockIndex.unregister(deviceId);
+				}
+				changes++;
+			}
+		} catch (EOFException e) {
+			// end of the journal, possibly a truncated last record
+		} catch (IOException e) {
+			LOGGER.warn("Replaying journal " + file + " failed", e);
+		}
+		return changes;
+	}
+
+	private void append(byte op, String deviceId, String metaInfo) {
+		if (this.dir == null) {
+			return;
+		}
+		try {
+			if (this.journal == null) {
+				this.journal = new DataOutputStream(new FileOutputStream(
+						journalFile(this.generation), true));
+			}
+			this.journal.writeByte(op);
+			writeString(this.journal, deviceId);
+			writeString(this.journal, metaInfo == null ? "" : metaInfo);
+			this.journal.flush();
+		} catch (IOException e) {
+			LOGGER.warn("Journaling " + deviceId + " failed", e);
+			// the next snapshot covers the change
+			this.snapshotVersion = -1;
+			closeJournal();
+		}
+	}
+
+	/**
+	 * Length-prefixed UTF-8, since writeUTF is limited to 64 KB.
+	 */
+	private static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in, long maxLength)
+			throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > maxLength) {
+			throw new IOException("Invalid string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void closeJournal() {
+		if (this.journal != null) {
+			try {
+				this.journal.close();
+			} catch (IOException e) {
+				LOGGER.warn("Closing journal failed", e);
+			}
+			this.journal = null;
+		}
+	}
+
+	private void deleteOlderThan(long generation) {
+		for (File file : generations("index-", ".snapshot")
+				.headMap(generation).values()) {
+			file.delete();
+		}
+		for (File file : generations("journal-", ".log").headMap(generation)
+				.values()) {
+			file.delete();
+		}
+	}
+
+	private TreeMap<Long, File> generations(String prefix, String suffix) {
+		TreeMap<Long, File> files = new TreeMap<>();
+		File[] list = this.dir.listFiles();
+		if (list != null) {
+			for (File file : list) {
+				String name = file.getName();
+				if (name.startsWith(prefix) && name.endsWith(suffix)) {
+					try {
+						files.put(Long.valueOf(name.substring(prefix.length(),
+								name.length() - suffix.length())), file);
+					} catch (NumberFormatException e) {
+						// not a generation, e.g., a temporary file
+					}
+				}
+			}
+		}
+		return files;
+	}
+
+	private File snapshotFile(long generation) {
+		return new File(this.dir, "index-" + generation + ".snapshot");
+	}
+
+	private File journalFile(long generation) {
+		return new File(this.dir, "journal-" + generation + ".log");
+	}
+}
@@ -0,0 +1,269 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog cardinality sketch with 2^precision one-byte registers. The
+ * standard error of an estimate is about 1.04 / sqrt(2^precision), e.g.,
+ * 0.8% for the default precision of 14 (16 KB per sketch). Sketches of the
+ * same precision can be merged into the sketch of the union.
+ *
+ * A sketch starts sparse: only the non-zero registers are kept, four bytes
+ * each, so that a sketch of a few devices takes a few bytes. It switches to
+ * the dense registers once an eighth of the registers are set. Both
+ * representations give the same estimates.
+ *
+ * @author stefan
+ *
+ */
+public class HyperLogLog {
+
+	public static final int DEFAULT_PRECISION = 14;
+	// sketches intersected by inclusion-exclusion, 2^k - 1 unions
+	static final int MAX_INTERSECTED = 3;
+
+	private final int precision;
+	// dense registers, null while sparse
+	private byte[] registers;
+	// sparse registers as index << 8 | rank, sorted by index
+	private int[] sparse;
+	private int sparseSize = 0;
+
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("Precision must be in [4, 18]");
+		}
+		this.precision = precision;
+		this.sparse = new int[4];
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * Relative standard error of an estimate.
+	 */
+	public static double standardError(int precision) {
+		return 1.04 / Math.sqrt(1 << precision);
+	}
+
+	public boolean isSparse() {
+		return this.registers == null;
+	}
+
+	public void add(String value) {
+		addHash(hash(value));
+	}
+
+	public void addHash(long hash) {
+		int index = (int) (hash >>> (64 - this.precision));
+		long w = hash << this.precision;
+		int rank = w == 0 ? 64 - this.precision + 1 : Long
+				.numberOfLeadingZeros(w) + 1;
+		set(index, rank);
+	}
+
+	/**
+	 * Raises the register to the rank.
+	 */
+	private void set(int index, int rank) {
+		if (this.registers != null) {
+			if (rank > this.registers[index]) {
+				this.registers[index] = (byte) rank;
+			}
+			return;
+		}
+		int pos = find(index);
+		if (pos >= 0) {
+			if (rank > (this.sparse[pos] & 0xff)) {
+				this.sparse[pos] = index << 8 | rank;
+			}
+			return;
+		}
+		pos = -pos - 1;
+		if (this.sparseSize == this.sparse.length) {
+			this.sparse = Arrays.copyOf(this.sparse, this.sparse.length * 2);
+		}
+		System.arraycopy(this.sparse, pos, this.sparse, pos + 1,
+				this.sparseSize - pos);
+		this.sparse[pos] = index << 8 | rank;
+		this.sparseSize++;
+		if (this.sparseSize > (1 << this.precision) / 8) {
+			densify();
+		}
+	}
+
+	/**
+	 * Position of the register in the sparse registers, -(insertion point) - 1
+	 * if it is not set.
+	 */
+	private int find(int index) {
+		int low = 0;
+		int high = this.sparseSize - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midIndex = this.sparse[mid] >>> 8;
+			if (midIndex < index) {
+				low = mid + 1;
+			} else if (midIndex > index) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void densify() {
+		this.registers = new byte[1 << this.precision];
+		for (int i = 0; i < this.sparseSize; i++) {
+			this.registers[this.sparse[i] >>> 8] = (byte) (this.sparse[i] & 0xff);
+		}
+		this.sparse = null;
+		this.sparseSize = 0;
+	}
+
+	/**
+	 * Adds the values of the other sketch, i.e., this sketch becomes the
+	 * sketch of the union.
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != this.precision) {
+			throw new IllegalArgumentException("Different precisions");
+		}
+		if (other.registers == null) {
+			for (int i = 0; i < other.sparseSize; i++) {
+				set(other.sparse[i] >>> 8, other.sparse[i] & 0xff);
+			}
+			return;
+		}
+		if (this.registers == null) {
+			densify();
+		}
+		for (int i = 0; i < this.registers.length; i++) {
+			if (other.registers[i] > this.registers[i]) {
+				this.registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	public HyperLogLog copy() {
+		HyperLogLog copy = new HyperLogLog(this.precision);
+		if (this.registers != null) {
+			copy.registers = this.registers.clone();
+			copy.sparse = null;
+		} else {
+			copy.sparse = Arrays.copyOf(this.sparse, Math.max(4,
+					this.sparseSize));
+			copy.sparseSize = this.sparseSize;
+		}
+		return copy;
+	}
+
+	/**
+	 * Estimated number of distinct values.
+	 */
+	public long estimate() {
+		int m = 1 << this.precision;
+		double sum = 0;
+		int zeros = 0;
+		if (this.registers != null) {
+			for (byte register : this.registers) {
+				sum += 1.0 / (1L << register);
+				if (register == 0) {
+					zeros++;
+				}
+			}
+		} else {
+			zeros = m - this.sparseSize;
+			sum = zeros;
+			for (int i = 0; i < this.sparseSize; i++) {
+				sum += 1.0 / (1L << (this.sparse[i] & 0xff));
+			}
+		}
+		double alpha = 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			// linear counting for small cardinalities
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Estimated cardinality of the union of the sketches.
+	 */
+	public static long estimateUnion(HyperLogLog... sketches) {
+		HyperLogLog union = sketches[0].copy();
+		for (int i = 1; i < sketches.length; i++) {
+			union.merge(sketches[i]);
+		}
+		return union.estimate();
+	}
+
+	/**
+	 * Estimated cardinality of the intersection of the sketches by
+	 * inclusion-exclusion over the unions of all subsets of the
+	 * MAX_INTERSECTED smallest sketches. The other sketches only bound the
+	 * estimate, which is at most the smallest sketch.
+	 */
+	public static long estimateIntersection(HyperLogLog... sketches) {
+		final long[] estimates = new long[sketches.length];
+		Integer[] order = new Integer[sketches.length];
+		for (int i = 0; i < sketches.length; i++) {
+			estimates[i] = sketches[i].estimate();
+			order[i] = i;
+		}
+		Arrays.sort(order, (i, j) -> Long.compare(estimates[i], estimates[j]));
+		long smallest = estimates[order[0]];
+		int k = Math.min(sketches.length, MAX_INTERSECTED);
+		if (k == 1 || smallest == 0) {
+			return smallest;
+		}
+		double intersection = 0;
+		for (int subset = 1; subset < 1 << k; subset++) {
+			HyperLogLog union = null;
+			for (int i = 0; i < k; i++) {
+				if ((subset & 1 << i) != 0) {
+					if (union == null) {
+						union = sketches[order[i]].copy();
+					} else {
+						union.merge(sketches[order[i]]);
+					}
+				}
+			}
+			intersection += (Integer.bitCount(subset) % 2 == 1 ? 1 : -1)
+					* union.estimate();
+		}
+		return Math.max(0, Math.min(smallest, Math.round(intersection)));
+	}
+
+	/**
+	 * 64 bit hash of the value (FNV-1a followed by the MurmurHash3
+	 * finalizer).
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "HyperLogLog[precision=" + this.precision + ", estimate="
+				+ estimate() + "]";
+	}
+}
@@ -0,0 +1,332 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import at.ac.tuwien.infosys.scope.BlockIndex.View;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+/**
+ * Governance scope (upper or optimized lower approximation) that is kept up
+ * to date by the {@link BlockIndex} instead of being recomputed on every
+ * change of a device.
+ *
+ * Devices with the same attribute values and decision form a class and share
+ * the characteristic set K_B(x). For every class the scope keeps K_B(x),
+ * |K_B(x) & X| and the number of its members in the target scope X. The
+ * approximation is the union of the characteristic sets of the selected
+ * classes, kept as a reference count per device.
+ *
+ * A changed device d mostly changes the characteristic sets by d itself, so
+ * they are patched by testing d against the constituent blocks of each
+ * class. Only if the change restructured the blocks of an attribute (a block
+ * was created or removed, or a value was taken by the first or last device of
+ * a decision), the characteristic sets of the classes that depend on the
+ * attribute are recomputed.
+ *
+ * Not thread safe, the block index synchronizes the access.
+ *
+ * @author stefan
+ *
+ */
+public class IncrementalScope {
+
+	private final View view;
+	private final ScopeQuery query;
+	private final List<String> attributes;
+	private final boolean pessimistic;
+
+	private final Map<List<Object>, Characteristic> classes = new LinkedHashMap<>();
+	private final Map<DeviceDTO, Characteristic> classOf = new HashMap<>();
+	// device -> classes whose characteristic set contains the device
+	private final Map<DeviceDTO, Set<Characteristic>> containing = new HashMap<>();
+	private final Set<DeviceDTO> targetScope = new HashSet<>();
+	// device -> number of selected characteristic sets that contain it
+	private final Map<DeviceDTO, Integer> scope = new HashMap<>();
+
+	IncrementalScope(View view, ScopeQuery query, List<String> attributes,
+			boolean pessimistic, Iterable<DeviceDTO> devices) {
+		this.view = view;
+		this.query = query;
+		this.attributes = new ArrayList<>(attributes);
+		this.pessimistic = pessimistic;
+		for (DeviceDTO d : devices) {
+			if (query.matches(d)) {
+				this.targetScope.add(d);
+			}
+		}
+		for (DeviceDTO d : devices) {
+			join(d);
+		}
+		for (Characteristic c : this.classes.values()) {
+			recompute(c);
+		}
+	}
+
+	/**
+	 * Current approximation.
+	 */
+	public Set<DeviceDTO> getScope() {
+		return new HashSet<>(this.scope.keySet());
+	}
+
+	public int getClassCount() {
+		return this.classes.size();
+	}
+
+	/**
+	 * Called after the device was added to the blocks of the view.
+	 * 
+	 * @param device
+	 *            prepared device
+	 * @param restructured
+	 *            attributes whose blocks were restructured
+	 */
+	void added(DeviceDTO device, Set<String> restructured) {
+		Characteristic own = this.classOf.get(device);
+		if (own == null) {
+			own = join(device);
+		}
+		Set<Characteristic> recomputed = affected(restructured);
+		for (Characteristic c : this.classes.values()) {
+			if (c == own && c.members.size() == 1) {
+				// new class
+				recompute(c);
+			} else if (recomputed.contains(c)) {
+				recompute(c);
+			} else if (contains(c, device)) {
+				addToK(c, device);
+			}
+		}
+		if (this.query.matches(device)) {
+			setInTargetScope(device, true);
+		}
+	}
+
+	/**
+	 * Called after the device was removed from the blocks of the view.
+	 */
+	void removed(DeviceDTO device, Set<String> restructured) {
+		setInTargetScope(device, false);
+		Characteristic own = this.classOf.remove(device);
+		if (own != null) {
+			own.members.remove(device);
+			if (own.members.isEmpty()) {
+				for (DeviceDTO y : new ArrayList<>(own.k)) {
+					removeFromK(own, y);
+				}
+				this.classes.remove(own.key);
+			}
+		}
+		Set<Characteristic> owners = this.containing.get(device);
+		if (owners != null) {
+			for (Characteristic c : new ArrayList<>(owners)) {
+				removeFromK(c, device);
+			}
+		}
+		for (Characteristic c : affected(restructured)) {
+			recompute(c);
+		}
+	}
+
+	private Characteristic join(DeviceDTO device) {
+		List<Object> key = new ArrayList<>(this.attributes.size() + 1);
+		for (String attr : this.attributes) {
+			key.add(device.getMeta().get(attr));
+		}
+		key.add(device.getDecision());
+		Characteristic c = this.classes.get(key);
+		if (c == null) {
+			c = new Characteristic(key, device.getDecision());
+			this.classes.put(key, c);
+		}
+		c.members.add(device);
+		if (this.targetScope.contains(device)) {
+			c.membersInX++;
+		}
+		this.classOf.put(device, c);
+		return c;
+	}
+
+	/**
+	 * Classes that constrain at least one of the attributes.
+	 */
+	private Set<Characteristic> affected(Set<String> restructured) {
+		Set<Characteristic> affected = new HashSet<>();
+		if (restructured.isEmpty()) {
+			return affected;
+		}
+		for (Characteristic c : this.classes.values()) {
+			for (int i = 0; i < this.attributes.size(); i++) {
+				Object value = c.key.get(i);
+				if (restructured.contains(this.attributes.get(i))
+						&& !"?".equals(value) && !"*".equals(value)) {
+					affected.add(c);
+					break;
+				}
+			}
+		}
+		return affected;
+	}
+
+	private void recompute(Characteristic c) {
+		List<Set<DeviceDTO>> sets = new ArrayList<>();
+		for (int i = 0; i < this.attributes.size(); i++) {
+			Set<DeviceDTO> set = this.view.constituent(this.attributes.get(i),
+					(String) c.key.get(i), c.decision);
+			if (set != null) {
+				sets.add(set);
+			}
+		}
+		Set<DeviceDTO> k = new HashSet<>();
+		if (!sets.isEmpty()) {
+			sets.sort((a, b) -> Integer.compare(a.size(), b.size()));
+			for (DeviceDTO y : sets.get(0)) {
+				boolean inAll = true;
+				for (int i = 1; i < sets.size() && inAll; i++) {
+					inAll = sets.get(i).contains(y);
+				}
+				if (inAll) {
+					k.add(y);
+				}
+			}
+		}
+		for (DeviceDTO y : new ArrayList<>(c.k)) {
+			if (!k.contains(y)) {
+				removeFromK(c, y);
+			}
+		}
+		for (DeviceDTO y : k) {
+			if (!c.k.contains(y)) {
+				addToK(c, y);
+			}
+		}
+		reselect(c);
+	}
+
+	/**
+	 * Tests if the device is member of K_B(x) of the class without computing
+	 * the characteristic set.
+	 */
+	private boolean contains(Characteristic c, DeviceDTO device) {
+		boolean constrained = false;
+		for (int i = 0; i < this.attributes.size(); i++) {
+			Boolean member = this.view.constituentContains(
+					this.attributes.get(i), (String) c.key.get(i), c.decision,
+					device);
+			if (member != null) {
+				if (!member) {
+					return false;
+				}
+				constrained = true;
+			}
+		}
+		// no constituent set at all means K_B(x) is empty
+		return constrained;
+	}
+
+	private void setInTargetScope(DeviceDTO device, boolean inX) {
+		if (inX ? !this.targetScope.add(device) : !this.targetScope
+				.remove(device)) {
+			return;
+		}
+		int delta = inX ? 1 : -1;
+		Characteristic own = this.classOf.get(device);
+		if (own != null) {
+			own.membersInX += delta;
+			reselect(own);
+		}
+		Set<Characteristic> owners = this.containing.get(device);
+		if (owners != null) {
+			for (Characteristic c : owners) {
+				c.kInX += delta;
+				reselect(c);
+			}
+		}
+	}
+
+	private void addToK(Characteristic c, DeviceDTO y) {
+		if (!c.k.add(y)) {
+			return;
+		}
+		Set<Characteristic> owners = this.containing.get(y);
+		if (owners == null) {
+			owners = new HashSet<>();
+			this.containing.put(y, owners);
+		}
+		owners.add(c);
+		if (this.targetScope.contains(y)) {
+			c.kInX++;
+		}
+		if (c.selected) {
+			this.scope.merge(y, 1, Integer::sum);
+		}
+		reselect(c);
+	}
+
+	private void removeFromK(Characteristic c, DeviceDTO y) {
+		if (!c.k.remove(y)) {
+			return;
+		}
+		Set<Characteristic> owners = this.containing.get(y);
+		owners.remove(c);
+		if (owners.isEmpty()) {
+			this.containing.remove(y);
+		}
+		if (this.targetScope.contains(y)) {
+			c.kInX--;
+		}
+		if (c.selected) {
+			unselect(y);
+		}
+		reselect(c);
+	}
+
+	private void reselect(Characteristic c) {
+		boolean selected = c.kInX > 0 && (!this.pessimistic || c.membersInX > 0);
+		if (selected == c.selected) {
+			return;
+		}
+		c.selected = selected;
+		for (DeviceDTO y : c.k) {
+			if (selected) {
+				this.scope.merge(y, 1, Integer::sum);
+			} else {
+				unselect(y);
+			}
+		}
+	}
+
+	private void unselect(DeviceDTO y) {
+		int count = this.scope.get(y) - 1;
+		if (count == 0) {
+			this.scope.remove(y);
+		} else {
+			this.scope.put(y, count);
+		}
+	}
+
+	/**
+	 * Characteristic set of a class of devices.
+	 */
+	private static class Characteristic {
+		private final List<Object> key;
+		private final DECISION decision;
+		private final Set<DeviceDTO> members = new HashSet<>();
+		private final Set<DeviceDTO> k = new HashSet<>();
+		private int membersInX = 0;
+		private int kInX = 0;
+		private boolean selected = false;
+
+		Characteristic(List<Object> key, DECISION decision) {
+			this.key = key;
+			this.decision = decision;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+import at.ac.tuwien.infosys.store.model.DeviceTable;
+
+/**
+ * On-disk image of the devices of the {@link BlockIndex}, laid out like a
+ * {@link DeviceTable}: the dictionaries of the attributes followed by the
+ * device columns and one int column of value codes per attribute. Files are
+ * written to a temporary file and renamed, and read through a memory mapping,
+ * so restoring a fleet is a sequential scan without any parsing of meta
+ * info.
+ *
+ * <pre>
+ * magic, format, index version, rows, attributes
+ * per attribute: name, cardinality, values
+ * per row: id, name, ip address, meta info, decision
+ * per attribute: codes of all rows
+ * </pre>
+ *
+ * @author stefan
+ *
+ */
+public class IndexSnapshotFile {
+
+	private static final int MAGIC = 0x55474F53;
+	private static final int FORMAT = 1;
+	private static final byte NO_DECISION = -1;
+	private static final DECISION[] DECISIONS = DECISION.values();
+
+	private final long version;
+	private final List<DeviceDTO> devices;
+
+	private IndexSnapshotFile(long version, List<DeviceDTO> devices) {
+		this.version = version;
+		this.devices = devices;
+	}
+
+	/**
+	 * Version of the index the devices were taken from.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public List<DeviceDTO> getDevices() {
+		return devices;
+	}
+
+	/**
+	 * Writes the devices, the file is replaced atomically.
+	 */
+	public static void write(File file, List<DeviceDTO> devices, long version)
+			throws IOException {
+		DeviceTable table = DeviceTable.of(devices);
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeLong(version);
+			out.writeInt(table.size());
+			out.writeInt(table.getAttributeCount());
+			for (int attr = 0; attr < table.getAttributeCount(); attr++) {
+				writeString(out, table.attributeName(attr));
+				out.writeInt(table.cardinality(attr));
+				for (int code = 0; code < table.cardinality(attr); code++) {
+					writeString(out, table.value(attr, code));
+				}
+			}
+			for (int row = 0; row < table.size(); row++) {
+				writeString(out, table.getId(row));
+				writeString(out, table.getName(row));
+				writeString(out, table.getIpAddress(row));
+				writeString(out, table.getMetaInfo(row));
+				DECISION decision = table.getDecision(row);
+				out.writeByte(decision == null ? NO_DECISION : decision
+						.ordinal());
+			}
+			for (int attr = 0; attr < table.getAttributeCount(); attr++) {
+				int[] column = table.column(attr);
+				for (int row = 0; row < table.size(); row++) {
+					out.writeInt(column[row]);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads the devices through a read-only memory mapping of the file.
+	 *
+	 * @throws IOException
+	 *             if the file is not a complete snapshot
+	 */
+	public static IndexSnapshotFile read(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			if (in.remaining() < 24 || in.getInt() != MAGIC
+					|| in.getInt() != FORMAT) {
+				throw new IOException("Not an index snapshot: " + file);
+			}
+			long version = in.getLong();
+			int rows = in.getInt();
+			int attributes = in.getInt();
+			String[] names = new String[attributes];
+			String[][] values = new String[attributes][];
+			for (int attr = 0; attr < attributes; attr++) {
+				names[attr] = readString(in);
+				values[attr] = new String[in.getInt()];
+				for (int code = 0; code < values[attr].length; code++) {
+					values[attr][code] = readString(in);
+				}
+			}
+			List<DeviceDTO> devices = new ArrayList<>(rows);
+			for (int row = 0; row < rows; row++) {
+				DeviceDTO device = new DeviceDTO(readString(in),
+						readString(in), null);
+				device.setIpAddress(readString(in));
+				device.metaInfo = readString(in);
+				byte decision = in.get();
+				device.setDecision(decision == NO_DECISION ? null
+						: DECISIONS[decision]);
+				devices.add(device);
+			}
+			for (int attr = 0; attr < attributes; attr++) {
+				for (int row = 0; row < rows; row++) {
+					int code = in.getInt();
+					if (code != DeviceTable.NO_VALUE) {
+						devices.get(row).addMeta(names[attr],
+								values[attr][code]);
+					}
+				}
+			}
+			return new IndexSnapshotFile(version, devices);
+		} catch (RuntimeException e) {
+			// buffer underflow or invalid codes of a truncated file
+			throw new IOException("Corrupt index snapshot: " + file, e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,250 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.ac.tuwien.infosys.scope.ScopeQuery.And;
+import at.ac.tuwien.infosys.scope.ScopeQuery.Equals;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+/**
+ * Inverted index from (attribute, value) to a sorted posting list of device
+ * ordinals. A conjunction intersects the posting lists of its conditions,
+ * starting with the smallest one, and a disjunction merges the results of
+ * its conjunctions. The selection thus costs time in the size of the posting
+ * lists involved instead of the number of devices.
+ *
+ * Ordinals of removed devices are reused. The index is not thread safe.
+ *
+ * @author stefan
+ *
+ */
+public class InvertedIndex {
+
+	private static final int[] EMPTY = new int[0];
+
+	// ordinal -> device, null if the ordinal is free
+	private final List<DeviceDTO> devices = new ArrayList<>();
+	private final Map<String, Integer> ordinals = new HashMap<>();
+	private final Deque<Integer> free = new ArrayDeque<>();
+	// attr -> value -> posting list
+	private final Map<String, Map<String, PostingList>> postings = new HashMap<>();
+
+	public InvertedIndex() {
+	}
+
+	/**
+	 * Adds the device. A device with the same id is replaced.
+	 */
+	public void add(DeviceDTO device) {
+		remove(device.getId());
+		Integer ordinal = this.free.poll();
+		if (ordinal == null) {
+			ordinal = this.devices.size();
+			this.devices.add(device);
+		} else {
+			this.devices.set(ordinal, device);
+		}
+		this.ordinals.put(device.getId(), ordinal);
+		for (Map.Entry<String, String> e : device.getMeta().entrySet()) {
+			if (e.getValue() == null) {
+				continue;
+			}
+			Map<String, PostingList> values = this.postings.get(e.getKey());
+			if (values == null) {
+				values = new HashMap<>();
+				this.postings.put(e.getKey(), values);
+			}
+			PostingList list = values.get(e.getValue());
+			if (list == null) {
+				list = new PostingList();
+				values.put(e.getValue(), list);
+			}
+			list.add(ordinal);
+		}
+	}
+
+	public void remove(String deviceId) {
+		Integer ordinal = this.ordinals.remove(deviceId);
+		if (ordinal == null) {
+			return;
+		}
+		DeviceDTO device = this.devices.set(ordinal, null);
+		for (Map.Entry<String, String> e : device.getMeta().entrySet()) {
+			if (e.getValue() == null) {
+				continue;
+			}
+			Map<String, PostingList> values = this.postings.get(e.getKey());
+			PostingList list = values.get(e.getValue());
+			list.remove(ordinal);
+			if (list.size == 0) {
+				values.remove(e.getValue());
+			}
+		}
+		this.free.push(ordinal);
+	}
+
+	public int size() {
+		return this.ordinals.size();
+	}
+
+	/**
+	 * Sorted ordinals of the devices with the value for the attribute.
+	 */
+	public int[] postings(String attr, String value) {
+		Map<String, PostingList> values = this.postings.get(attr);
+		if (values == null || !values.containsKey(value)) {
+			return EMPTY;
+		}
+		PostingList list = values.get(value);
+		return Arrays.copyOf(list.ordinals, list.size);
+	}
+
+	/**
+	 * Devices that match the query, ordered by ordinal.
+	 */
+	public List<DeviceDTO> select(ScopeQuery query) {
+		int[] result = EMPTY;
+		for (And and : query.getRoot().getDisjuncts()) {
+			result = union(result, select(and));
+		}
+		List<DeviceDTO> selected = new ArrayList<>(result.length);
+		for (int ordinal : result) {
+			selected.add(this.devices.get(ordinal));
+		}
+		return selected;
+	}
+
+	private int[] select(And and) {
+		List<Equals> conditions = and.getConditions();
+		List<PostingList> lists = new ArrayList<>(conditions.size());
+		for (Equals condition : conditions) {
+			Map<String, PostingList> values = this.postings.get(condition
+					.getKey());
+			PostingList list = values == null ? null : values.get(condition
+					.getValue());
+			if (list == null) {
+				return EMPTY;
+			}
+			lists.add(list);
+		}
+		// smallest first, the intermediate result can only shrink
+		lists.sort(Comparator.comparingInt(l -> l.size));
+		int[] result = Arrays.copyOf(lists.get(0).ordinals, lists.get(0).size);
+		for (int i = 1; i < lists.size() && result.length > 0; i++) {
+			result = intersect(result, lists.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Intersection of a small sorted array with a posting list. Uses
+	 * exponential search in the posting list if it is much larger.
+	 */
+	static int[] intersect(int[] small, PostingList large) {
+		int[] result = new int[small.length];
+		int n = 0;
+		if (small.length * 8 < large.size) {
+			int low = 0;
+			for (int value : small) {
+				int bound = 1;
+				while (low + bound < large.size
+						&& large.ordinals[low + bound] < value) {
+					bound <<= 1;
+				}
+				int index = Arrays.binarySearch(large.ordinals, low,
+						Math.min(low + bound + 1, large.size), value);
+				if (index >= 0) {
+					result[n++] = value;
+					low = index + 1;
+				} else {
+					low = -index - 1;
+				}
+				if (low >= large.size) {
+					break;
+				}
+			}
+		} else {
+			int j = 0;
+			for (int i = 0; i < small.length && j < large.size;) {
+				if (small[i] < large.ordinals[j]) {
+					i++;
+				} else if (small[i] > large.ordinals[j]) {
+					j++;
+				} else {
+					result[n++] = small[i];
+					i++;
+					j++;
+				}
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	static int[] union(int[] a, int[] b) {
+		if (a.length == 0) {
+			return b;
+		}
+		if (b.length == 0) {
+			return a;
+		}
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				result[n++] = a[i++];
+			} else if (a[i] > b[j]) {
+				result[n++] = b[j++];
+			} else {
+				result[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			result[n++] = a[i++];
+		}
+		while (j < b.length) {
+			result[n++] = b[j++];
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Sorted array of ordinals.
+	 */
+	static class PostingList {
+		int[] ordinals = new int[4];
+		int size = 0;
+
+		void add(int ordinal) {
+			int index = Arrays.binarySearch(this.ordinals, 0, this.size, ordinal);
+			if (index >= 0) {
+				return;
+			}
+			index = -index - 1;
+			if (this.size == this.ordinals.length) {
+				this.ordinals = Arrays.copyOf(this.ordinals, this.size * 2);
+			}
+			System.arraycopy(this.ordinals, index, this.ordinals, index + 1,
+					this.size - index);
+			this.ordinals[index] = ordinal;
+			this.size++;
+		}
+
+		void remove(int ordinal) {
+			int index = Arrays.binarySearch(this.ordinals, 0, this.size, ordinal);
+			if (index < 0) {
+				return;
+			}
+			System.arraycopy(this.ordinals, index + 1, this.ordinals, index,
+					this.size - index - 1);
+			this.size--;
+		}
+	}
+}
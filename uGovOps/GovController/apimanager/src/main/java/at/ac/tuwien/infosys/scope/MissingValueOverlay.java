@@ -0,0 +1,204 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+/**
+ * Replacement policy for missing data, e.g.,
+ *
+ * <pre>
+ * location=?&type=+&quality=-
+ * </pre>
+ *
+ * applied as a read-only overlay: a view of a device returns the replacement
+ * of an attribute whenever the device has no value ("") for it. Neither the
+ * devices nor their meta info are copied or modified, so many requests with
+ * different replacements can share one snapshot of the devices.
+ *
+ * @author stefan
+ *
+ */
+public class MissingValueOverlay {
+
+	private static final MissingValueOverlay NONE = new MissingValueOverlay(
+			Collections.<String, String> emptyMap());
+
+	private final Map<String, String> replacements;
+
+	public MissingValueOverlay(Map<String, String> replacements) {
+		this.replacements = Collections
+				.unmodifiableMap(new HashMap<>(replacements));
+	}
+
+	/**
+	 * Parses a replacement like location=?&type=+, an empty or null
+	 * replacement replaces nothing.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the replacement is malformed
+	 */
+	public static MissingValueOverlay parse(String replacement) {
+		if (replacement == null || replacement.isEmpty()) {
+			return NONE;
+		}
+		Map<String, String> replacements = new HashMap<String, String>();
+		for (String datum : replacement.split("&")) {
+			String[] split = datum.split("=");
+			if (split.length != 2 || split[0].isEmpty()) {
+				throw new IllegalArgumentException("Malformed replacement \""
+						+ datum + "\" in missing data " + replacement);
+			}
+			replacements.put(split[0], split[1]);
+		}
+		return new MissingValueOverlay(replacements);
+	}
+
+	public Map<String, String> getReplacements() {
+		return replacements;
+	}
+
+	/**
+	 * Read-only view of the device with the missing data replaced.
+	 */
+	public DeviceDTO view(DeviceDTO device) {
+		return new DeviceView(device, this.replacements);
+	}
+
+	/**
+	 * Read-only views of the devices. Views are created on first access and
+	 * the same view is returned for a device afterwards, also for concurrent
+	 * readers, since the rough-set engines identify devices by reference.
+	 */
+	public List<DeviceDTO> view(final List<DeviceDTO> devices) {
+		final AtomicReferenceArray<DeviceDTO> views = new AtomicReferenceArray<>(
+				devices.size());
+		return new AbstractList<DeviceDTO>() {
+			@Override
+			public DeviceDTO get(int index) {
+				DeviceDTO view = views.get(index);
+				if (view == null) {
+					views.compareAndSet(index, null, view(devices.get(index)));
+					view = views.get(index);
+				}
+				return view;
+			}
+
+			@Override
+			public int size() {
+				return views.length();
+			}
+		};
+	}
+
+	/**
+	 * Device whose meta info is read through the overlay.
+	 */
+	private static class DeviceView extends DeviceDTO {
+
+		private final DeviceDTO device;
+		private final Map<String, String> meta;
+
+		DeviceView(DeviceDTO device, Map<String, String> replacements) {
+			super(device.getId(), device.getName(), device.metaInfo);
+			this.ipAddress = device.getIpAddress();
+			this.device = device;
+			this.meta = new OverlayMap(device.getMeta(), replacements);
+		}
+
+		@Override
+		public Map<String, String> getMeta() {
+			return this.meta;
+		}
+
+		@Override
+		public DECISION getDecision() {
+			return this.device.getDecision();
+		}
+
+		@Override
+		public void addMeta(String key, String value) {
+			throw new UnsupportedOperationException("Read-only device view");
+		}
+
+		@Override
+		public void addMetaData(String key, String value) {
+			throw new UnsupportedOperationException("Read-only device view");
+		}
+
+		@Override
+		public void setDecision(DECISION decision) {
+			throw new UnsupportedOperationException("Read-only device view");
+		}
+	}
+
+	/**
+	 * Meta info with "" replaced on read.
+	 */
+	private static class OverlayMap extends AbstractMap<String, String> {
+
+		private final Map<String, String> meta;
+		private final Map<String, String> replacements;
+
+		OverlayMap(Map<String, String> meta, Map<String, String> replacements) {
+			this.meta = meta;
+			this.replacements = replacements;
+		}
+
+		@Override
+		public String get(Object key) {
+			String value = this.meta.get(key);
+			return "".equals(value) ? this.replacements.get(key) : value;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return this.meta.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return this.meta.size();
+		}
+
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return new AbstractSet<Map.Entry<String, String>>() {
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					final Iterator<Map.Entry<String, String>> entries = meta
+							.entrySet().iterator();
+					return new Iterator<Map.Entry<String, String>>() {
+						@Override
+						public boolean hasNext() {
+							return entries.hasNext();
+						}
+
+						@Override
+						public Map.Entry<String, String> next() {
+							Map.Entry<String, String> e = entries.next();
+							return new SimpleImmutableEntry<>(e.getKey(),
+									"".equals(e.getValue()) ? replacements
+											.get(e.getKey()) : e.getValue());
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return meta.size();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+/**
+ * Bounded LRU cache of resolved governance scopes. An entry is only valid
+ * for the device registry version it was resolved with, all entries are
+ * dropped as soon as a newer version is seen.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class ScopeCache {
+
+	@Value("${scope.cache.size:256}")
+	private int maxEntries = 256;
+
+	private long version = -1;
+	private long hits = 0;
+	private long misses = 0;
+
+	private final Map<String, Set<DeviceDTO>> entries = new LinkedHashMap<String, Set<DeviceDTO>>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, Set<DeviceDTO>> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	public ScopeCache() {
+	}
+
+	public ScopeCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Cache key of a resolved scope.
+	 *
+	 * @param query
+	 * @param uncertaintyProps
+	 *            the uncertainty properties that affect the resolved scope
+	 * @return
+	 */
+	public static String key(ScopeQuery query, String... uncertaintyProps) {
+		StringBuilder sb = new StringBuilder(query.getNormalizedText());
+		for (String prop : uncertaintyProps) {
+			sb.append('|').append(prop);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the scope resolved with the given registry version or null.
+	 */
+	public synchronized Set<DeviceDTO> get(String key, long version) {
+		invalidateOlderThan(version);
+		Set<DeviceDTO> scope = this.version == version ? this.entries.get(key)
+				: null;
+		if (scope == null) {
+			this.misses++;
+		} else {
+			this.hits++;
+		}
+		return scope;
+	}
+
+	/**
+	 * Stores a scope resolved with the given registry version. Scopes of
+	 * outdated versions are ignored.
+	 */
+	public synchronized void put(String key, long version, Set<DeviceDTO> scope) {
+		invalidateOlderThan(version);
+		if (this.version == version) {
+			this.entries.put(key, Collections.unmodifiableSet(scope));
+		}
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private void invalidateOlderThan(long version) {
+		if (version > this.version) {
+			this.entries.clear();
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.Collections;
+import java.util.Set;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+/**
+ * Difference between the scope of an invocation and the scope of the previous
+ * invocation with the same process, query, capability, method and arguments.
+ *
+ * @author stefan
+ *
+ */
+public class ScopeDelta {
+
+	private final Set<DeviceDTO> added;
+	private final Set<String> removed;
+	private final int unchanged;
+	private final boolean first;
+
+	public ScopeDelta(Set<DeviceDTO> added, Set<String> removed,
+			int unchanged, boolean first) {
+		this.added = Collections.unmodifiableSet(added);
+		this.removed = Collections.unmodifiableSet(removed);
+		this.unchanged = unchanged;
+		this.first = first;
+	}
+
+	/**
+	 * Devices that were not in the previous scope.
+	 */
+	public Set<DeviceDTO> getAdded() {
+		return added;
+	}
+
+	/**
+	 * Ids of the devices that left the scope.
+	 */
+	public Set<String> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Number of devices that are in both scopes.
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * True if there was no previous scope, i.e., all devices are added.
+	 */
+	public boolean isFirst() {
+		return first;
+	}
+
+	@Override
+	public String toString() {
+		return "ScopeDelta[added=" + this.added.size() + ", removed="
+				+ this.removed.size() + ", unchanged=" + this.unchanged + "]";
+	}
+}
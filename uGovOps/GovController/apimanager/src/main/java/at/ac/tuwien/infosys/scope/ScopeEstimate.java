@@ -0,0 +1,82 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.List;
+
+/**
+ * Estimated size of a governance scope.
+ *
+ * @author stefan
+ *
+ */
+public class ScopeEstimate {
+
+	private final String query;
+	private final long devices;
+	private final long lower;
+	private final long upper;
+	private final double standardError;
+	private final long version;
+	private final List<String> unsketched;
+
+	public ScopeEstimate(String query, long devices, long lower, long upper,
+			double standardError, long version, List<String> unsketched) {
+		this.query = query;
+		this.devices = devices;
+		this.lower = lower;
+		this.upper = upper;
+		this.standardError = standardError;
+		this.version = version;
+		this.unsketched = unsketched;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * Number of devices in the global scope.
+	 */
+	public long getDevices() {
+		return devices;
+	}
+
+	/**
+	 * Estimated number of devices that certainly match the query.
+	 */
+	public long getLower() {
+		return lower;
+	}
+
+	/**
+	 * Estimated number of devices that possibly match the query.
+	 */
+	public long getUpper() {
+		return upper;
+	}
+
+	/**
+	 * Relative standard error of a single sketch, intersections of
+	 * conditions are less accurate.
+	 */
+	public double getStandardError() {
+		return standardError;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Attributes of the query that have too many values to be sketched. Their
+	 * conditions are estimated by no device (lower) and all devices (upper).
+	 */
+	public List<String> getUnsketched() {
+		return unsketched;
+	}
+
+	@Override
+	public String toString() {
+		return "ScopeEstimate[query=" + query + ", devices=" + devices
+				+ ", lower=" + lower + ", upper=" + upper + "]";
+	}
+}
@@ -0,0 +1,106 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+/**
+ * Last invoked scope per (process, query, capability, method, arguments).
+ * Scopes are remembered by device id, since resolved devices are different
+ * objects in every registry version. Bounded LRU like the {@link ScopeCache},
+ * but entries survive device changes: the delta to the previous cycle is
+ * what periodic strategies are interested in.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class ScopeHistory {
+
+	@Value("${scope.history.size:1024}")
+	private int maxEntries = 1024;
+
+	private final Map<String, Set<String>> entries = new LinkedHashMap<String, Set<String>>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	public ScopeHistory() {
+	}
+
+	public ScopeHistory(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Key of an invocation, the query is normalized so that the order of the
+	 * conditions does not matter.
+	 */
+	public static String key(String procId, ScopeQuery query, String capaId,
+			String method, String args) {
+		return procId + '|' + query.getNormalizedText() + '|' + capaId + '|'
+				+ method + '|' + (args == null ? "" : args);
+	}
+
+	/**
+	 * Remembers the scope as the last scope of the key and returns the delta
+	 * to the scope remembered before.
+	 */
+	public synchronized ScopeDelta update(String key, Set<DeviceDTO> scope) {
+		Set<String> previous = this.entries.get(key);
+		Set<String> current = new HashSet<>(scope.size() * 2);
+		Set<DeviceDTO> added = new HashSet<>();
+		for (DeviceDTO device : scope) {
+			current.add(device.getId());
+			if (previous == null || !previous.contains(device.getId())) {
+				added.add(device);
+			}
+		}
+		Set<String> removed = new HashSet<>();
+		if (previous != null) {
+			for (String id : previous) {
+				if (!current.contains(id)) {
+					removed.add(id);
+				}
+			}
+		}
+		this.entries.put(key, current);
+		return new ScopeDelta(added, removed, scope.size() - added.size(),
+				previous == null);
+	}
+
+	/**
+	 * Forgets a device of the last scope of the key, e.g., because invoking
+	 * it failed, so that it is added again in the next cycle.
+	 */
+	public synchronized void forget(String key, String deviceId) {
+		Set<String> scope = this.entries.get(key);
+		if (scope != null) {
+			scope.remove(deviceId);
+		}
+	}
+
+	/**
+	 * Forgets the last scope of the key, the next cycle adds all devices.
+	 */
+	public synchronized void reset(String key) {
+		this.entries.remove(key);
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+}
@@ -0,0 +1,267 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceTable;
+
+/**
+ * Compiled governance scope query, e.g.,
+ *
+ * <pre>
+ * location=home&owner=stefanORlocation=x
+ * </pre>
+ *
+ * A query is a disjunction (OR) of conjunctions (&) of conditions (key=value).
+ * Queries are parsed once into an AST and the compiled plans are cached by the
+ * query text, since the same query is evaluated every enforcement cycle.
+ *
+ * A condition does not match a device that has no value for the key.
+ *
+ * @author stefan
+ *
+ */
+public class ScopeQuery {
+
+	private static final int MAX_CACHED_PLANS = 1024;
+	private static final Map<String, ScopeQuery> PLANS = new ConcurrentHashMap<>();
+
+	private final String text;
+	private final String normalizedText;
+	private final Or root;
+
+	private ScopeQuery(String text, Or root) {
+		this.text = text;
+		this.root = root;
+		this.normalizedText = normalize(root);
+	}
+
+	/**
+	 * Returns the cached plan for the query or compiles it.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the query is malformed
+	 */
+	public static ScopeQuery compile(String query) {
+		ScopeQuery plan = PLANS.get(query);
+		if (plan == null) {
+			plan = parse(query);
+			if (PLANS.size() >= MAX_CACHED_PLANS) {
+				PLANS.clear();
+			}
+			PLANS.put(query, plan);
+		}
+		return plan;
+	}
+
+	static ScopeQuery parse(String query) {
+		if (query == null || query.isEmpty()) {
+			throw new IllegalArgumentException("Empty scope query");
+		}
+		List<And> disjuncts = new ArrayList<>();
+		for (String andConditions : query.split("OR")) {
+			List<Equals> conditions = new ArrayList<>();
+			for (String singleCondition : andConditions.split("&")) {
+				String[] tmp = singleCondition.split("=");
+				if (tmp.length != 2 || tmp[0].isEmpty()) {
+					throw new IllegalArgumentException("Malformed condition \""
+							+ singleCondition + "\" in scope query " + query);
+				}
+				conditions.add(new Equals(tmp[0], tmp[1]));
+			}
+			disjuncts.add(new And(conditions));
+		}
+		return new ScopeQuery(query, new Or(disjuncts));
+	}
+
+	public boolean matches(DeviceDTO device) {
+		return this.root.matches(device);
+	}
+
+	/**
+	 * Devices that match the query, in the order of the given devices. Each
+	 * device is returned once, even if it matches several disjuncts.
+	 */
+	public List<DeviceDTO> select(List<DeviceDTO> devices) {
+		List<DeviceDTO> result = new ArrayList<>();
+		for (DeviceDTO device : devices) {
+			if (this.root.matches(device)) {
+				result.add(device);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Rows of the table that match the query. Conditions are resolved to
+	 * attribute ids and value codes once, the rows are then matched on the
+	 * int columns.
+	 */
+	public BitSet select(DeviceTable table) {
+		BitSet result = new BitSet(table.size());
+		for (And and : this.root.disjuncts) {
+			int[] attrs = new int[and.conditions.length];
+			int[] codes = new int[and.conditions.length];
+			boolean satisfiable = true;
+			for (int i = 0; i < attrs.length && satisfiable; i++) {
+				attrs[i] = table.attributeId(and.conditions[i].key);
+				codes[i] = attrs[i] == DeviceTable.NO_VALUE ? DeviceTable.NO_VALUE
+						: table.valueCode(attrs[i], and.conditions[i].value);
+				satisfiable = codes[i] != DeviceTable.NO_VALUE;
+			}
+			if (!satisfiable) {
+				continue;
+			}
+			for (int row = 0; row < table.size(); row++) {
+				boolean matches = true;
+				for (int i = 0; i < attrs.length && matches; i++) {
+					matches = table.column(attrs[i])[row] == codes[i];
+				}
+				if (matches) {
+					result.set(row);
+				}
+			}
+		}
+		return result;
+	}
+
+	public Or getRoot() {
+		return root;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Query text with sorted conditions and disjuncts, equal for queries
+	 * that only differ in the order of their conditions.
+	 */
+	public String getNormalizedText() {
+		return normalizedText;
+	}
+
+	private static String normalize(Or root) {
+		TreeSet<String> disjuncts = new TreeSet<>();
+		for (And and : root.disjuncts) {
+			TreeSet<String> conditions = new TreeSet<>();
+			for (Equals condition : and.conditions) {
+				conditions.add(condition.toString());
+			}
+			disjuncts.add(String.join("&", conditions));
+		}
+		return String.join("OR", disjuncts);
+	}
+
+	@Override
+	public String toString() {
+		return this.root.toString();
+	}
+
+	/**
+	 * Disjunction of conjunctions.
+	 */
+	public static class Or {
+		private final And[] disjuncts;
+
+		Or(List<And> disjuncts) {
+			this.disjuncts = disjuncts.toArray(new And[disjuncts.size()]);
+		}
+
+		public boolean matches(DeviceDTO device) {
+			for (And and : this.disjuncts) {
+				if (and.matches(device)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public List<And> getDisjuncts() {
+			List<And> list = new ArrayList<>();
+			Collections.addAll(list, this.disjuncts);
+			return list;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < this.disjuncts.length; i++) {
+				sb.append(i == 0 ? "" : " OR ").append(this.disjuncts[i]);
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Conjunction of conditions.
+	 */
+	public static class And {
+		private final Equals[] conditions;
+
+		And(List<Equals> conditions) {
+			this.conditions = conditions
+					.toArray(new Equals[conditions.size()]);
+		}
+
+		public boolean matches(DeviceDTO device) {
+			for (Equals condition : this.conditions) {
+				if (!condition.matches(device)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public List<Equals> getConditions() {
+			List<Equals> list = new ArrayList<>();
+			Collections.addAll(list, this.conditions);
+			return list;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("(");
+			for (int i = 0; i < this.conditions.length; i++) {
+				sb.append(i == 0 ? "" : " & ").append(this.conditions[i]);
+			}
+			return sb.append(")").toString();
+		}
+	}
+
+	/**
+	 * Condition key=value.
+	 */
+	public static class Equals {
+		private final String key;
+		private final String value;
+
+		Equals(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public boolean matches(DeviceDTO device) {
+			return this.value.equals(device.getMeta().get(this.key));
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		@Override
+		public String toString() {
+			return this.key + "=" + this.value;
+		}
+	}
+}
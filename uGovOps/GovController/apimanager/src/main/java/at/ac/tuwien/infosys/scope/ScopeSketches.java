@@ -0,0 +1,306 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.scope.BlockIndex.Changes;
+import at.ac.tuwien.infosys.scope.ScopeQuery.And;
+import at.ac.tuwien.infosys.scope.ScopeQuery.Equals;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+/**
+ * {@link HyperLogLog} sketches of the device ids per attribute value, used to
+ * preview the size of a governance scope without selecting it. For every
+ * value there is a sketch of the devices with exactly this value, and per
+ * attribute sketches of the devices with "?", with "+" or "*" and with "-"
+ * per decision. The devices that possibly have a value are the same as in
+ * the processed block of the value: the devices with the value, "+", "*" or
+ * "-" and the decision of a device with the value, plus the devices with "?".
+ *
+ * The lower estimate combines the exact sketches of a query, the upper
+ * estimate the possible ones. A conjunction is estimated by inclusion-
+ * exclusion over its three most selective conditions, a disjunction by the
+ * sum of its conjunctions, bounded by the union of their most selective
+ * conditions.
+ *
+ * The sketches have scope.sketch.precision bits and are sparse while they
+ * are small, so the sketch of a rare value takes a few bytes. An attribute
+ * with more than scope.sketch.values values (e.g., serial numbers) is not
+ * sketched at all.
+ *
+ * The sketches are kept per replacement of missing data and advanced with the
+ * devices that changed in the index since the last estimate. Since a device
+ * cannot be removed from a sketch, the sketches are rebuilt once more than 5%
+ * of the devices were changed or removed.
+ *
+ * @author stefan
+ *
+ */
+@Component
+@Scope(value = "singleton")
+public class ScopeSketches {
+
+	// share of the devices that may be outdated in the sketches
+	private static final double MAX_OUTDATED = 0.05;
+
+	@Value("${scope.sketch.precision:14}")
+	private int precision = HyperLogLog.DEFAULT_PRECISION;
+	@Value("${scope.sketch.values:1024}")
+	private int maxValues = 1024;
+
+	private final Map<String, Sketches> sketches = new HashMap<>();
+
+	public ScopeSketches() {
+	}
+
+	public ScopeSketches(int precision, int maxValues) {
+		this.precision = precision;
+		this.maxValues = maxValues;
+	}
+
+	/**
+	 * Estimates the scope sizes of the query on the current devices of the
+	 * index. Only the devices that changed since the last estimate with the
+	 * replacement are added to the sketches.
+	 *
+	 * @param replacement
+	 *            replacement of missing data
+	 * @param query
+	 * @param index
+	 * @return
+	 */
+	public synchronized ScopeEstimate estimate(String replacement,
+			ScopeQuery query, BlockIndex index) {
+		Sketches s = sketches(replacement, index);
+		List<String> unsketched = new ArrayList<>();
+		for (And and : query.getRoot().getDisjuncts()) {
+			for (Equals condition : and.getConditions()) {
+				if (s.skipped.contains(condition.getKey())
+						&& !unsketched.contains(condition.getKey())) {
+					unsketched.add(condition.getKey());
+				}
+			}
+		}
+		long lower = Math.min(s.devices, estimate(query, s, false));
+		long upper = Math.min(s.devices,
+				Math.max(lower, estimate(query, s, true)));
+		return new ScopeEstimate(query.getText(), s.devices, lower, upper,
+				HyperLogLog.standardError(this.precision), s.version,
+				unsketched);
+	}
+
+	private Sketches sketches(String replacement, BlockIndex index) {
+		Sketches s = this.sketches.get(replacement);
+		if (s != null && s.version == index.getVersion()) {
+			return s;
+		}
+		Changes changes = index.getChanges(s == null ? -1 : s.version);
+		if (s == null || changes.isFull()
+				|| s.outdated + changes.getReplaced() > MAX_OUTDATED
+						* changes.getSize()) {
+			if (!changes.isFull()) {
+				changes = index.getChanges(-1);
+			}
+			s = new Sketches(replacement, this.precision, this.maxValues);
+			this.sketches.put(replacement, s);
+		}
+		s.apply(changes);
+		return s;
+	}
+
+	private long estimate(ScopeQuery query, Sketches s, boolean possible) {
+		long sum = 0;
+		List<HyperLogLog> mostSelective = new ArrayList<>();
+		for (And and : query.getRoot().getDisjuncts()) {
+			List<HyperLogLog> conditions = new ArrayList<>();
+			for (Equals condition : and.getConditions()) {
+				HyperLogLog set;
+				if (s.skipped.contains(condition.getKey())) {
+					// any device may or may not match
+					set = possible ? s.all : null;
+				} else if (possible) {
+					set = s.possible(condition.getKey(), condition.getValue());
+					HyperLogLog unknownSet = s.unknown.get(condition.getKey());
+					if (set == null) {
+						set = unknownSet;
+					} else if (unknownSet != null) {
+						set.merge(unknownSet);
+					}
+				} else {
+					set = s.exact.get(new Block(condition.getKey(), condition
+							.getValue()));
+				}
+				if (set == null) {
+					conditions = null;
+					break;
+				}
+				conditions.add(set);
+			}
+			if (conditions == null) {
+				// a condition no device can satisfy
+				continue;
+			}
+			sum += HyperLogLog.estimateIntersection(conditions
+					.toArray(new HyperLogLog[conditions.size()]));
+			HyperLogLog smallest = conditions.get(0);
+			for (HyperLogLog set : conditions) {
+				if (set.estimate() < smallest.estimate()) {
+					smallest = set;
+				}
+			}
+			mostSelective.add(smallest);
+		}
+		if (mostSelective.size() <= 1) {
+			return sum;
+		}
+		return Math.min(sum, HyperLogLog.estimateUnion(mostSelective
+				.toArray(new HyperLogLog[mostSelective.size()])));
+	}
+
+	/**
+	 * Sketches of the devices of one replacement.
+	 */
+	private static class Sketches {
+		private final MissingValueOverlay overlay;
+		private final int precision;
+		private final int maxValues;
+		private long version = -1;
+		private long devices = 0;
+		// devices changed or removed since the sketches were built
+		private long outdated = 0;
+		private final HyperLogLog all;
+		// (attr, value) -> devices with the value
+		private final Map<Block, HyperLogLog> exact = new HashMap<>();
+		// (attr, value) -> decisions of the devices with the value
+		private final Map<Block, Set<DECISION>> decisions = new HashMap<>();
+		// attr -> number of values
+		private final Map<String, Integer> values = new HashMap<>();
+		// attr -> devices with "?"
+		private final Map<String, HyperLogLog> unknown = new HashMap<>();
+		// attr -> devices with "+" or "*"
+		private final Map<String, HyperLogLog> positive = new HashMap<>();
+		// attr -> decision -> devices with "-"
+		private final Map<String, Map<DECISION, HyperLogLog>> negative = new HashMap<>();
+		// attributes with more than maxValues values
+		private final Set<String> skipped = new HashSet<>();
+
+		Sketches(String replacement, int precision, int maxValues) {
+			this.overlay = MissingValueOverlay.parse(replacement);
+			this.precision = precision;
+			this.maxValues = maxValues;
+			this.all = new HyperLogLog(precision);
+		}
+
+		void apply(Changes changes) {
+			for (DeviceDTO device : changes.getDevices()) {
+				add(this.overlay.view(device));
+			}
+			this.outdated += changes.getReplaced();
+			this.version = changes.getVersion();
+			this.devices = changes.getSize();
+		}
+
+		private void add(DeviceDTO d) {
+			long hash = HyperLogLog.hash(d.getId());
+			this.all.addHash(hash);
+			for (Map.Entry<String, String> e : d.getMeta().entrySet()) {
+				String attr = e.getKey();
+				String value = e.getValue();
+				if (value == null || this.skipped.contains(attr)) {
+					continue;
+				} else if ("?".equals(value)) {
+					sketch(this.unknown, attr).addHash(hash);
+				} else if ("+".equals(value) || "*".equals(value)) {
+					sketch(this.positive, attr).addHash(hash);
+				} else if ("-".equals(value)) {
+					Map<DECISION, HyperLogLog> byDecision = this.negative
+							.get(attr);
+					if (byDecision == null) {
+						byDecision = new HashMap<>();
+						this.negative.put(attr, byDecision);
+					}
+					sketch(byDecision, d.getDecision()).addHash(hash);
+				} else {
+					Block block = new Block(attr, value);
+					HyperLogLog sketch = this.exact.get(block);
+					if (sketch == null) {
+						int count = this.values.getOrDefault(attr, 0);
+						if (count >= this.maxValues) {
+							skip(attr);
+							continue;
+						}
+						this.values.put(attr, count + 1);
+						sketch = new HyperLogLog(this.precision);
+						this.exact.put(block, sketch);
+						this.decisions.put(block, new HashSet<DECISION>());
+					}
+					sketch.addHash(hash);
+					this.decisions.get(block).add(d.getDecision());
+				}
+			}
+		}
+
+		/**
+		 * Devices of the processed block of the value, null if no device has
+		 * the value. The sketch is a copy.
+		 */
+		HyperLogLog possible(String attr, String value) {
+			Block block = new Block(attr, value);
+			HyperLogLog exactSet = this.exact.get(block);
+			if (exactSet == null) {
+				return null;
+			}
+			HyperLogLog possible = exactSet.copy();
+			HyperLogLog positiveSet = this.positive.get(attr);
+			if (positiveSet != null) {
+				possible.merge(positiveSet);
+			}
+			Map<DECISION, HyperLogLog> byDecision = this.negative.get(attr);
+			if (byDecision != null) {
+				for (DECISION decision : this.decisions.get(block)) {
+					HyperLogLog negativeSet = byDecision.get(decision);
+					if (negativeSet != null) {
+						possible.merge(negativeSet);
+					}
+				}
+			}
+			return possible;
+		}
+
+		private void skip(String attr) {
+			this.skipped.add(attr);
+			this.values.remove(attr);
+			this.unknown.remove(attr);
+			this.positive.remove(attr);
+			this.negative.remove(attr);
+			for (Iterator<Block> it = this.exact.keySet().iterator(); it
+					.hasNext();) {
+				Block block = it.next();
+				if (block.getKey().equals(attr)) {
+					it.remove();
+					this.decisions.remove(block);
+				}
+			}
+		}
+
+		private <K> HyperLogLog sketch(Map<K, HyperLogLog> sketches, K key) {
+			HyperLogLog sketch = sketches.get(key);
+			if (sketch == null) {
+				sketch = new HyperLogLog(this.precision);
+				sketches.put(key, sketch);
+			}
+			return sketch;
+		}
+	}
+}
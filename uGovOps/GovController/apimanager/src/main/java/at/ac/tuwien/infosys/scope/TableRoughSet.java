@@ -0,0 +1,282 @@
+package at.ac.tuwien.infosys.scope;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+import at.ac.tuwien.infosys.store.model.DeviceTable;
+
+/**
+ * Rough-set approximations that read a {@link DeviceTable} directly. The
+ * processed blocks of an attribute (with "?", "+", "-" and "*" handled like
+ * in {@link at.ac.tuwien.infosys.RoughScopeManager#handleSpecialValues}) are
+ * built with one scan over its int column and kept as bitsets over the rows,
+ * indexed by value code. Devices are rows, no {@link
+ * at.ac.tuwien.infosys.store.model.DeviceDTO} is materialized.
+ *
+ * The results are the same as the ones of the {@link BitsetRoughSet}, except
+ * for devices without a value for an attribute: they are in no block of the
+ * attribute and their characteristic set is empty.
+ *
+ * @author stefan
+ *
+ */
+public class TableRoughSet {
+
+	private static final int DECISIONS = DECISION.values().length + 1;
+
+	private final DeviceTable table;
+	// attribute id -> processed blocks
+	private final Map<Integer, AttributeBlocks> blocks = new HashMap<>();
+
+	public TableRoughSet(DeviceTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Rows whose characteristic set intersects the subset, i.e., the union
+	 * of these characteristic sets.
+	 */
+	public BitSet buildUpperApproximation(BitSet subset, List<String> attrList) {
+		BitSet all = new BitSet(this.table.size());
+		all.set(0, this.table.size());
+		return union(all, subset, attrList);
+	}
+
+	public BitSet buildLowerApproximationOptimized(BitSet subset,
+			List<String> attrList) {
+		return union(subset, subset, attrList);
+	}
+
+	/**
+	 * Characteristic set K_B(x) of a row. The returned bitset is owned by
+	 * the caller.
+	 */
+	public BitSet buildCaracteristicSet(int row, List<String> attrList) {
+		return buildCaracteristicSet(row, attributeIds(attrList));
+	}
+
+	/**
+	 * Processed block of a value, null if no device has the value.
+	 */
+	public BitSet getBlock(String attribute, String value) {
+		int attr = this.table.attributeId(attribute);
+		if (attr == DeviceTable.NO_VALUE) {
+			return null;
+		}
+		int code = this.table.valueCode(attr, value);
+		return code == DeviceTable.NO_VALUE ? null : blocks(attr).blocks[code];
+	}
+
+	/**
+	 * Union of the characteristic sets of the rows that intersect the
+	 * subset. The characteristic set is computed once per equivalence class
+	 * of rows.
+	 */
+	private BitSet union(BitSet rows, BitSet subset, List<String> attrList) {
+		int[] attrs = attributeIds(attrList);
+		Map<ClassKey, Integer> classes = new LinkedHashMap<>();
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows
+				.nextSetBit(row + 1)) {
+			int[] codes = new int[attrs.length + 1];
+			for (int i = 0; i < attrs.length; i++) {
+				codes[i] = attrs[i] == DeviceTable.NO_VALUE ? DeviceTable.NO_VALUE
+						: this.table.column(attrs[i])[row];
+			}
+			codes[attrs.length] = decisionIndex(row);
+			ClassKey key = new ClassKey(codes);
+			if (!classes.containsKey(key)) {
+				classes.put(key, row);
+			}
+		}
+		BitSet union = new BitSet(this.table.size());
+		for (int row : classes.values()) {
+			BitSet kbx = buildCaracteristicSet(row, attrs);
+			if (kbx.intersects(subset)) {
+				union.or(kbx);
+			}
+		}
+		return union;
+	}
+
+	private BitSet buildCaracteristicSet(int row, int[] attrs) {
+		BitSet s = null;
+		for (int attr : attrs) {
+			if (attr == DeviceTable.NO_VALUE) {
+				return new BitSet();
+			}
+			AttributeBlocks attrBlocks = blocks(attr);
+			int code = this.table.column(attr)[row];
+			BitSet attrSet = null;
+			if (code == DeviceTable.NO_VALUE) {
+				return new BitSet();
+			} else if (code == attrBlocks.positive) {
+				attrSet = attrBlocks.union();
+			} else if (code == attrBlocks.negative) {
+				BitSet union = attrBlocks.union(decisionIndex(row));
+				if (!union.isEmpty()) {
+					attrSet = union;
+				}
+			} else if (code != attrBlocks.missing && code != attrBlocks.any) {
+				attrSet = attrBlocks.blocks[code];
+				if (attrSet == null) {
+					return new BitSet();
+				}
+			}
+			// "?" and "*" contribute U, which is neutral for the intersection
+
+			if (attrSet != null) {
+				if (s == null) {
+					s = (BitSet) attrSet.clone();
+				} else {
+					s.and(attrSet);
+				}
+			}
+		}
+		return s == null ? new BitSet() : s;
+	}
+
+	private int[] attributeIds(List<String> attrList) {
+		int[] attrs = new int[attrList.size()];
+		for (int i = 0; i < attrs.length; i++) {
+			attrs[i] = this.table.attributeId(attrList.get(i));
+		}
+		return attrs;
+	}
+
+	private int decisionIndex(int row) {
+		DECISION decision = this.table.getDecision(row);
+		return decision == null ? DECISIONS - 1 : decision.ordinal();
+	}
+
+	private AttributeBlocks blocks(int attr) {
+		AttributeBlocks attrBlocks = this.blocks.get(attr);
+		if (attrBlocks == null) {
+			attrBlocks = new AttributeBlocks(attr);
+			this.blocks.put(attr, attrBlocks);
+		}
+		return attrBlocks;
+	}
+
+	/**
+	 * Processed blocks of one attribute.
+	 */
+	private class AttributeBlocks {
+		private final int missing;
+		private final int positive;
+		private final int negative;
+		private final int any;
+		// code -> block, null for special values and unused codes
+		private final BitSet[] blocks;
+		private BitSet union;
+		private final BitSet[] unions = new BitSet[DECISIONS];
+		// code -> decisions of the devices with the value
+		private final boolean[][] decisions;
+
+		AttributeBlocks(int attr) {
+			this.missing = table.valueCode(attr, "?");
+			this.positive = table.valueCode(attr, "+");
+			this.negative = table.valueCode(attr, "-");
+			this.any = table.valueCode(attr, "*");
+			int cardinality = table.cardinality(attr);
+			this.blocks = new BitSet[cardinality];
+			this.decisions = new boolean[cardinality][DECISIONS];
+
+			BitSet positives = new BitSet(table.size());
+			BitSet[] negatives = new BitSet[DECISIONS];
+			int[] column = table.column(attr);
+			for (int row = 0; row < table.size(); row++) {
+				int code = column[row];
+				if (code == DeviceTable.NO_VALUE || code == this.missing) {
+					continue;
+				} else if (code == this.positive || code == this.any) {
+					positives.set(row);
+				} else if (code == this.negative) {
+					int decision = decisionIndex(row);
+					if (negatives[decision] == null) {
+						negatives[decision] = new BitSet(table.size());
+					}
+					negatives[decision].set(row);
+				} else {
+					if (this.blocks[code] == null) {
+						this.blocks[code] = new BitSet(table.size());
+					}
+					this.blocks[code].set(row);
+					this.decisions[code][decisionIndex(row)] = true;
+				}
+			}
+			for (int code = 0; code < cardinality; code++) {
+				if (this.blocks[code] == null) {
+					continue;
+				}
+				this.blocks[code].or(positives);
+				for (int d = 0; d < DECISIONS; d++) {
+					if (this.decisions[code][d] && negatives[d] != null) {
+						this.blocks[code].or(negatives[d]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Union of all blocks.
+		 */
+		BitSet union() {
+			if (this.union == null) {
+				this.union = new BitSet(table.size());
+				for (BitSet block : this.blocks) {
+					if (block != null) {
+						this.union.or(block);
+					}
+				}
+			}
+			return this.union;
+		}
+
+		/**
+		 * Union of the blocks of the values taken by devices with the
+		 * decision.
+		 */
+		BitSet union(int decision) {
+			if (this.unions[decision] == null) {
+				BitSet union = new BitSet(table.size());
+				for (int code = 0; code < this.blocks.length; code++) {
+					if (this.blocks[code] != null
+							&& this.decisions[code][decision]) {
+						union.or(this.blocks[code]);
+					}
+				}
+				this.unions[decision] = union;
+			}
+			return this.unions[decision];
+		}
+	}
+
+	/**
+	 * Codes of the attributes and the decision of an equivalence class.
+	 */
+	private static class ClassKey {
+		private final int[] codes;
+		private final int hash;
+
+		ClassKey(int[] codes) {
+			this.codes = codes;
+			this.hash = Arrays.hashCode(codes);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ClassKey
+					&& Arrays.equals(this.codes, ((ClassKey) obj).codes);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package at.ac.tuwien.infosys;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.RoughScopeManager.Engine;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+public class RoughScopeManagerTest {
+
+	private final List<String> attributes = Arrays.asList("owner",
+			"location", "type");
+	private final String[] specialValues = { "?", "+", "-", "*" };
+
+	private List<DeviceDTO> devices;
+	private Map<Block, List<DeviceDTO>> blocks;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(42);
+		devices = new ArrayList<DeviceDTO>();
+		for (int i = 0; i < 300; i++) {
+			DeviceDTO d = new DeviceDTO("D" + i);
+			for (String attribute : attributes) {
+				if (random.nextInt(5) == 0) {
+					d.addMeta(attribute,
+							specialValues[random.nextInt(specialValues.length)]);
+				} else {
+					d.addMeta(attribute, attribute + random.nextInt(4));
+				}
+			}
+			d.setDecision(random.nextBoolean() ? DECISION.GOOD : DECISION.BAD);
+			devices.add(d);
+		}
+		RoughScopeManager rgsm = new RoughScopeManager();
+		blocks = rgsm.handleSpecialValues(rgsm.makeBlocks(devices), devices);
+	}
+
+	@Test
+	public void test_enginesAgreeOnUpperApproximation() {
+		for (String query : queries()) {
+			List<DeviceDTO> subset = new RoughScopeManager()
+					.getDeviceDTOsForORQuery(devices, query);
+			Set<DeviceDTO> expected = new RoughScopeManager(Engine.SET)
+					.buildUpperApproximation(subset, devices, attributes,
+							blocks);
+			for (Engine engine : new Engine[] { Engine.BITSET, Engine.CLASSES }) {
+				Set<DeviceDTO> actual = new RoughScopeManager(engine)
+						.buildUpperApproximation(subset, devices, attributes,
+								blocks);
+				assertThat(actual, equalTo(expected));
+			}
+		}
+	}
+
+	@Test
+	public void test_enginesAgreeOnLowerApproximation() {
+		for (String query : queries()) {
+			List<DeviceDTO> subset = new RoughScopeManager()
+					.getDeviceDTOsForORQuery(devices, query);
+			Set<DeviceDTO> expected = new RoughScopeManager(Engine.SET)
+					.buildLowerApproximationOptimized(subset, devices,
+							attributes, blocks);
+			for (Engine engine : new Engine[] { Engine.BITSET, Engine.CLASSES }) {
+				Set<DeviceDTO> actual = new RoughScopeManager(engine)
+						.buildLowerApproximationOptimized(subset, devices,
+								attributes, blocks);
+				assertThat(actual, equalTo(expected));
+			}
+		}
+	}
+
+	@Test
+	public void test_parallelAgreesWithSequential() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (String query : queries()) {
+			List<DeviceDTO> subset = new RoughScopeManager()
+					.getDeviceDTOsForORQuery(devices, query);
+			RoughScopeManager sequential = new RoughScopeManager(Engine.BITSET);
+			RoughScopeManager parallel = new RoughScopeManager(Engine.BITSET);
+			parallel.setParallelism(pool, 7);
+			assertThat(parallel.buildUpperApproximation(subset, devices,
+					attributes, blocks), equalTo(sequential
+					.buildUpperApproximation(subset, devices, attributes,
+							blocks)));
+			assertThat(parallel.buildLowerApproximationOptimized(subset,
+					devices, attributes, blocks), equalTo(sequential
+					.buildLowerApproximationOptimized(subset, devices,
+							attributes, blocks)));
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void test_enginesAgreeOnVariablePrecisionApproximations() {
+		for (String query : queries()) {
+			List<DeviceDTO> subset = new RoughScopeManager()
+					.getDeviceDTOsForORQuery(devices, query);
+			for (double beta : new double[] { 0.6, 0.8, 1.0 }) {
+				RoughScopeManager set = new RoughScopeManager(Engine.SET);
+				for (Engine engine : new Engine[] { Engine.BITSET,
+						Engine.CLASSES }) {
+					RoughScopeManager rgsm = new RoughScopeManager(engine);
+					assertThat(rgsm.buildVariablePrecisionLowerApproximation(
+							subset, devices, attributes, blocks, beta),
+							equalTo(set.buildVariablePrecisionLowerApproximation(
+									subset, devices, attributes, blocks, beta)));
+					assertThat(rgsm.buildVariablePrecisionUpperApproximation(
+							subset, devices, attributes, blocks, beta),
+							equalTo(set.buildVariablePrecisionUpperApproximation(
+									subset, devices, attributes, blocks, beta)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test_fullPrecisionUpperIsUpperApproximation() {
+		RoughScopeManager rgsm = new RoughScopeManager(Engine.SET);
+		for (String query : queries()) {
+			List<DeviceDTO> subset = rgsm.getDeviceDTOsForORQuery(devices,
+					query);
+			assertThat(rgsm.buildVariablePrecisionUpperApproximation(subset,
+					devices, attributes, blocks, 1.0), equalTo(rgsm
+					.buildUpperApproximation(subset, devices, attributes,
+							blocks)));
+		}
+	}
+
+	private List<String> queries() {
+		return Arrays.asList("location=location1", "owner=owner0&type=type2",
+				"location=location3&owner=owner1ORtype=type0");
+	}
+}
@@ -0,0 +1,136 @@
+package at.ac.tuwien.infosys.governance;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.governance.ManagerFanOut.Delta;
+import at.ac.tuwien.infosys.governance.ManagerFanOut.Report;
+import at.ac.tuwien.infosys.scope.BlockIndex;
+import at.ac.tuwien.infosys.scope.BlockIndexStore;
+import at.ac.tuwien.infosys.store.model.DeviceChangesDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DevicesDTO;
+
+public class BlockIndexSyncTest {
+
+	private BlockIndex index;
+	private FakeManagers managers;
+	private BlockIndexSync sync;
+
+	@Before
+	public void setUp() {
+		index = new BlockIndex();
+		managers = new FakeManagers();
+		sync = new BlockIndexSync(managers, index, new BlockIndexStore(index)) {
+			@Override
+			protected List<String> nodes() {
+				return Arrays.asList("n1");
+			}
+		};
+	}
+
+	@Test
+	public void test_loadAndReconcile() {
+		managers.next = full("e1", 2, device("D1", "l1"), device("D2", "l1"));
+		sync.ensureLoaded();
+		assertThat(index.size(), equalTo(2));
+
+		// a change the index was not notified of
+		managers.next = new DeviceChangesDTO("e1", 2, 4, false);
+		managers.next.getDevices().add(device("D3", "l2"));
+		managers.next.getRemoved().add("D1");
+		sync.reconcile();
+		assertThat(ids(index.getDevices()), equalTo(Arrays.asList("D2", "D3")));
+	}
+
+	@Test
+	public void test_restoredIndexIsReloaded() throws IOException {
+		File dir = Files.createTempDirectory("snapshots").toFile();
+		try {
+			BlockIndexStore before = new BlockIndexStore(new BlockIndex(), dir);
+			before.start();
+			before.reload(Arrays.asList(device("D1", "l1"), device("D9", "l1")));
+			before.stop();
+
+			BlockIndexStore store = new BlockIndexStore(index, dir);
+			store.start();
+			assertThat(store.isStale(), equalTo(true));
+			sync = new BlockIndexSync(managers, index, store) {
+				@Override
+				protected List<String> nodes() {
+					return Arrays.asList("n1");
+				}
+			};
+			// D9 was removed while the controller was down
+			managers.next = full("e1", 2, device("D1", "l1"), device("D2", "l1"));
+			sync.ensureLoaded();
+			assertThat(ids(index.getDevices()), equalTo(Arrays.asList("D1", "D2")));
+			assertThat(store.isStale(), equalTo(false));
+			store.stop();
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void test_reconcileWaitsForLoad() {
+		managers.next = full("e1", 1, device("D1", "l1"));
+		sync.reconcile();
+		assertThat(index.isLoaded(), equalTo(false));
+		assertThat(managers.gathers, equalTo(0));
+	}
+
+	private static DeviceChangesDTO full(String epoch, long sequence,
+			DeviceDTO... devices) {
+		DeviceChangesDTO changes = new DeviceChangesDTO(epoch, 0, sequence,
+				true);
+		changes.getDevices().addAll(Arrays.asList(devices));
+		return changes;
+	}
+
+	private static DeviceDTO device(String id, String location) {
+		DeviceDTO device = new DeviceDTO(id, id, "location=" + location);
+		device.addMeta("location", location);
+		return device;
+	}
+
+	private static List<String> ids(List<DeviceDTO> devices) {
+		List<String> ids = new ArrayList<>();
+		for (DeviceDTO device : devices) {
+			ids.add(device.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * One node that answers with the next changes.
+	 */
+	private static class FakeManagers extends ManagerFanOut {
+		private final ManagerReplica replica = new ManagerReplica();
+		private DeviceChangesDTO next;
+		private int gathers = 0;
+
+		@Override
+		public Report gather(List<String> nodes, DevicesDTO devices,
+				Delta delta) {
+			this.gathers++;
+			this.replica.apply(this.next, delta.getChanged(),
+					delta.getRemoved());
+			devices.getDevices().addAll(this.replica.getDevices());
+			return new Report(new ArrayList<NodeStatus>(), 0);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package at.ac.tuwien.infosys.governance;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor.Completion;
+import at.ac.tuwien.infosys.scope.ScopeHistory;
+import at.ac.tuwien.infosys.scope.ScopeQuery;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class GovernanceScopeManagerTest {
+
+	private ScopeHistory history;
+	private String key;
+	private Set<DeviceDTO> scope;
+
+	@Before
+	public void setUp() {
+		history = new ScopeHistory(2);
+		key = ScopeHistory.key("p1", ScopeQuery.compile("location=l1"),
+				"sensor", "read", null);
+		scope = new HashSet<>();
+		for (String id : Arrays.asList("D1", "D2", "D3")) {
+			scope.add(new DeviceDTO(id));
+		}
+	}
+
+	@Test
+	public void test_failedDevicesAreForgotten() {
+		history.update(key, scope);
+		BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+		completions.add(response("D1", HttpStatus.OK, false));
+		completions.add(response("D2", HttpStatus.SERVICE_UNAVAILABLE, false));
+		completions.add(new Completion(new DeviceDTO("D3"), null,
+				new IllegalStateException("timeout")));
+		List<Completion> taken = new ArrayList<>();
+		GovernanceScopeManager.invoke(() -> completions, scope, history, key,
+				taken::add);
+
+		assertThat(taken.size(), equalTo(3));
+		assertThat(added(), equalTo(set("D2", "D3")));
+	}
+
+	@Test
+	public void test_fallbacksAreForgotten() {
+		history.update(key, scope);
+		BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+		completions.add(response("D1", HttpStatus.OK, false));
+		// e.g., "Unreachable device after 3 retries"
+		completions.add(response("D2", HttpStatus.OK, true));
+		completions.add(response("D3", HttpStatus.OK, false));
+		GovernanceScopeManager.invoke(() -> completions, scope, history, key,
+				c -> {
+				});
+
+		assertThat(added(), equalTo(set("D2")));
+	}
+
+	@Test
+	public void test_devicesAreForgottenIfInvocationFails() {
+		history.update(key, scope);
+		try {
+			GovernanceScopeManager.invoke(() -> {
+				throw new IllegalStateException("balancer down");
+			}, scope, history, key, c -> {
+			});
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertThat(added(), equalTo(set("D1", "D2", "D3")));
+	}
+
+	@Test
+	public void test_pendingDevicesAreForgottenOnInterrupt() {
+		history.update(key, scope);
+		BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+		completions.add(response("D1", HttpStatus.OK, false));
+		try {
+			// interrupted while D2 and D3 are pending
+			GovernanceScopeManager.invoke(() -> completions, scope, history,
+					key, c -> Thread.currentThread().interrupt());
+		} finally {
+			assertThat(Thread.interrupted(), equalTo(true));
+		}
+		assertThat(added(), equalTo(set("D2", "D3")));
+	}
+
+	private Set<String> added() {
+		Set<String> ids = new HashSet<>();
+		for (DeviceDTO device : history.update(key, scope).getAdded()) {
+			ids.add(device.getId());
+		}
+		return ids;
+	}
+
+	private static Completion response(String id, HttpStatus status,
+			boolean fallback) {
+		return new Completion(new DeviceDTO(id), new ResponseEntity<String>(
+				"value of " + id, status), null, fallback);
+	}
+
+	private static Set<String> set(String... ids) {
+		return new HashSet<>(Arrays.asList(ids));
+	}
+}
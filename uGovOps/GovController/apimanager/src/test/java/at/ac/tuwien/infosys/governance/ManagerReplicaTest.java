@@ -0,0 +1,113 @@
+package at.ac.tuwien.infosys.governance;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.DeviceChangesDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class ManagerReplicaTest {
+
+	private ManagerReplica replica;
+
+	@Before
+	public void setUp() {
+		replica = new ManagerReplica();
+		DeviceChangesDTO full = new DeviceChangesDTO("e1", 0, 3, true);
+		full.getDevices().addAll(
+				Arrays.asList(device("D1", "l1"), device("D2", "l1"),
+						device("D3", "l2")));
+		assertThat(replica.apply(full), equalTo(true));
+	}
+
+	@Test
+	public void test_freshReplicaRequestsEverything() {
+		assertThat(new ManagerReplica().changesQuery(),
+				equalTo("?since=0&epoch="));
+		assertThat(replica.changesQuery(), equalTo("?since=3&epoch=e1"));
+	}
+
+	@Test
+	public void test_applyChanges() {
+		DeviceChangesDTO changes = new DeviceChangesDTO("e1", 3, 5, false);
+		changes.getDevices().add(device("D2", "l3"));
+		changes.getRemoved().add("D1");
+		assertThat(replica.apply(changes), equalTo(true));
+
+		assertThat(ids(replica.getDevices()), equalTo(Arrays.asList("D2", "D3")));
+		assertThat(replica.getDevices().get(0).getMeta().get("location"),
+				equalTo("l3"));
+		assertThat(replica.getSequence(), equalTo(5L));
+	}
+
+	@Test
+	public void test_changesOfAnotherStateAreIgnored() {
+		// based on a sequence number the replica does not have
+		DeviceChangesDTO changes = new DeviceChangesDTO("e1", 4, 6, false);
+		changes.getRemoved().add("D1");
+		assertThat(replica.apply(changes), equalTo(false));
+		// of another epoch
+		changes = new DeviceChangesDTO("e2", 3, 6, false);
+		changes.getRemoved().add("D1");
+		assertThat(replica.apply(changes), equalTo(false));
+		// outdated full state
+		changes = new DeviceChangesDTO("e1", 0, 2, true);
+		assertThat(replica.apply(changes), equalTo(false));
+
+		assertThat(replica.size(), equalTo(3));
+		assertThat(replica.getSequence(), equalTo(3L));
+	}
+
+	@Test
+	public void test_fullStateOfNewEpochReplaces() {
+		DeviceChangesDTO full = new DeviceChangesDTO("e2", 0, 1, true);
+		full.getDevices().add(device("D9", "l9"));
+		assertThat(replica.apply(full), equalTo(true));
+		assertThat(ids(replica.getDevices()), equalTo(Arrays.asList("D9")));
+		assertThat(replica.getEpoch(), equalTo("e2"));
+	}
+
+	@Test
+	public void test_applyCollectsChanges() {
+		List<DeviceDTO> changed = new ArrayList<>();
+		List<String> removed = new ArrayList<>();
+		DeviceChangesDTO changes = new DeviceChangesDTO("e1", 3, 5, false);
+		changes.getDevices().add(device("D4", "l1"));
+		changes.getRemoved().add("D1");
+		changes.getRemoved().add("D9");
+		replica.apply(changes, changed, removed);
+		assertThat(ids(changed), equalTo(Arrays.asList("D4")));
+		assertThat(removed, equalTo(Arrays.asList("D1")));
+
+		// a full state only reports the difference
+		changed.clear();
+		removed.clear();
+		DeviceChangesDTO full = new DeviceChangesDTO("e2", 0, 2, true);
+		full.getDevices().addAll(
+				Arrays.asList(device("D2", "l1"), device("D3", "l9")));
+		replica.apply(full, changed, removed);
+		assertThat(ids(changed), equalTo(Arrays.asList("D3")));
+		assertThat(removed, equalTo(Arrays.asList("D4")));
+	}
+
+	private static DeviceDTO device(String id, String location) {
+		DeviceDTO device = new DeviceDTO(id, id, "location=" + location);
+		device.addMeta("location", location);
+		return device;
+	}
+
+	private static List<String> ids(List<DeviceDTO> devices) {
+		List<String> ids = new ArrayList<>();
+		for (DeviceDTO device : devices) {
+			ids.add(device.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,141 @@
+package at.ac.tuwien.infosys.governance;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor.Completion;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class ScopeAggregateTest {
+
+	@Test
+	public void test_countersAndNumbers() {
+		ScopeAggregate aggregate = new ScopeAggregate(false);
+		aggregate.add(response("D1", "21.5", HttpStatus.OK, false));
+		aggregate.add(response("D2", " 23.5\n", HttpStatus.OK, false));
+		aggregate.add(response("D3", "21.5", HttpStatus.OK, false));
+		aggregate.add(response("D4", "off", HttpStatus.OK, false));
+		aggregate.add(response("D5", "99", HttpStatus.OK, true));
+		aggregate.add(response("D6", "", HttpStatus.SERVICE_UNAVAILABLE,
+				false));
+		aggregate.add(new Completion(new DeviceDTO("D7"), null,
+				new IllegalStateException("timeout")));
+
+		assertThat(aggregate.getDevices(), equalTo(7));
+		assertThat(aggregate.getSucceeded(), equalTo(4));
+		assertThat(aggregate.getFallback(), equalTo(1));
+		assertThat(aggregate.getFailed(), equalTo(2));
+		assertThat(aggregate.getStatuses().get(200), equalTo(5));
+		assertThat(aggregate.getStatuses().get(503), equalTo(1));
+
+		// fallback and failed responses are no values
+		assertThat(aggregate.getNumeric(), equalTo(3));
+		assertThat(aggregate.getMin(), equalTo(21.5));
+		assertThat(aggregate.getMax(), equalTo(23.5));
+		assertThat(aggregate.getMean(), equalTo(22.166666666666668));
+		assertThat(aggregate.getDistinct().size(), equalTo(3));
+		assertThat(aggregate.getDistinct().get("21.5"), equalTo(2));
+		assertThat(aggregate.getDistinct().get("off"), equalTo(1));
+
+		assertThat(aggregate.getRaw(0, 10).getTotal(), equalTo(0));
+	}
+
+	@Test
+	public void test_distinctValuesAreBounded() {
+		ScopeAggregate aggregate = new ScopeAggregate(false);
+		for (int i = 0; i < ScopeAggregate.MAX_DISTINCT + 10; i++) {
+			aggregate.add(response("D" + i, "v" + i, HttpStatus.OK, false));
+		}
+		aggregate.add(response("D", "v0", HttpStatus.OK, false));
+
+		assertThat(aggregate.getDistinct().size(),
+				equalTo(ScopeAggregate.MAX_DISTINCT));
+		assertThat(aggregate.getDistinct().get("v0"), equalTo(2));
+		assertThat(aggregate.getOtherValues(), equalTo(10));
+		assertThat(aggregate.getNumeric(), equalTo(0));
+		assertThat(Double.isNaN(aggregate.getMean()), equalTo(true));
+	}
+
+	@Test
+	public void test_rawResultsOnRequest() {
+		ScopeAggregate aggregate = new ScopeAggregate(true);
+		aggregate.add(response("D1", "on", HttpStatus.OK, false));
+		aggregate.add(new Completion(new DeviceDTO("D2"), null,
+				new IllegalStateException("timeout")));
+
+		ScopeAggregate.Page page = aggregate.getRaw(1, 10);
+		assertThat(page.getTotal(), equalTo(2));
+		assertThat(page.getResults().get(0).getDevice(), equalTo("D2"));
+		assertThat(page.getResults().get(0).getError(), equalTo("timeout"));
+	}
+
+	@Test
+	public void test_histogramOfEqualValues() {
+		ScopeAggregate.Histogram histogram = new ScopeAggregate.Histogram();
+		histogram.add(3.0);
+		histogram.add(3.0);
+
+		List<ScopeAggregate.Bin> bins = histogram.getBins();
+		assertThat(bins.size(), equalTo(1));
+		assertThat(bins.get(0).getFrom(), equalTo(3.0));
+		assertThat(bins.get(0).getCount(), equalTo(2L));
+	}
+
+	@Test
+	public void test_histogramCoversAllValues() {
+		ScopeAggregate.Histogram histogram = new ScopeAggregate.Histogram();
+		Random random = new Random(42);
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = 0; i < 10000; i++) {
+			// grows from a narrow to a wide range
+			double value = (random.nextDouble() - 0.3) * i;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			histogram.add(value);
+		}
+
+		List<ScopeAggregate.Bin> bins = histogram.getBins();
+		long count = 0;
+		for (ScopeAggregate.Bin bin : bins) {
+			count += bin.getCount();
+		}
+		assertThat(count, equalTo(10000L));
+		assertThat(bins.get(0).getFrom() <= min, equalTo(true));
+		assertThat(bins.get(bins.size() - 1).getTo() > max, equalTo(true));
+		assertThat(bins.size() <= ScopeAggregate.Histogram.BINS, equalTo(true));
+		// at least half of the bins are used after the last doubling
+		assertThat(
+				(bins.get(bins.size() - 1).getTo() - bins.get(0).getFrom())
+						/ (max - min) < 3, equalTo(true));
+	}
+
+	@Test
+	public void test_histogramBinsAreExact() {
+		ScopeAggregate.Histogram histogram = new ScopeAggregate.Histogram();
+		for (int i = 0; i < 64; i++) {
+			histogram.add(i);
+		}
+
+		List<ScopeAggregate.Bin> bins = histogram.getBins();
+		assertThat(bins.size(), equalTo(32));
+		assertThat(bins.get(0).getFrom(), equalTo(0.0));
+		assertThat(bins.get(0).getTo(), equalTo(2.0));
+		for (ScopeAggregate.Bin bin : bins) {
+			assertThat(bin.getCount(), equalTo(2L));
+		}
+	}
+
+	private static Completion response(String id, String body,
+			HttpStatus status, boolean fallback) {
+		return new Completion(new DeviceDTO(id), new ResponseEntity<String>(
+				body, status), null, fallback);
+	}
+}
@@ -0,0 +1,107 @@
+package at.ac.tuwien.infosys.governance;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor.Completion;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class ScopeJobsTest {
+
+	private ScopeJobs jobs;
+
+	@Before
+	public void setUp() {
+		jobs = new ScopeJobs(1, 1, 60);
+	}
+
+	@After
+	public void tearDown() {
+		jobs.stop();
+	}
+
+	@Test
+	public void test_progressAndPages() throws InterruptedException {
+		ScopeJob job = jobs.submit("p1", "location=gh1/sensor/read", 5, true, j -> {
+			j.complete(response("D1", HttpStatus.OK, false));
+			j.complete(response("D2", HttpStatus.OK, true));
+			j.complete(response("D3", HttpStatus.SERVICE_UNAVAILABLE, false));
+			j.complete(new Completion(new DeviceDTO("D4"), null,
+					new IllegalStateException("timeout")));
+			// D5 never completes
+		});
+		awaitFinished(job);
+
+		assertThat(job.getDone(), equalTo(1));
+		assertThat(job.getFallback(), equalTo(1));
+		assertThat(job.getFailed(), equalTo(3));
+		assertThat(job.getPending(), equalTo(0));
+
+		ScopeAggregate.Page page = job.getResults(1, 2);
+		assertThat(page.getTotal(), equalTo(4));
+		assertThat(page.getResults().size(), equalTo(2));
+		assertThat(page.getResults().get(0).isFallback(), equalTo(true));
+		assertThat(page.getResults().get(1).getStatus(), equalTo(503));
+		assertThat(job.getResults(3, 100).getResults().get(0).getError(),
+				equalTo("timeout"));
+		assertThat(job.getResults(10, 100).getResults().size(), equalTo(0));
+	}
+
+	@Test
+	public void test_finishedJobsExpire() throws InterruptedException {
+		ScopeJob job = jobs.submit("p1", "", 0, false, j -> {
+		});
+		awaitFinished(job);
+
+		jobs.evictExpired(job.getFinished() + 59999);
+		assertThat(jobs.get(job.getId()) == job, equalTo(true));
+		jobs.evictExpired(job.getFinished() + 60000);
+		assertThat(jobs.getJobs().size(), equalTo(0));
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void test_boundedQueue() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			jobs.submit("p1", "", 0, false, j -> await(release));
+			// waits for the worker, the queue is full afterwards
+			jobs.submit("p1", "", 0, false, j -> {
+			});
+			jobs.submit("p1", "", 0, false, j -> {
+			});
+		} finally {
+			assertThat(jobs.getJobs().size(), equalTo(2));
+			release.countDown();
+		}
+	}
+
+	private static Completion response(String id, HttpStatus status,
+			boolean fallback) {
+		return new Completion(new DeviceDTO(id), new ResponseEntity<String>(
+				"value of " + id, status), null, fallback);
+	}
+
+	private static void awaitFinished(ScopeJob job) throws InterruptedException {
+		for (int i = 0; i < 500 && job.getState() != ScopeJob.State.FINISHED; i++) {
+			Thread.sleep(10);
+		}
+		assertThat(job.getState(), equalTo(ScopeJob.State.FINISHED));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
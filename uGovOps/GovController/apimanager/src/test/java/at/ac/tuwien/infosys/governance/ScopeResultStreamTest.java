@@ -0,0 +1,42 @@
+package at.ac.tuwien.infosys.governance;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class ScopeResultStreamTest {
+
+	@Test
+	public void test_eventsAndSummary() throws IOException {
+		StringWriter out = new StringWriter();
+		ScopeResultStream stream = new ScopeResultStream(out);
+		stream.result("D1", 200, "line1\nline2");
+		stream.error("D2", new IllegalStateException("timeout"));
+		stream.summary(3, 1);
+
+		String[] events = out.toString().split("\n\n");
+		assertThat(events.length, equalTo(3));
+		// the body is escaped, an event stays on its data line
+		assertThat(events[0].split("\n").length, equalTo(2));
+		assertThat(events[0].startsWith("event: result\ndata: {\"device\":\"D1\",\"status\":200"),
+				equalTo(true));
+		assertThat(events[0].contains("\"body\":\"line1\\nline2\""), equalTo(true));
+		assertThat(events[1].contains("\"device\":\"D2\",\"error\":\"timeout\""),
+				equalTo(true));
+		assertThat(events[2].startsWith("event: summary\ndata: {\"devices\":2,\"succeeded\":1,\"failed\":1,\"unchanged\":3,\"removed\":1"),
+				equalTo(true));
+	}
+
+	@Test
+	public void test_failedStatusCounts() throws IOException {
+		ScopeResultStream stream = new ScopeResultStream(new StringWriter());
+		stream.result("D1", 503, null);
+		stream.result("D2", 204, "");
+		assertThat(stream.getSucceeded(), equalTo(1));
+		assertThat(stream.getFailed(), equalTo(1));
+	}
+}
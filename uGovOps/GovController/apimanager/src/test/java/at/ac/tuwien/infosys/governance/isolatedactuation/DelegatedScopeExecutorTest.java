@@ -0,0 +1,160 @@
+package at.ac.tuwien.infosys.governance.isolatedactuation;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.client.RestClientException;
+
+import at.ac.tuwien.infosys.governance.isolatedactuation.ScopeExecutor.Completion;
+import at.ac.tuwien.infosys.store.model.BatchInvocationDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.InvocationResultDTO;
+
+public class DelegatedScopeExecutorTest {
+
+	private DelegatedScopeExecutor executor;
+	private List<String> sent;
+
+	@Before
+	public void setUp() {
+		sent = new ArrayList<>();
+		executor = new DelegatedScopeExecutor(2, 4, 60000) {
+			@Override
+			protected Map<String, List<String>> resolve(
+					Collection<String> deviceIds) {
+				Map<String, List<String>> byNode = new LinkedHashMap<>();
+				byNode.put("n1", Arrays.asList("D1", "D2", "D3"));
+				byNode.put("n2", Arrays.asList("D4"));
+				byNode.put("n3", Arrays.asList("D5"));
+				return byNode;
+			}
+
+			@Override
+			protected void send(String node, BatchInvocationDTO batch,
+					Consumer<InvocationResultDTO> results) {
+				synchronized (sent) {
+					sent.add(node + batch.getDeviceIds());
+				}
+				if (node.equals("n2")) {
+					throw new RestClientException("Connection refused");
+				}
+				for (String id : batch.getDeviceIds()) {
+					// n3 skips its device, results of other devices are ignored
+					if (!node.equals("n3")) {
+						results.accept(InvocationResultDTO.response(id, 200,
+								"ok " + id));
+						results.accept(InvocationResultDTO.response(id, 200,
+								"twice " + id));
+					}
+					results.accept(InvocationResultDTO.response("D9", 200, ""));
+				}
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		executor.stop();
+	}
+
+	@Test
+	public void test_batchesPerNode() throws InterruptedException {
+		Set<DeviceDTO> scope = new HashSet<>();
+		for (String id : Arrays.asList("D1", "D2", "D3", "D4", "D5")) {
+			scope.add(new DeviceDTO(id));
+		}
+		BlockingQueue<Completion> completed = executor.invoke(null, scope,
+				"sensor", "read", null);
+
+		Map<String, Completion> byDevice = new HashMap<>();
+		for (int i = 0; i < scope.size(); i++) {
+			Completion completion = completed.take();
+			byDevice.put(completion.getDevice().getId(), completion);
+		}
+		assertThat(byDevice.size(), equalTo(5));
+		assertThat(new HashSet<>(sent), equalTo(new HashSet<>(Arrays.asList(
+				"n1[D1, D2]", "n1[D3]", "n2[D4]", "n3[D5]"))));
+
+		assertThat(byDevice.get("D1").isSuccessful(), equalTo(true));
+		assertThat(byDevice.get("D3").getResponse().getBody(),
+				equalTo("ok D3"));
+		assertThat(byDevice.get("D4").getError().getMessage(),
+				equalTo("Connection refused"));
+		assertThat(byDevice.get("D5").getError().getMessage(),
+				equalTo("No result from manager n3"));
+		Thread.sleep(50);
+		assertThat(completed.isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void test_deadlineFailsRemainingDevices()
+			throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch stopped = new CountDownLatch(1);
+		DelegatedScopeExecutor hanging = new DelegatedScopeExecutor(10, 1, 100) {
+			@Override
+			protected Map<String, List<String>> resolve(
+					Collection<String> deviceIds) {
+				Map<String, List<String>> byNode = new HashMap<>();
+				byNode.put("n1", Arrays.asList("D1", "D2"));
+				return byNode;
+			}
+
+			@Override
+			protected void send(String node, BatchInvocationDTO batch,
+					Consumer<InvocationResultDTO> results) {
+				results.accept(InvocationResultDTO.response("D1", 200, "ok"));
+				// e.g., a half-open stream
+				try {
+					release.await();
+					results.accept(InvocationResultDTO.response("D2", 200,
+							"late"));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					stopped.countDown();
+				}
+			}
+		};
+		try {
+			BlockingQueue<Completion> completed = hanging.invoke(null,
+					Arrays.asList(new DeviceDTO("D1"), new DeviceDTO("D2")),
+					"sensor", "read", null);
+			Map<String, Completion> byDevice = new HashMap<>();
+			for (int i = 0; i < 2; i++) {
+				Completion completion = completed.poll(5, TimeUnit.SECONDS);
+				byDevice.put(completion.getDevice().getId(), completion);
+			}
+			assertThat(byDevice.get("D1").isSuccessful(), equalTo(true));
+			assertThat(byDevice.get("D2").getError() instanceof TimeoutException,
+					equalTo(true));
+
+			// the late result is not passed on
+			release.countDown();
+			assertThat(stopped.await(5, TimeUnit.SECONDS), equalTo(true));
+			Thread.sleep(50);
+			assertThat(completed.isEmpty(), equalTo(true));
+		} finally {
+			release.countDown();
+			hanging.stop();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package at.ac.tuwien.infosys.proxy;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveLimitTest {
+
+	private AdaptiveLimit limit;
+
+	@Before
+	public void setUp() {
+		limit = new AdaptiveLimit(4);
+	}
+
+	@Test
+	public void test_atMostLimitInFlight() {
+		assertThat(acquire(10), equalTo(4));
+		assertThat(limit.getInFlight(), equalTo(4));
+
+		limit.release(10, false);
+		assertThat(acquire(10), equalTo(1));
+		assertThat(limit.getInFlight(), equalTo(4));
+	}
+
+	@Test
+	public void test_failuresDecreaseSuccessesRecover() {
+		acquire(4);
+		limit.release(10, false);
+		for (int i = 0; i < 10; i++) {
+			// one decrease per latency without load
+			sleep(11);
+			acquire(1);
+			limit.release(10, true);
+		}
+		assertThat(limit.getLimit(), equalTo(1));
+
+		for (int i = 0; i < 100; i++) {
+			acquire(4);
+			limit.release(10, false);
+		}
+		acquire(4);
+		assertThat(limit.getLimit(), equalTo(4));
+		assertThat(limit.getInFlight(), equalTo(4));
+	}
+
+	@Test
+	public void test_slowResponsesDecrease() {
+		acquire(4);
+		limit.release(10, false);
+		sleep(11);
+		limit.release(50, false);
+		assertThat(limit.getLimit(), equalTo(3));
+	}
+
+	@Test
+	public void test_newMaxRestartsAdaption() {
+		acquire(10);
+		limit.setMaxLimit(6);
+		assertThat(limit.getLimit(), equalTo(6));
+		assertThat(acquire(10), equalTo(2));
+	}
+
+	private int acquire(int invocations) {
+		int acquired = 0;
+		for (int i = 0; i < invocations; i++) {
+			if (limit.tryAcquire()) {
+				acquired++;
+			}
+		}
+		return acquired;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package at.ac.tuwien.infosys.proxy;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class DeviceTransportTest {
+
+	private HttpServer server;
+	private DeviceTransport transport;
+	private final CountDownLatch release = new CountDownLatch(1);
+	private String url;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/read", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, "21.5");
+			}
+		});
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				respond(exchange, "late");
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort();
+		transport = new DeviceTransport(8, 2, 1000, 500, 60);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		transport.stop();
+		server.stop(0);
+	}
+
+	@Test
+	public void test_connectionsAreReused() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			assertThat(get(url + "/read"), equalTo("21.5"));
+		}
+		DeviceTransport.Metrics metrics = transport.getMetrics();
+		assertThat(metrics.getOpened(), equalTo(1L));
+		assertThat(metrics.getAvailable(), equalTo(1));
+		assertThat(metrics.getLeased(), equalTo(0));
+	}
+
+	@Test
+	public void test_idleConnectionsAreClosed() throws Exception {
+		transport.stop();
+		transport = new DeviceTransport(8, 2, 1000, 500, 1);
+		get(url + "/read");
+		transport.evict();
+		assertThat(transport.getMetrics().getAvailable(), equalTo(1));
+
+		Thread.sleep(1100);
+		transport.evict();
+		assertThat(transport.getMetrics().getAvailable(), equalTo(0));
+		get(url + "/read");
+		assertThat(transport.getMetrics().getOpened(), equalTo(2L));
+	}
+
+	@Test
+	public void test_connectionsPerHost() throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						get(url + "/slow");
+					} catch (IOException e) {
+						// timeouts of the waiting requests are expected
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (int i = 0; i < 100 && transport.getMetrics().getPending() < 2; i++) {
+			Thread.sleep(10);
+		}
+		DeviceTransport.Metrics metrics = transport.getMetrics();
+		assertThat(metrics.getLeased(), equalTo(2));
+		assertThat(metrics.getPending(), equalTo(2));
+		assertThat(metrics.getMax(), equalTo(8));
+
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(transport.getMetrics().getLeased(), equalTo(0));
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void test_readTimeout() throws IOException {
+		get(url + "/slow");
+	}
+
+	private String get(String url) throws IOException {
+		try (CloseableHttpResponse response = transport.getHttpClient()
+				.execute(new HttpGet(url))) {
+			return EntityUtils.toString(response.getEntity());
+		}
+	}
+
+	private static void respond(HttpExchange exchange, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
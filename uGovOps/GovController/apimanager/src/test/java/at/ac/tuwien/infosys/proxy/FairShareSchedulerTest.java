@@ -0,0 +1,159 @@
+package at.ac.tuwien.infosys.proxy;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.proxy.ProcessContext.Context;
+
+public class FairShareSchedulerTest {
+
+	private FairShareScheduler scheduler;
+	private final List<String> started = new ArrayList<>();
+
+	@Test
+	public void test_controlBeforeBulk() {
+		scheduler = new FairShareScheduler(4, 1);
+		Context bulk = context("bulk", "{\"priority\":\"bulk\"}");
+		Context control = context("control", "{\"priority\":\"control\"}");
+
+		submit(bulk, 10);
+		// the reserve is left to control processes
+		assertThat(started.size(), equalTo(3));
+		assertThat(scheduler.getBulkInFlight(), equalTo(3));
+
+		submit(control, 2);
+		assertThat(started.size(), equalTo(4));
+		assertThat(started.get(3), equalTo("control"));
+
+		scheduler.release(bulk, 10, false);
+		assertThat(started.size(), equalTo(5));
+		assertThat(started.get(4), equalTo("control"));
+		assertThat(scheduler.getWaiting("bulk"), equalTo(7));
+
+		scheduler.release(control, 10, false);
+		assertThat(started.size(), equalTo(6));
+		assertThat(started.get(5), equalTo("bulk"));
+		// bulk processes do not use the reserve
+		scheduler.release(control, 10, false);
+		assertThat(started.size(), equalTo(6));
+		assertThat(scheduler.getInFlight(), equalTo(3));
+	}
+
+	@Test
+	public void test_sharesInProportionToWeight() {
+		scheduler = new FairShareScheduler(1, 0);
+		Context heavy = context("heavy", "{\"weight\":\"3\"}");
+		Context light = context("light", "{\"weight\":\"1\"}");
+
+		submit(heavy, 100);
+		submit(light, 100);
+		for (int i = 0; i < 40; i++) {
+			scheduler.release(started.get(started.size() - 1).equals("heavy")
+					? heavy : light, 10, false);
+		}
+
+		int light40 = 0;
+		for (String procId : started.subList(1, 41)) {
+			if (procId.equals("light")) {
+				light40++;
+			}
+		}
+		assertThat(light40, equalTo(10));
+		assertThat(scheduler.getInFlight(), equalTo(1));
+	}
+
+	@Test
+	public void test_idleProcessDoesNotSaveUpShare() {
+		scheduler = new FairShareScheduler(1, 0);
+		Context busy = context("busy", "{}");
+		Context idle = context("idle", "{}");
+
+		submit(busy, 50);
+		for (int i = 0; i < 20; i++) {
+			scheduler.release(busy, 10, false);
+		}
+		submit(idle, 50);
+		for (int i = 0; i < 10; i++) {
+			scheduler.release(started.get(started.size() - 1).equals("busy")
+					? busy : idle, 10, false);
+		}
+
+		// alternates instead of serving the idle process 20 times in a row
+		int idle10 = 0;
+		for (String procId : started.subList(21, 31)) {
+			if (procId.equals("idle")) {
+				idle10++;
+			}
+		}
+		assertThat(idle10, equalTo(5));
+	}
+
+	@Test
+	public void test_processLimitLeavesCapacityToOthers() {
+		scheduler = new FairShareScheduler(10, 0);
+		Context limited = context("limited", "{\"degree_parallelism\":\"2\"}");
+		Context other = context("other", "{}");
+
+		submit(limited, 10);
+		submit(other, 3);
+		assertThat(started.size(), equalTo(5));
+		assertThat(scheduler.getWaiting("limited"), equalTo(8));
+		assertThat(scheduler.getWaiting("other"), equalTo(0));
+	}
+
+	@Test
+	public void test_synchronousCompletionDoesNotRecurse() {
+		scheduler = new FairShareScheduler(1, 0);
+		final Context context = context("sync", "{}");
+		final int[] depth = { 0, 0 };
+		for (int i = 0; i < 10000; i++) {
+			scheduler.submit(context, new Runnable() {
+				@Override
+				public void run() {
+					depth[0]++;
+					depth[1] = Math.max(depth[1], depth[0]);
+					// e.g., a short-circuited command
+					scheduler.release(context, 0, false);
+					depth[0]--;
+				}
+			});
+		}
+		assertThat(scheduler.getWaiting("sync"), equalTo(0));
+		assertThat(depth[1], equalTo(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_unknownPriorityIsRejected() {
+		scheduler = new FairShareScheduler(1, 0);
+		context("typo", "{\"priority\":\"Control\"}");
+	}
+
+	@Test
+	public void test_numericWeight() {
+		scheduler = new FairShareScheduler(1, 0);
+		Context context = context("numeric", "{\"weight\":3}");
+		assertThat(context.getWeight(), equalTo(3));
+	}
+
+	private Context context(String procId, String properties) {
+		Context context = new Context(procId, scheduler, null);
+		context.setProperties(properties);
+		return context;
+	}
+
+	private void submit(final Context context, int tasks) {
+		for (int i = 0; i < tasks; i++) {
+			scheduler.submit(context, new Runnable() {
+				@Override
+				public void run() {
+					started.add(context.getProcessId());
+				}
+			});
+		}
+	}
+}
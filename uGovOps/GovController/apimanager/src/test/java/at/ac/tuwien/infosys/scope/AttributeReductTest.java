@@ -0,0 +1,86 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.RoughScopeManager;
+import at.ac.tuwien.infosys.RoughScopeManager.Engine;
+import at.ac.tuwien.infosys.scope.BlockIndex.Snapshot;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class AttributeReductTest {
+
+	private final List<String> attributes = Arrays.asList("color",
+			"location", "owner", "type");
+
+	private BlockIndex index;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(7);
+		List<DeviceDTO> devices = new ArrayList<DeviceDTO>();
+		for (int i = 0; i < 200; i++) {
+			DeviceDTO d = new DeviceDTO("D" + i);
+			int location = random.nextInt(4);
+			d.addMeta("location", "location" + location);
+			// color is determined by the location
+			d.addMeta("color", "color" + location);
+			d.addMeta("owner", random.nextInt(10) == 0 ? "" : "owner"
+					+ random.nextInt(3));
+			// all devices have the same type
+			d.addMeta("type", "FM5300");
+			devices.add(d);
+		}
+		index = new BlockIndex();
+		index.reload(devices);
+	}
+
+	@Test
+	public void test_reductDropsRedundantAttributes() {
+		Snapshot snapshot = index.getSnapshot("owner=?");
+		List<String> reduct = AttributeReduct.compute(snapshot.getBlocks(),
+				snapshot.getDevices(), attributes);
+		assertThat(reduct, equalTo(Arrays.asList("location", "owner")));
+	}
+
+	@Test
+	public void test_reductPreservesApproximations() {
+		Snapshot snapshot = index.getSnapshot("owner=-",
+				ScopeQuery.compile("location=location1ORowner=owner2"));
+		List<String> reduct = new AttributeReduct().get("owner=-",
+				attributes, snapshot);
+		assertThat(reduct.size() < attributes.size(), equalTo(true));
+		RoughScopeManager rgsm = new RoughScopeManager(Engine.SET);
+		assertThat(rgsm.buildUpperApproximation(snapshot.getTargetScope(),
+				snapshot.getDevices(), reduct, snapshot.getBlocks()),
+				equalTo(rgsm.buildUpperApproximation(
+						snapshot.getTargetScope(), snapshot.getDevices(),
+						attributes, snapshot.getBlocks())));
+		assertThat(rgsm.buildLowerApproximationOptimized(
+				snapshot.getTargetScope(), snapshot.getDevices(), reduct,
+				snapshot.getBlocks()), equalTo(rgsm
+				.buildLowerApproximationOptimized(snapshot.getTargetScope(),
+						snapshot.getDevices(), attributes,
+						snapshot.getBlocks())));
+	}
+
+	@Test
+	public void test_reductIsCachedPerVersion() {
+		AttributeReduct reducts = new AttributeReduct();
+		Snapshot snapshot = index.getSnapshot("");
+		List<String> reduct = reducts.get("", attributes, snapshot);
+		assertThat(reducts.get("", attributes, index.getSnapshot("")) == reduct,
+				equalTo(true));
+		index.register("D200", "location=location9&color=color9&owner=owner0&type=FM5300");
+		assertThat(reducts.get("", attributes, index.getSnapshot("")) == reduct,
+				equalTo(false));
+	}
+}
@@ -0,0 +1,76 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.RoughScopeManager;
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class BitsetRoughSetTest {
+
+	private final List<String> attributes = Arrays.asList("location", "type");
+
+	private List<DeviceDTO> devices;
+	private Map<Block, List<DeviceDTO>> blocks;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(3);
+		devices = new ArrayList<DeviceDTO>();
+		for (int i = 0; i < 20000; i++) {
+			DeviceDTO d = new DeviceDTO("D" + i);
+			d.addMeta("location", random.nextInt(10) == 0 ? "+" : "location"
+					+ random.nextInt(2));
+			d.addMeta("type", random.nextInt(10) == 0 ? "?" : "type"
+					+ random.nextInt(2));
+			devices.add(d);
+		}
+		RoughScopeManager rgsm = new RoughScopeManager();
+		blocks = rgsm.handleSpecialValues(rgsm.makeBlocks(devices), devices);
+	}
+
+	@Test
+	public void test_sampledInclusionIsWithinError() {
+		List<DeviceDTO> subset = ScopeQuery.compile("type=type0").select(
+				devices);
+		BitsetRoughSet exact = new BitsetRoughSet(blocks, devices);
+		BitsetRoughSet sampled = new BitsetRoughSet(blocks, devices);
+		sampled.setSampling(0.05, 0.01, 42);
+		assertThat(sampled.getSampleSize() < 5000, equalTo(true));
+		BitSet x = exact.toBitSet(subset);
+		for (DeviceDTO d : devices.subList(0, 100)) {
+			double error = Math.abs(exact.inclusion(d, attributes, x)
+					- sampled.inclusion(d, attributes, x));
+			assertThat(error <= 0.05, equalTo(true));
+		}
+	}
+
+	@Test
+	public void test_samplingDoesNotDependOnParallelism() {
+		List<DeviceDTO> subset = ScopeQuery.compile("location=location1")
+				.select(devices);
+		BitsetRoughSet first = new BitsetRoughSet(blocks, devices);
+		first.setSampling(0.1, 0.05, 7);
+		BitsetRoughSet second = new BitsetRoughSet(blocks, devices);
+		second.setSampling(0.1, 0.05, 7);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		second.setParallelism(pool, 1000);
+		assertThat(first.buildVariablePrecisionLowerApproximation(subset,
+				attributes, 0.7), equalTo(second
+				.buildVariablePrecisionLowerApproximation(subset, attributes,
+						0.7)));
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,173 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+public class BlockIndexStoreTest {
+
+	private File dir;
+	private BlockIndexStore store;
+	private BlockIndex index;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("snapshots").toFile();
+		index = new BlockIndex();
+		store = new BlockIndexStore(index, dir);
+		store.start();
+	}
+
+	@After
+	public void tearDown() {
+		store.stop();
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void test_snapshotFileRoundTrip() throws IOException {
+		List<DeviceDTO> devices = new ArrayList<>();
+		DeviceDTO d1 = device("D1", "location=gh1&type=");
+		d1.setIpAddress("10.0.0.1");
+		d1.setDecision(DECISION.GOOD);
+		devices.add(d1);
+		devices.add(device("D2", "owner=\u00f6&location=gh2"));
+		devices.add(new DeviceDTO("D3"));
+		File file = new File(dir, "test.snapshot");
+		IndexSnapshotFile.write(file, devices, 42);
+
+		IndexSnapshotFile read = IndexSnapshotFile.read(file);
+		assertThat(read.getVersion(), equalTo(42L));
+		assertThat(read.getDevices().size(), equalTo(3));
+		for (int i = 0; i < devices.size(); i++) {
+			DeviceDTO expected = devices.get(i);
+			DeviceDTO actual = read.getDevices().get(i);
+			assertThat(actual.getId(), equalTo(expected.getId()));
+			assertThat(actual.getIpAddress(), equalTo(expected.getIpAddress()));
+			assertThat(actual.metaInfo, equalTo(expected.metaInfo));
+			assertThat(actual.getDecision(), equalTo(expected.getDecision()));
+			assertThat(actual.getMeta(), equalTo(expected.getMeta()));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void test_truncatedSnapshotIsRejected() throws IOException {
+		List<DeviceDTO> devices = new ArrayList<>();
+		devices.add(device("D1", "location=gh1"));
+		File file = new File(dir, "test.snapshot");
+		IndexSnapshotFile.write(file, devices, 1);
+		new FileOutputStream(file, true).getChannel().truncate(file.length() - 3)
+				.close();
+		IndexSnapshotFile.read(file);
+	}
+
+	@Test
+	public void test_restoreSnapshotAndReplayJournal() throws IOException {
+		List<DeviceDTO> fleet = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			fleet.add(device("D" + i, "location=l" + (i % 5) + "&owner=o"
+					+ (i % 3)));
+		}
+		store.reload(fleet);
+		// changes after the snapshot are only journaled
+		store.register("D100", "location=l9&owner=o1");
+		store.register("D5", "location=l7");
+		store.unregister("D6");
+		store.stop();
+
+		BlockIndex restored = new BlockIndex();
+		BlockIndexStore restarted = new BlockIndexStore(restored, dir);
+		restarted.start();
+		assertThat(restored.isLoaded(), equalTo(true));
+		assertThat(restarted.isStale(), equalTo(true));
+		assertThat(metas(restored), equalTo(metas(index)));
+		assertThat(restored.size(), equalTo(100));
+
+		// a snapshot of the restored index supersedes the old generation
+		restarted.register("D7", "location=l8");
+		restarted.snapshot();
+		restarted.stop();
+		assertThat(dir.list().length, equalTo(1));
+
+		BlockIndex again = new BlockIndex();
+		new BlockIndexStore(again, dir).start();
+		assertThat(again.getDevices().size(), equalTo(100));
+		assertThat(metas(again), equalTo(metas(restored)));
+	}
+
+	@Test
+	public void test_applyPulledChangesIsJournaled() throws IOException {
+		List<DeviceDTO> fleet = new ArrayList<>();
+		fleet.add(device("D1", "location=l1"));
+		fleet.add(device("D2", "location=l2"));
+		store.reload(fleet);
+		store.apply(Arrays.asList(device("D2", "location=l3"),
+				device("D3", "location=l1")), Arrays.asList("D1"));
+		assertThat(index.size(), equalTo(2));
+		assertThat(index.getDevices().get(0).getMeta().get("location"),
+				equalTo("l3"));
+		store.stop();
+
+		BlockIndex restored = new BlockIndex();
+		new BlockIndexStore(restored, dir).start();
+		assertThat(metas(restored), equalTo(metas(index)));
+	}
+
+	@Test
+	public void test_journalKeepsLongMetaInfo() {
+		store.reload(new ArrayList<DeviceDTO>());
+		StringBuilder metaInfo = new StringBuilder("location=");
+		while (metaInfo.length() < 70000) {
+			metaInfo.append("\u00e4");
+		}
+		store.register("D1", metaInfo.toString());
+		store.stop();
+
+		BlockIndex restored = new BlockIndex();
+		new BlockIndexStore(restored, dir).start();
+		assertThat(metas(restored), equalTo(metas(index)));
+	}
+
+	@Test
+	public void test_nothingToRestore() {
+		BlockIndex empty = new BlockIndex();
+		new BlockIndexStore(empty, dir).start();
+		assertThat(empty.isLoaded(), equalTo(false));
+	}
+
+	private static DeviceDTO device(String id, String metaInfo) {
+		DeviceDTO device = new DeviceDTO(id, id, metaInfo);
+		for (String datum : metaInfo.split("&")) {
+			String[] split = datum.split("=", 2);
+			device.addMeta(split[0], split.length > 1 ? split[1] : "");
+		}
+		return device;
+	}
+
+	private static Map<String, Map<String, String>> metas(BlockIndex index) {
+		Map<String, Map<String, String>> metas = new HashMap<>();
+		for (DeviceDTO device : index.getDevices()) {
+			metas.put(device.getId(), new HashMap<>(device.getMeta()));
+		}
+		return metas;
+	}
+}
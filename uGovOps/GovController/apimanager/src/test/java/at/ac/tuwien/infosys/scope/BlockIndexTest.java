@@ -0,0 +1,145 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.RoughScopeManager;
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.scope.BlockIndex.Snapshot;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class BlockIndexTest {
+
+	private static final String REPLACEMENT = "location=?&owner=+&type=-";
+
+	private final String[] values = { "", "?", "+", "-", "*", "a", "b", "c" };
+
+	private BlockIndex index;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		index = new BlockIndex();
+		index.reload(new ArrayList<DeviceDTO>());
+		random = new Random(7);
+	}
+
+	@Test
+	public void test_registerMatchesBatchBlocks() {
+		// create the view first, so that it is maintained incrementally
+		index.getSnapshot(REPLACEMENT);
+		for (int i = 0; i < 200; i++) {
+			index.register("D" + i, randomMetaInfo());
+		}
+		assertMatchesBatch(index.getSnapshot(REPLACEMENT));
+	}
+
+	@Test
+	public void test_updatesAndUnregisterMatchBatchBlocks() {
+		index.getSnapshot(REPLACEMENT);
+		for (int i = 0; i < 2000; i++) {
+			String id = "D" + random.nextInt(100);
+			if (random.nextInt(4) == 0) {
+				index.unregister(id);
+			} else {
+				index.register(id, randomMetaInfo());
+			}
+			if (i % 250 == 0) {
+				assertMatchesBatch(index.getSnapshot(REPLACEMENT));
+			}
+		}
+		assertMatchesBatch(index.getSnapshot(REPLACEMENT));
+	}
+
+	@Test
+	public void test_snapshotsShareUnchangedBlocks() {
+		index.register("D1", "location=l1&type=t1");
+		index.register("D2", "location=l2&type=t1");
+		Snapshot first = index.getSnapshot(REPLACEMENT);
+		assertThat(index.getSnapshot(REPLACEMENT).getBlocks() == first
+				.getBlocks(), equalTo(true));
+
+		index.register("D3", "location=l2&type=t1");
+		Snapshot second = index.getSnapshot(REPLACEMENT);
+		Block l1 = new Block("location", "l1");
+		Block l2 = new Block("location", "l2");
+		assertThat(second.getBlocks().get(l1) == first.getBlocks().get(l1),
+				equalTo(true));
+		assertThat(second.getBlocks().get(l2).size(), equalTo(2));
+		// the first snapshot is not affected
+		assertThat(first.getBlocks().get(l2).size(), equalTo(1));
+		assertThat(first.getDevices().size(), equalTo(2));
+		assertMatchesBatch(second);
+	}
+
+	@Test
+	public void test_changesSinceVersion() {
+		index.register("D1", "location=l1");
+		index.register("D2", "location=l1");
+		long version = index.getVersion();
+		index.register("D3", "location=l2");
+		index.register("D1", "location=l3");
+		index.unregister("D2");
+
+		BlockIndex.Changes changes = index.getChanges(version);
+		assertThat(changes.isFull(), equalTo(false));
+		List<String> ids = new ArrayList<>();
+		for (DeviceDTO d : changes.getDevices()) {
+			ids.add(d.getId());
+		}
+		assertThat(ids, equalTo(Arrays.asList("D3", "D1")));
+		// D1 changed and D2 was removed
+		assertThat(changes.getReplaced(), equalTo(2));
+		assertThat(changes.getSize(), equalTo(2));
+
+		index.reload(new ArrayList<DeviceDTO>());
+		assertThat(index.getChanges(version).isFull(), equalTo(true));
+	}
+
+	@Test
+	public void test_rawDevicesAreNotModified() {
+		DeviceDTO device = new DeviceDTO("D1");
+		device.addMeta("location", "");
+		index.register(device);
+
+		Snapshot snapshot = index.getSnapshot(REPLACEMENT);
+
+		assertThat(device.getMeta().get("location"), equalTo(""));
+		assertThat(snapshot.getDevices().get(0).getMeta().get("location"),
+				equalTo("?"));
+	}
+
+	private void assertMatchesBatch(Snapshot snapshot) {
+		List<DeviceDTO> devices = snapshot.getDevices();
+		RoughScopeManager rgsm = new RoughScopeManager();
+		Map<Block, List<DeviceDTO>> expected = rgsm.handleSpecialValues(
+				rgsm.makeBlocks(devices), devices);
+		assertThat(asSets(snapshot.getBlocks()), equalTo(asSets(expected)));
+	}
+
+	private Map<Block, Set<DeviceDTO>> asSets(Map<Block, List<DeviceDTO>> blocks) {
+		Map<Block, Set<DeviceDTO>> sets = new HashMap<>();
+		for (Map.Entry<Block, List<DeviceDTO>> e : blocks.entrySet()) {
+			sets.put(e.getKey(), new HashSet<>(e.getValue()));
+		}
+		return sets;
+	}
+
+	private String randomMetaInfo() {
+		return "location=" + values[random.nextInt(values.length)]
+				+ "&owner=" + values[random.nextInt(values.length)]
+				+ "&type=" + values[random.nextInt(values.length)];
+	}
+}
@@ -0,0 +1,89 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+	@Test
+	public void test_estimateIsWithinError() {
+		for (int n : new int[] { 10, 1000, 100000 }) {
+			HyperLogLog sketch = new HyperLogLog();
+			for (int i = 0; i < n; i++) {
+				sketch.add("D" + i);
+				// duplicates do not count
+				sketch.add("D" + i);
+			}
+			assertThat(Math.abs(sketch.estimate() - n) <= 0.05 * n + 1,
+					equalTo(true));
+		}
+	}
+
+	@Test
+	public void test_mergeAndIntersection() {
+		HyperLogLog a = new HyperLogLog();
+		HyperLogLog b = new HyperLogLog();
+		for (int i = 0; i < 20000; i++) {
+			a.add("D" + i);
+		}
+		for (int i = 10000; i < 40000; i++) {
+			b.add("D" + i);
+		}
+		long union = HyperLogLog.estimateUnion(a, b);
+		assertThat(Math.abs(union - 40000) < 2000, equalTo(true));
+		long intersection = HyperLogLog.estimateIntersection(a, b);
+		assertThat(Math.abs(intersection - 10000) < 2000, equalTo(true));
+		// merging is not destructive for the other sketch
+		a.merge(b);
+		assertThat(Math.abs(b.estimate() - 30000) < 1500, equalTo(true));
+	}
+
+	@Test
+	public void test_intersectionOfManySketches() {
+		// 40 conditions, only the 5000 devices D0..D4999 satisfy all
+		HyperLogLog[] sketches = new HyperLogLog[40];
+		for (int s = 0; s < sketches.length; s++) {
+			sketches[s] = new HyperLogLog();
+			int extra = 1000 * (s + 1);
+			for (int i = 0; i < 5000 + extra; i++) {
+				sketches[s].add(i < 5000 ? "D" + i : "S" + s + "_" + i);
+			}
+		}
+		long intersection = HyperLogLog.estimateIntersection(sketches);
+		assertThat(Math.abs(intersection - 5000) < 1000, equalTo(true));
+	}
+
+	@Test
+	public void test_sparseSketchSwitchesToDense() {
+		HyperLogLog sparse = new HyperLogLog(12);
+		for (int i = 0; i < 100; i++) {
+			sparse.add("D" + i);
+		}
+		assertThat(sparse.isSparse(), equalTo(true));
+		assertThat(Math.abs(sparse.estimate() - 100) <= 5, equalTo(true));
+
+		HyperLogLog dense = new HyperLogLog(12);
+		for (int i = 100; i < 5000; i++) {
+			dense.add("D" + i);
+		}
+		assertThat(dense.isSparse(), equalTo(false));
+		// the union is the same in both representations
+		HyperLogLog all = new HyperLogLog(12);
+		for (int i = 0; i < 5000; i++) {
+			all.add("D" + i);
+		}
+		HyperLogLog merged = sparse.copy();
+		merged.merge(dense);
+		assertThat(merged.estimate(), equalTo(all.estimate()));
+		dense.merge(sparse);
+		assertThat(dense.estimate(), equalTo(all.estimate()));
+		assertThat(sparse.isSparse(), equalTo(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_mergeDifferentPrecisions() {
+		new HyperLogLog(10).merge(new HyperLogLog(12));
+	}
+}
@@ -0,0 +1,93 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.RoughScopeManager;
+import at.ac.tuwien.infosys.RoughScopeManager.Engine;
+import at.ac.tuwien.infosys.scope.BlockIndex.Snapshot;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+public class IncrementalScopeTest {
+
+	private static final String REPLACEMENT = "location=?&owner=+&type=-";
+
+	private final List<String> attributes = Arrays.asList("owner",
+			"location", "type");
+	private final String[] values = { "", "?", "+", "-", "*", "a", "b", "c" };
+	private final DECISION[] decisions = { DECISION.GOOD, DECISION.BAD, null };
+
+	private BlockIndex index;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		random = new Random(11);
+		List<DeviceDTO> devices = new ArrayList<DeviceDTO>();
+		for (int i = 0; i < 60; i++) {
+			devices.add(randomDevice("D" + i));
+		}
+		index = new BlockIndex();
+		index.reload(devices);
+	}
+
+	@Test
+	public void test_initialScopeMatchesApproximations() {
+		assertMatchesRecompute("location=a");
+		assertMatchesRecompute("owner=b&type=cORlocation=c");
+	}
+
+	@Test
+	public void test_churnMatchesRecompute() {
+		String[] queries = { "location=a", "owner=b&type=c", "type=aORowner=c" };
+		// start maintaining the scopes
+		for (String query : queries) {
+			assertMatchesRecompute(query);
+		}
+		for (int i = 0; i < 1500; i++) {
+			String id = "D" + random.nextInt(80);
+			if (random.nextInt(4) == 0) {
+				index.unregister(id);
+			} else {
+				index.register(randomDevice(id));
+			}
+			if (i % 100 == 0) {
+				for (String query : queries) {
+					assertMatchesRecompute(query);
+				}
+			}
+		}
+	}
+
+	private void assertMatchesRecompute(String query) {
+		ScopeQuery scopeQuery = ScopeQuery.compile(query);
+		Snapshot snapshot = index.getSnapshot(REPLACEMENT, scopeQuery);
+		RoughScopeManager rgsm = new RoughScopeManager(Engine.SET);
+		assertThat(index.getIncrementalScope(REPLACEMENT, scopeQuery,
+				attributes, false), equalTo(rgsm.buildUpperApproximation(
+				snapshot.getTargetScope(), snapshot.getDevices(), attributes,
+				snapshot.getBlocks())));
+		assertThat(index.getIncrementalScope(REPLACEMENT, scopeQuery,
+				attributes, true), equalTo(rgsm
+				.buildLowerApproximationOptimized(snapshot.getTargetScope(),
+						snapshot.getDevices(), attributes, snapshot.getBlocks())));
+	}
+
+	private DeviceDTO randomDevice(String id) {
+		DeviceDTO d = new DeviceDTO(id);
+		for (String attribute : attributes) {
+			d.addMeta(attribute, values[random.nextInt(values.length)]);
+		}
+		d.setDecision(decisions[random.nextInt(decisions.length)]);
+		return d;
+	}
+}
@@ -0,0 +1,94 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class InvertedIndexTest {
+
+	private final List<String> queries = Arrays.asList("location=l0",
+			"location=l1&owner=o0", "owner=o1&type=t0&location=l2",
+			"location=l3ORowner=o2&type=t1", "type=unknown",
+			"owner=o0ORowner=o1ORtype=t2");
+
+	private InvertedIndex index;
+	private Map<String, DeviceDTO> devices;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		index = new InvertedIndex();
+		devices = new LinkedHashMap<>();
+		random = new Random(3);
+	}
+
+	@Test
+	public void test_selectMatchesLinearScan() {
+		for (int i = 0; i < 5000; i++) {
+			add(randomDevice("D" + i));
+		}
+		assertSelectMatchesLinearScan();
+	}
+
+	@Test
+	public void test_selectAfterUpdatesAndRemovals() {
+		for (int i = 0; i < 3000; i++) {
+			String id = "D" + random.nextInt(500);
+			if (random.nextInt(3) == 0) {
+				index.remove(id);
+				devices.remove(id);
+			} else {
+				add(randomDevice(id));
+			}
+		}
+		assertThat(index.size(), equalTo(devices.size()));
+		assertSelectMatchesLinearScan();
+	}
+
+	@Test
+	public void test_postingsAreSorted() {
+		for (int i = 0; i < 100; i++) {
+			add(randomDevice("D" + i));
+		}
+		int[] postings = index.postings("location", "l0");
+		int[] sorted = postings.clone();
+		Arrays.sort(sorted);
+		assertThat(Arrays.equals(postings, sorted), equalTo(true));
+	}
+
+	private void assertSelectMatchesLinearScan() {
+		for (String query : queries) {
+			ScopeQuery plan = ScopeQuery.compile(query);
+			assertThat(new HashSet<>(index.select(plan)), equalTo(new HashSet<>(
+					plan.select(new ArrayList<>(devices.values())))));
+		}
+	}
+
+	private void add(DeviceDTO device) {
+		index.add(device);
+		devices.put(device.getId(), device);
+	}
+
+	private DeviceDTO randomDevice(String id) {
+		DeviceDTO device = new DeviceDTO(id);
+		// skewed cardinalities to exercise both intersection strategies
+		device.addMeta("location", "l" + random.nextInt(40));
+		device.addMeta("owner", "o" + random.nextInt(3));
+		if (random.nextInt(10) > 0) {
+			device.addMeta("type", "t" + random.nextInt(2));
+		}
+		return device;
+	}
+}
@@ -0,0 +1,76 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.RoughScopeManager;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class MissingValueOverlayTest {
+
+	private List<DeviceDTO> devices;
+
+	@Before
+	public void setUp() {
+		devices = new ArrayList<DeviceDTO>();
+		for (int i = 0; i < 10; i++) {
+			DeviceDTO d = new DeviceDTO("D" + i);
+			d.addMeta("location", i % 2 == 0 ? "" : "home");
+			d.addMeta("type", "");
+			devices.add(d);
+		}
+	}
+
+	@Test
+	public void test_viewReplacesMissingData() {
+		DeviceDTO view = MissingValueOverlay.parse("location=?&type=+").view(
+				devices.get(0));
+		assertThat(view.getId(), equalTo("D0"));
+		assertThat(view.getMeta().get("location"), equalTo("?"));
+		assertThat(view.getMeta().get("type"), equalTo("+"));
+		assertThat(view.getMeta().size(), equalTo(2));
+		assertThat(view.getMeta().containsValue("?"), equalTo(true));
+		assertThat(MissingValueOverlay.parse("location=?").view(devices.get(1))
+				.getMeta().get("location"), equalTo("home"));
+	}
+
+	@Test
+	public void test_prepareDataDoesNotModifyDevices() {
+		RoughScopeManager rgsm = new RoughScopeManager();
+		List<DeviceDTO> optimistic = rgsm.prepareData(devices,
+				"location=+&type=+");
+		List<DeviceDTO> pessimistic = rgsm.prepareData(devices,
+				"location=-&type=?");
+		assertThat(optimistic.get(0).getMeta().get("location"), equalTo("+"));
+		assertThat(pessimistic.get(0).getMeta().get("location"), equalTo("-"));
+		assertThat(devices.get(0).getMeta().get("location"), equalTo(""));
+		// the engines identify devices by reference
+		assertThat(optimistic.get(3) == optimistic.get(3), equalTo(true));
+	}
+
+	@Test
+	public void test_malformedReplacement() {
+		for (String replacement : new String[] { "location", "location=?&type",
+				"=?", "location=?=+" }) {
+			try {
+				MissingValueOverlay.parse(replacement);
+				fail("accepted " + replacement);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void test_viewIsReadOnly() {
+		MissingValueOverlay.parse("location=?").view(devices.get(0)).addMeta(
+				"location", "x");
+	}
+}
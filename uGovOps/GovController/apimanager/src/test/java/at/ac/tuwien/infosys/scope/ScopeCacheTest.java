@@ -0,0 +1,54 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class ScopeCacheTest {
+
+	private ScopeCache cache;
+	private Set<DeviceDTO> scope;
+
+	@Before
+	public void setUp() {
+		cache = new ScopeCache(2);
+		scope = new HashSet<>();
+		scope.add(new DeviceDTO("D1"));
+	}
+
+	@Test
+	public void test_keyIgnoresConditionOrder() {
+		assertThat(ScopeCache.key(ScopeQuery.compile("a=1&b=2ORc=3"), "x"),
+				equalTo(ScopeCache.key(ScopeQuery.compile("c=3ORb=2&a=1"), "x")));
+	}
+
+	@Test
+	public void test_versionBumpInvalidates() {
+		cache.put("k", 1, scope);
+		assertThat(cache.get("k", 1), equalTo(scope));
+		assertNull(cache.get("k", 2));
+		// outdated results are not stored anymore
+		cache.put("k", 1, scope);
+		assertNull(cache.get("k", 2));
+	}
+
+	@Test
+	public void test_leastRecentlyUsedIsEvicted() {
+		cache.put("k1", 1, scope);
+		cache.put("k2", 1, scope);
+		cache.get("k1", 1);
+		cache.put("k3", 1, scope);
+		assertNotNull(cache.get("k1", 1));
+		assertNull(cache.get("k2", 1));
+		assertThat(cache.size(), equalTo(2));
+	}
+}
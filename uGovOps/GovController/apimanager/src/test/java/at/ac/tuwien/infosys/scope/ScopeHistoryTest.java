@@ -0,0 +1,97 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class ScopeHistoryTest {
+
+	private ScopeHistory history;
+	private String key;
+
+	@Before
+	public void setUp() {
+		history = new ScopeHistory(2);
+		key = ScopeHistory.key("p1", ScopeQuery.compile("location=l1"),
+				"setProto", "set-proto", "mqtt");
+	}
+
+	@Test
+	public void test_keyIgnoresConditionOrder() {
+		assertThat(ScopeHistory.key("p", ScopeQuery.compile("a=1&b=2"), "c",
+				"m", null), equalTo(ScopeHistory.key("p",
+				ScopeQuery.compile("b=2&a=1"), "c", "m", "")));
+	}
+
+	@Test
+	public void test_firstCycleAddsAll() {
+		ScopeDelta delta = history.update(key, scope("D1", "D2"));
+		assertThat(delta.isFirst(), equalTo(true));
+		assertThat(ids(delta.getAdded()), equalTo(set("D1", "D2")));
+		assertThat(delta.getRemoved(), equalTo(Collections.<String> emptySet()));
+	}
+
+	@Test
+	public void test_delta() {
+		history.update(key, scope("D1", "D2", "D3"));
+		// new device objects with the same ids, e.g., of a newer version
+		ScopeDelta delta = history.update(key, scope("D2", "D3", "D4"));
+		assertThat(delta.isFirst(), equalTo(false));
+		assertThat(ids(delta.getAdded()), equalTo(set("D4")));
+		assertThat(delta.getRemoved(), equalTo(set("D1")));
+		assertThat(delta.getUnchanged(), equalTo(2));
+
+		delta = history.update(key, scope("D2", "D3", "D4"));
+		assertThat(ids(delta.getAdded()), equalTo(Collections.<String> emptySet()));
+		assertThat(delta.getRemoved(), equalTo(Collections.<String> emptySet()));
+		assertThat(delta.getUnchanged(), equalTo(3));
+	}
+
+	@Test
+	public void test_forgottenDeviceIsAddedAgain() {
+		history.update(key, scope("D1", "D2"));
+		history.forget(key, "D2");
+		ScopeDelta delta = history.update(key, scope("D1", "D2"));
+		assertThat(ids(delta.getAdded()), equalTo(set("D2")));
+	}
+
+	@Test
+	public void test_eldestEntryIsEvicted() {
+		history.update("a", scope("D1"));
+		history.update("b", scope("D1"));
+		history.update("a", scope("D1"));
+		history.update("c", scope("D1"));
+		assertThat(history.size(), equalTo(2));
+		assertThat(history.update("b", scope("D1")).isFirst(), equalTo(true));
+		assertThat(history.update("a", scope("D1")).isFirst(), equalTo(true));
+	}
+
+	private static Set<DeviceDTO> scope(String... ids) {
+		Set<DeviceDTO> scope = new HashSet<>();
+		for (String id : ids) {
+			scope.add(new DeviceDTO(id));
+		}
+		return scope;
+	}
+
+	private static Set<String> ids(Set<DeviceDTO> devices) {
+		Set<String> ids = new HashSet<>();
+		for (DeviceDTO device : devices) {
+			ids.add(device.getId());
+		}
+		return ids;
+	}
+
+	private static Set<String> set(String... ids) {
+		return new HashSet<>(Arrays.asList(ids));
+	}
+}
@@ -0,0 +1,68 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class ScopeQueryTest {
+
+	private DeviceDTO d1;
+	private DeviceDTO d2;
+	private DeviceDTO d3;
+	private List<DeviceDTO> devices;
+
+	@Before
+	public void setUp() {
+		d1 = new DeviceDTO("D1");
+		d1.addMeta("location", "home");
+		d1.addMeta("owner", "stefan");
+		d2 = new DeviceDTO("D2");
+		d2.addMeta("location", "x");
+		d2.addMeta("owner", "stefan");
+		// no owner
+		d3 = new DeviceDTO("D3");
+		d3.addMeta("location", "home");
+		devices = new ArrayList<>(Arrays.asList(d1, d2, d3));
+	}
+
+	@Test
+	public void test_orOfAnds() {
+		List<DeviceDTO> result = ScopeQuery.compile(
+				"location=home&owner=stefanORlocation=x").select(devices);
+		assertThat(result, equalTo(Arrays.asList(d1, d2)));
+	}
+
+	@Test
+	public void test_missingKeyDoesNotMatch() {
+		List<DeviceDTO> result = ScopeQuery.compile("owner=stefan").select(
+				devices);
+		assertThat(result, equalTo(Arrays.asList(d1, d2)));
+	}
+
+	@Test
+	public void test_deviceMatchingSeveralDisjunctsIsSelectedOnce() {
+		List<DeviceDTO> result = ScopeQuery.compile(
+				"location=homeORowner=stefan").select(devices);
+		assertThat(result, equalTo(Arrays.asList(d1, d2, d3)));
+	}
+
+	@Test
+	public void test_planIsCached() {
+		assertThat(ScopeQuery.compile("location=home"),
+				sameInstance(ScopeQuery.compile("location=home")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_malformedQuery() {
+		ScopeQuery.compile("location=home&owner");
+	}
+}
@@ -0,0 +1,113 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+
+public class ScopeSketchesTest {
+
+	private static final String REPLACEMENT = "location=?&owner=+";
+
+	private BlockIndex index;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(9);
+		List<DeviceDTO> devices = new ArrayList<DeviceDTO>();
+		for (int i = 0; i < 20000; i++) {
+			DeviceDTO d = new DeviceDTO("D" + i);
+			d.addMeta("location", random.nextInt(10) == 0 ? "" : "location"
+					+ random.nextInt(4));
+			d.addMeta("owner", random.nextInt(10) == 0 ? "" : "owner"
+					+ random.nextInt(2));
+			devices.add(d);
+		}
+		index = new BlockIndex();
+		index.reload(devices);
+	}
+
+	@Test
+	public void test_estimatesAreCloseToExactSizes() {
+		ScopeSketches sketches = new ScopeSketches();
+		for (String query : new String[] { "location=location1",
+				"location=location1&owner=owner0",
+				"location=location2ORowner=owner1" }) {
+			ScopeQuery scopeQuery = ScopeQuery.compile(query);
+			ScopeEstimate estimate = sketches.estimate(REPLACEMENT,
+					scopeQuery, index);
+			int certain = index.getSnapshot(REPLACEMENT, scopeQuery)
+					.getTargetScope().size();
+			assertThat(estimate.getDevices(), equalTo(20000L));
+			assertThat(Math.abs(estimate.getLower() - certain) < 0.1 * certain,
+					equalTo(true));
+			assertThat(estimate.getUpper() >= estimate.getLower(),
+					equalTo(true));
+		}
+	}
+
+	@Test
+	public void test_possibleMatchesIncludeMissingData() {
+		ScopeSketches sketches = new ScopeSketches();
+		ScopeEstimate estimate = sketches.estimate(REPLACEMENT,
+				ScopeQuery.compile("location=location1"), index);
+		// about 1/4 of the devices have location1 and 1/10 are missing
+		assertThat(estimate.getUpper() > estimate.getLower() + 1000,
+				equalTo(true));
+	}
+
+	@Test
+	public void test_sketchesAreRebuiltOnChange() {
+		ScopeSketches sketches = new ScopeSketches();
+		ScopeQuery query = ScopeQuery.compile("location=mars");
+		assertThat(sketches.estimate(REPLACEMENT, query, index).getLower(),
+				equalTo(0L));
+		index.register("D20000", "location=mars&owner=owner0");
+		assertThat(sketches.estimate(REPLACEMENT, query, index).getLower(),
+				equalTo(1L));
+	}
+
+	@Test
+	public void test_removedDevicesRebuildSketches() {
+		ScopeSketches sketches = new ScopeSketches();
+		ScopeQuery query = ScopeQuery.compile("location=location1");
+		assertThat(sketches.estimate(REPLACEMENT, query, index).getLower() > 4000,
+				equalTo(true));
+		for (DeviceDTO d : index.getDevices()) {
+			if ("location1".equals(d.getMeta().get("location"))) {
+				index.unregister(d.getId());
+			}
+		}
+		ScopeEstimate estimate = sketches.estimate(REPLACEMENT, query, index);
+		assertThat(estimate.getLower(), equalTo(0L));
+		assertThat(estimate.getDevices(), equalTo((long) index.size()));
+	}
+
+	@Test
+	public void test_highCardinalityAttributeIsNotSketched() {
+		for (DeviceDTO d : index.getDevices()) {
+			DeviceDTO serial = new DeviceDTO(d.getId());
+			serial.addMeta("location", d.getMeta().get("location"));
+			serial.addMeta("serial", "S" + d.getId());
+			index.register(serial);
+		}
+		ScopeSketches sketches = new ScopeSketches(12, 100);
+		ScopeEstimate estimate = sketches.estimate(REPLACEMENT,
+				ScopeQuery.compile("serial=SD5"), index);
+		assertThat(estimate.getUnsketched(), equalTo(Arrays.asList("serial")));
+		assertThat(estimate.getLower(), equalTo(0L));
+		assertThat(estimate.getUpper() > 19000, equalTo(true));
+		estimate = sketches.estimate(REPLACEMENT,
+				ScopeQuery.compile("location=location1"), index);
+		assertThat(estimate.getUnsketched().isEmpty(), equalTo(true));
+		assertThat(estimate.getLower() > 4000, equalTo(true));
+	}
+}
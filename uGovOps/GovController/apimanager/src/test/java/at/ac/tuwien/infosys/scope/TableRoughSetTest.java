@@ -0,0 +1,91 @@
+package at.ac.tuwien.infosys.scope;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.RoughScopeManager;
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+import at.ac.tuwien.infosys.store.model.DeviceTable;
+
+public class TableRoughSetTest {
+
+	private static final String REPLACEMENT = "location=?&owner=+&type=-";
+
+	private final List<String> attributes = Arrays.asList("owner",
+			"location", "type");
+	private final String[] values = { "", "?", "+", "-", "*", "a", "b", "c" };
+
+	private List<DeviceDTO> devices;
+	private DeviceTable table;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(5);
+		devices = new ArrayList<DeviceDTO>();
+		for (int i = 0; i < 300; i++) {
+			DeviceDTO d = new DeviceDTO("D" + i);
+			for (String attribute : attributes) {
+				d.addMeta(attribute, values[random.nextInt(values.length)]);
+			}
+			d.setDecision(random.nextBoolean() ? DECISION.GOOD : DECISION.BAD);
+			devices.add(d);
+		}
+		table = DeviceTable.of(devices);
+	}
+
+	@Test
+	public void test_tableMatchesDeviceApproximations() {
+		RoughScopeManager rgsm = new RoughScopeManager();
+		DeviceTable prepared = rgsm.prepareData(table, REPLACEMENT);
+		List<DeviceDTO> preparedDevices = rgsm
+				.prepareData(devices, REPLACEMENT);
+		Map<Block, List<DeviceDTO>> blocks = rgsm.handleSpecialValues(
+				rgsm.makeBlocks(preparedDevices), preparedDevices);
+		for (String query : Arrays.asList("location=a", "owner=b&type=c",
+				"location=cORtype=a&owner=a")) {
+			BitSet rows = rgsm.getRowsForORQuery(prepared, query);
+			List<DeviceDTO> subset = rgsm.getDeviceDTOsForORQuery(
+					preparedDevices, query);
+			assertThat(ids(prepared, rows), equalTo(ids(subset)));
+			assertThat(ids(prepared, rgsm.buildUpperApproximation(rows,
+					prepared, attributes)), equalTo(ids(rgsm
+					.buildUpperApproximation(subset, preparedDevices,
+							attributes, blocks))));
+			assertThat(ids(prepared, rgsm.buildLowerApproximationOptimized(
+					rows, prepared, attributes)), equalTo(ids(rgsm
+					.buildLowerApproximationOptimized(subset, preparedDevices,
+							attributes, blocks))));
+		}
+	}
+
+	private Set<String> ids(DeviceTable table, BitSet rows) {
+		Set<String> ids = new HashSet<String>();
+		for (int row = rows.nextSetBit(0); row >= 0; row = rows
+				.nextSetBit(row + 1)) {
+			ids.add(table.getId(row));
+		}
+		return ids;
+	}
+
+	private Set<String> ids(Iterable<DeviceDTO> devices) {
+		Set<String> ids = new HashSet<String>();
+		for (DeviceDTO d : devices) {
+			ids.add(d.getId());
+		}
+		return ids;
+	}
+}
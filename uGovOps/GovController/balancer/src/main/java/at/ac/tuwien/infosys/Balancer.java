@@ -24,6 +24,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,6 +37,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -100,6 +102,19 @@ public class Balancer {
 		return nodeManager.resolve(deviceId);
 	}
 
+	/**
+	 * Resolves the nodes of many devices with one request, e.g., to group
+	 * the devices of a governance scope by their manager.
+	 * 
+	 * @param deviceIds
+	 * @return device ids per node IP, unmanaged devices are omitted
+	 */
+	@RequestMapping(value = "/resolve", method = RequestMethod.POST)
+	public Map<String, List<String>> getNodes(
+			@RequestBody List<String> deviceIds) {
+		return nodeManager.resolve(deviceIds);
+	}
+
 	@RequestMapping(value = "/assign/{deviceId}", method = RequestMethod.GET)
 	public DeferredResult<String> assignNode(@PathVariable String deviceId) {
 		return nodeManager.scheduleNode(deviceId);
@@ -20,7 +20,9 @@
  */
 package at.ac.tuwien.infosys.manager;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.web.context.request.async.DeferredResult;
 
@@ -36,6 +38,15 @@ public interface INodeManager {
 	 */
 	public String resolve(String deviceId);
 
+	/**
+	 * Resolves the nodes that are responsible for the given devices at once.
+	 * 
+	 * @param deviceIds
+	 * @return the given devices grouped by node, devices that are not managed
+	 *         by a running node are omitted
+	 */
+	public Map<String, List<String>> resolve(Collection<String> deviceIds);
+
 	/**
 	 * Returns the list of running nodes containing the IP address.
 	 * 
@@ -21,7 +21,11 @@
 package at.ac.tuwien.infosys.manager;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -113,6 +117,23 @@ public class NodeManager implements INodeManager {
 		return null;
 	}
 
+	public synchronized Map<String, List<String>> resolve(
+			Collection<String> deviceIds) {
+		// one pass over the managed devices instead of one per device
+		Set<String> requested = new HashSet<String>(deviceIds);
+		Map<String, List<String>> ret = new HashMap<String, List<String>>();
+		for (Node n : runningNodes.values()) {
+			List<String> managed = new ArrayList<String>();
+			for (String device : n.getDevices())
+				if (requested.remove(device))
+					managed.add(device);
+
+			if (!managed.isEmpty())
+				ret.put(n.getIp(), managed);
+		}
+		return ret;
+	}
+
 	public List<String> getAllNodes() {
 		List<String> ret = new ArrayList<String>(runningNodes.keySet());
 		ret.addAll(new ArrayList<String>(idleNodes.keySet()));
@@ -145,6 +145,21 @@ public class NodeManagerTest {
 		assertNull(resolved);
 	}
 
+	@Test
+	public void testResolve_batch() {
+		Node temp = new Node(node1IP, Arrays.asList(device1ID, device2ID));
+		Node temp2 = new Node(node2IP, Arrays.asList(device3ID));
+		nodeManager.getRunningNodes().put(node1IP, temp);
+		nodeManager.getRunningNodes().put(node2IP, temp2);
+
+		Map<String, List<String>> resolved = nodeManager.resolve(Arrays
+				.asList(device2ID, device3ID, device4ID));
+
+		assertThat(resolved.size(), equalTo(2));
+		assertThat(resolved.get(node1IP), equalTo(Arrays.asList(device2ID)));
+		assertThat(resolved.get(node2IP), equalTo(Arrays.asList(device3ID)));
+	}
+
 	@Test
 	public void test_provision_noRunningNodes() {
 		assertThat(nodeManager.getRunningNodes().size(), equalTo(0));
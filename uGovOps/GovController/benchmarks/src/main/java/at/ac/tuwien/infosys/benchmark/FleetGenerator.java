@@ -0,0 +1,60 @@
+package at.ac.tuwien.infosys.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+/**
+ * Generates fleets like the hand-written TrainingSet10 - TrainingSet50 of
+ * the API manager, but of arbitrary size. Every device gets a value for owner,
+ * location and type out of cardinality values per attribute. With probability
+ * missingRatio a value is missing (""). The decision is GOOD if the complete
+ * meta info of the device matches the target query.
+ * 
+ * @author stefan
+ *
+ */
+public class FleetGenerator {
+
+	public static final List<String> ATTRIBUTES = Arrays.asList("owner",
+			"location", "type");
+	public static final String TARGET_QUERY = "location=location0&owner=owner0";
+	public static final String REPLACEMENT = "location=?&owner=+&type=-";
+
+	private final int cardinality;
+	private final double missingRatio;
+	private final long seed;
+
+	public FleetGenerator(int cardinality, double missingRatio, long seed) {
+		this.cardinality = cardinality;
+		this.missingRatio = missingRatio;
+		this.seed = seed;
+	}
+
+	public List<DeviceDTO> generate(int size) {
+		Random random = new Random(this.seed);
+		List<DeviceDTO> devices = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			DeviceDTO device = new DeviceDTO("D" + i);
+			boolean relevant = true;
+			for (String attribute : ATTRIBUTES) {
+				int value = random.nextInt(this.cardinality);
+				if (!"type".equals(attribute)) {
+					relevant &= value == 0;
+				}
+				if (random.nextDouble() < this.missingRatio) {
+					device.addMeta(attribute, "");
+				} else {
+					device.addMeta(attribute, attribute + value);
+				}
+			}
+			device.setDecision(relevant ? DECISION.GOOD : DECISION.BAD);
+			devices.add(device);
+		}
+		return devices;
+	}
+}
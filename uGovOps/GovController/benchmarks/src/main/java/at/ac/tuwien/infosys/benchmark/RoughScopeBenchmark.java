@@ -0,0 +1,152 @@
+package at.ac.tuwien.infosys.benchmark;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import at.ac.tuwien.infosys.RoughScopeManager;
+import at.ac.tuwien.infosys.RoughScopeManager.Block;
+import at.ac.tuwien.infosys.RoughScopeManager.Engine;
+import at.ac.tuwien.infosys.scope.BitsetRoughSet;
+import at.ac.tuwien.infosys.store.model.DeviceDTO;
+import at.ac.tuwien.infosys.store.model.DeviceTable;
+
+/**
+ * Benchmarks of the rough-set scope selection on generated fleets. Run with
+ * 
+ * <pre>
+ * mvn -P benchmarks package
+ * java -jar benchmarks/target/benchmarks.jar RoughScopeBenchmark -prof gc
+ * </pre>
+ * 
+ * -prof gc reports the allocation rate and GC counts next to the time per
+ * operation. Single parameters can be overridden, e.g., -p devices=1000 -p
+ * engine=SET. Note that handleSpecialValues and the SET engine are quadratic
+ * in the number of devices, thus they are not feasible for the largest
+ * fleets.
+ * 
+ * @author stefan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class RoughScopeBenchmark {
+
+	private static final long SEED = 42;
+	private static final int CHARACTERISTIC_SET_SAMPLE = 1000;
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int devices;
+
+	@Param({ "10", "100" })
+	public int cardinality;
+
+	@Param({ "0.1", "0.3" })
+	public double missingRatio;
+
+	@Param({ "BITSET", "CLASSES" })
+	public String engine;
+
+	// devices per fork-join task, 0 = sequential
+	@Param({ "0" })
+	public int parallelThreshold;
+
+	private RoughScopeManager rgsm;
+	private List<DeviceDTO> fleet;
+	private List<DeviceDTO> target;
+	private Map<Block, List<DeviceDTO>> processedBlocks;
+	private BitsetRoughSet bitsetRoughSet;
+	private DeviceTable table;
+	private BitSet targetRows;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.rgsm = new RoughScopeManager(Engine.valueOf(this.engine));
+		this.rgsm.setParallelism(ForkJoinPool.commonPool(),
+				this.parallelThreshold);
+		List<DeviceDTO> generated = new FleetGenerator(this.cardinality,
+				this.missingRatio, SEED).generate(this.devices);
+		this.table = this.rgsm.prepareData(DeviceTable.of(generated),
+				FleetGenerator.REPLACEMENT);
+		this.targetRows = this.rgsm.getRowsForORQuery(this.table,
+				FleetGenerator.TARGET_QUERY);
+		this.fleet = this.rgsm.prepareData(generated,
+				FleetGenerator.REPLACEMENT);
+		this.target = this.rgsm.getDeviceDTOsForORQuery(this.fleet,
+				FleetGenerator.TARGET_QUERY);
+		this.processedBlocks = this.rgsm.handleSpecialValues(
+				this.rgsm.makeBlocks(this.fleet), this.fleet);
+		this.bitsetRoughSet = new BitsetRoughSet(this.processedBlocks,
+				this.fleet);
+	}
+
+	@Benchmark
+	public Map<Block, List<DeviceDTO>> makeBlocks() {
+		return this.rgsm.makeBlocks(this.fleet);
+	}
+
+	/**
+	 * Includes makeBlocks, since handleSpecialValues modifies the blocks.
+	 */
+	@Benchmark
+	public Map<Block, List<DeviceDTO>> makeAndHandleSpecialValues() {
+		return this.rgsm.handleSpecialValues(this.rgsm.makeBlocks(this.fleet),
+				this.fleet);
+	}
+
+	/**
+	 * Characteristic sets of a fixed sample of devices.
+	 */
+	@Benchmark
+	public void buildCaracteristicSet(Blackhole bh) {
+		int step = Math.max(1, this.fleet.size() / CHARACTERISTIC_SET_SAMPLE);
+		for (int i = 0; i < this.fleet.size(); i += step) {
+			bh.consume(this.bitsetRoughSet.buildCaracteristicSet(
+					this.fleet.get(i), FleetGenerator.ATTRIBUTES));
+		}
+	}
+
+	@Benchmark
+	public Set<DeviceDTO> upperApproximation() {
+		return this.rgsm.buildUpperApproximation(this.target, this.fleet,
+				FleetGenerator.ATTRIBUTES, this.processedBlocks);
+	}
+
+	@Benchmark
+	public Set<DeviceDTO> lowerApproximation() {
+		return this.rgsm.buildLowerApproximationOptimized(this.target,
+				this.fleet, FleetGenerator.ATTRIBUTES, this.processedBlocks);
+	}
+
+	/**
+	 * Blocks and upper approximation straight from the columnar device
+	 * table, for comparison with makeAndHandleSpecialValues +
+	 * upperApproximation.
+	 */
+	@Benchmark
+	public BitSet tableUpperApproximation() {
+		return this.rgsm.buildUpperApproximation(this.targetRows, this.table,
+				FleetGenerator.ATTRIBUTES);
+	}
+}
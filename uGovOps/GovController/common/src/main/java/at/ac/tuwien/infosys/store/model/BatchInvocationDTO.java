@@ -0,0 +1,66 @@
+package at.ac.tuwien.infosys.store.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Invocation of a capability on a batch of devices of one manager node. The
+ * manager invokes the devices itself and streams back one
+ * {@link InvocationResultDTO} per device.
+ *
+ * @author stefan
+ *
+ */
+public class BatchInvocationDTO {
+
+	private String capaId;
+	private String method;
+	private String args;
+	private List<String> deviceIds = new ArrayList<String>();
+
+	public BatchInvocationDTO() {
+	}
+
+	public BatchInvocationDTO(String capaId, String method, String args,
+			List<String> deviceIds) {
+		this.capaId = capaId;
+		this.method = method;
+		this.args = args;
+		this.deviceIds = deviceIds;
+	}
+
+	public String getCapaId() {
+		return capaId;
+	}
+
+	public void setCapaId(String capaId) {
+		this.capaId = capaId;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public void setMethod(String method) {
+		this.method = method;
+	}
+
+	/**
+	 * Comma separated arguments, null if the method has none.
+	 */
+	public String getArgs() {
+		return args;
+	}
+
+	public void setArgs(String args) {
+		this.args = args;
+	}
+
+	public List<String> getDeviceIds() {
+		return deviceIds;
+	}
+
+	public void setDeviceIds(List<String> deviceIds) {
+		this.deviceIds = deviceIds;
+	}
+}
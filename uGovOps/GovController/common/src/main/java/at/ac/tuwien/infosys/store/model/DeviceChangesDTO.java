@@ -0,0 +1,99 @@
+package at.ac.tuwien.infosys.store.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Devices of a manager that changed since a sequence number. A manager bumps
+ * its sequence number on every register, unregister and meta info update.
+ * If the requested sequence number is not known anymore (e.g., the manager
+ * was restarted and has a different epoch), the response is full: devices
+ * contains all devices and replaces the replica of the caller.
+ *
+ * @author stefan
+ *
+ */
+public class DeviceChangesDTO {
+
+	private String epoch;
+	private long since;
+	private long sequence;
+	private boolean full;
+	private List<DeviceDTO> devices = new ArrayList<DeviceDTO>();
+	private List<String> removed = new ArrayList<String>();
+
+	public DeviceChangesDTO() {
+	}
+
+	public DeviceChangesDTO(String epoch, long since, long sequence,
+			boolean full) {
+		this.epoch = epoch;
+		this.since = since;
+		this.sequence = sequence;
+		this.full = full;
+	}
+
+	/**
+	 * Identifies the change feed, sequence numbers of different epochs are
+	 * not comparable.
+	 */
+	public String getEpoch() {
+		return epoch;
+	}
+
+	public void setEpoch(String epoch) {
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Sequence number the changes are based on.
+	 */
+	public long getSince() {
+		return since;
+	}
+
+	public void setSince(long since) {
+		this.since = since;
+	}
+
+	/**
+	 * Sequence number after the changes.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public boolean isFull() {
+		return full;
+	}
+
+	public void setFull(boolean full) {
+		this.full = full;
+	}
+
+	/**
+	 * Current state of the added or updated devices.
+	 */
+	public List<DeviceDTO> getDevices() {
+		return devices;
+	}
+
+	public void setDevices(List<DeviceDTO> devices) {
+		this.devices = devices;
+	}
+
+	/**
+	 * Ids of the unregistered devices.
+	 */
+	public List<String> getRemoved() {
+		return removed;
+	}
+
+	public void setRemoved(List<String> removed) {
+		this.removed = removed;
+	}
+}
@@ -1,6 +1,7 @@
 package at.ac.tuwien.infosys.store.model;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
 
@@ -58,10 +59,10 @@ public class DeviceDTO {
 	}
 
 	public String toString() {
-		return "Device:[id: " + this.id + ", IPAddr: " + this.ipAddress +", metaInfo: "+this.meta +"]";
+		return "Device:[id: " + this.id + ", IPAddr: " + this.ipAddress +", metaInfo: "+getMeta() +"]";
 	}
 
-	public HashMap<String, String> getMeta() {
+	public Map<String, String> getMeta() {
 		return meta;
 	}
 
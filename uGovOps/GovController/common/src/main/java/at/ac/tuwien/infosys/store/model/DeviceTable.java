@@ -0,0 +1,327 @@
+package at.ac.tuwien.infosys.store.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+/**
+ * Columnar, dictionary-encoded table of devices. Attribute names are interned
+ * to attribute ids and the values of each attribute are encoded as ints, so
+ * that a fleet is a handful of int arrays instead of one hash map per device.
+ * Scans over a column (e.g., building the blocks of an attribute) thus only
+ * touch consecutive ints.
+ *
+ * Rows are append-only. A value that is not set (or null) is encoded as
+ * {@link #NO_VALUE}. The table is not thread safe.
+ *
+ * @author stefan
+ *
+ */
+public class DeviceTable {
+
+	public static final int NO_VALUE = -1;
+	private static final byte NO_DECISION = -1;
+	private static final DECISION[] DECISIONS = DECISION.values();
+
+	private final Dictionary attributes;
+	// attribute id -> dictionary of the values
+	private final List<Dictionary> values;
+	// attribute id -> codes per row
+	private final List<int[]> columns;
+	private String[] ids;
+	private String[] names;
+	private String[] ipAddresses;
+	private String[] metaInfos;
+	private byte[] decisions;
+	private int size = 0;
+	// the arrays are shared with another table and must be copied before
+	// rows are appended
+	private boolean shared = false;
+
+	public DeviceTable() {
+		this(16);
+	}
+
+	public DeviceTable(int capacity) {
+		this.attributes = new Dictionary();
+		this.values = new ArrayList<Dictionary>();
+		this.columns = new ArrayList<int[]>();
+		this.ids = new String[capacity];
+		this.names = new String[capacity];
+		this.ipAddresses = new String[capacity];
+		this.metaInfos = new String[capacity];
+		this.decisions = new byte[capacity];
+	}
+
+	private DeviceTable(DeviceTable table) {
+		this.attributes = table.attributes.copy();
+		this.values = new ArrayList<Dictionary>(table.values);
+		this.columns = new ArrayList<int[]>(table.columns);
+		this.ids = table.ids;
+		this.names = table.names;
+		this.ipAddresses = table.ipAddresses;
+		this.metaInfos = table.metaInfos;
+		this.decisions = table.decisions;
+		this.size = table.size;
+		this.shared = true;
+	}
+
+	public static DeviceTable of(Collection<DeviceDTO> devices) {
+		DeviceTable table = new DeviceTable(Math.max(16, devices.size()));
+		for (DeviceDTO device : devices) {
+			table.add(device);
+		}
+		return table;
+	}
+
+	/**
+	 * Appends the device.
+	 *
+	 * @param device
+	 * @return the row of the device
+	 */
+	public int add(DeviceDTO device) {
+		if (this.shared || this.size == this.ids.length) {
+			grow(Math.max(16, this.size * 2));
+		}
+		int row = this.size++;
+		this.ids[row] = device.getId();
+		this.names[row] = device.getName();
+		this.ipAddresses[row] = device.getIpAddress();
+		this.metaInfos[row] = device.metaInfo;
+		this.decisions[row] = device.getDecision() == null ? NO_DECISION
+				: (byte) device.getDecision().ordinal();
+		for (Map.Entry<String, String> e : device.getMeta().entrySet()) {
+			int attr = attributeIdOrAdd(e.getKey());
+			this.columns.get(attr)[row] = e.getValue() == null ? NO_VALUE
+					: this.values.get(attr).codeOrAdd(e.getValue());
+		}
+		return row;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getAttributeCount() {
+		return this.attributes.size();
+	}
+
+	/**
+	 * Id of the attribute or {@link #NO_VALUE} if no device has it.
+	 */
+	public int attributeId(String attribute) {
+		return this.attributes.code(attribute);
+	}
+
+	public String attributeName(int attr) {
+		return this.attributes.value(attr);
+	}
+
+	public List<String> getAttributes() {
+		List<String> names = new ArrayList<String>(this.attributes.size());
+		for (int i = 0; i < this.attributes.size(); i++) {
+			names.add(this.attributes.value(i));
+		}
+		return names;
+	}
+
+	/**
+	 * Code of the value or {@link #NO_VALUE} if no device has the value.
+	 */
+	public int valueCode(int attr, String value) {
+		return value == null ? NO_VALUE : this.values.get(attr).code(value);
+	}
+
+	public String value(int attr, int code) {
+		return code == NO_VALUE ? null : this.values.get(attr).value(code);
+	}
+
+	/**
+	 * Number of codes of the attribute, codes are 0 ... cardinality - 1.
+	 */
+	public int cardinality(int attr) {
+		return this.values.get(attr).size();
+	}
+
+	public int code(int row, int attr) {
+		return this.columns.get(attr)[row];
+	}
+
+	/**
+	 * Codes of the attribute indexed by row. Only the first {@link #size()}
+	 * entries are valid, the array must not be modified.
+	 */
+	public int[] column(int attr) {
+		return this.columns.get(attr);
+	}
+
+	public String get(int row, String attribute) {
+		int attr = attributeId(attribute);
+		return attr == NO_VALUE ? null : value(attr, code(row, attr));
+	}
+
+	public String getId(int row) {
+		return this.ids[row];
+	}
+
+	public String getName(int row) {
+		return this.names[row];
+	}
+
+	public String getIpAddress(int row) {
+		return this.ipAddresses[row];
+	}
+
+	public String getMetaInfo(int row) {
+		return this.metaInfos[row];
+	}
+
+	public DECISION getDecision(int row) {
+		return this.decisions[row] == NO_DECISION ? null
+				: DECISIONS[this.decisions[row]];
+	}
+
+	/**
+	 * Materializes the row as a device. Every call returns a new device.
+	 */
+	public DeviceDTO toDevice(int row) {
+		DeviceDTO device = new DeviceDTO(this.ids[row], this.names[row],
+				this.metaInfos[row]);
+		device.setIpAddress(this.ipAddresses[row]);
+		device.setDecision(getDecision(row));
+		for (int attr = 0; attr < this.columns.size(); attr++) {
+			int code = this.columns.get(attr)[row];
+			if (code != NO_VALUE) {
+				device.addMeta(this.attributes.value(attr),
+						this.values.get(attr).value(code));
+			}
+		}
+		return device;
+	}
+
+	public List<DeviceDTO> toDevices() {
+		List<DeviceDTO> devices = new ArrayList<DeviceDTO>(this.size);
+		for (int row = 0; row < this.size; row++) {
+			devices.add(toDevice(row));
+		}
+		return devices;
+	}
+
+	/**
+	 * Table with the value of the attribute replaced in every row, e.g., ""
+	 * by "?". Only the columns of the replaced attributes are copied, the
+	 * other columns are shared with this table.
+	 *
+	 * @param value
+	 *            value to replace
+	 * @param replacements
+	 *            attribute -> replacement, a null replacement removes the value
+	 * @return
+	 */
+	public DeviceTable replace(String value, Map<String, String> replacements) {
+		DeviceTable table = new DeviceTable(this);
+		for (Map.Entry<String, String> r : replacements.entrySet()) {
+			int attr = attributeId(r.getKey());
+			if (attr == NO_VALUE) {
+				continue;
+			}
+			int from = valueCode(attr, value);
+			if (from == NO_VALUE) {
+				continue;
+			}
+			Dictionary dictionary = this.values.get(attr).copy();
+			int to = r.getValue() == null ? NO_VALUE : dictionary
+					.codeOrAdd(r.getValue());
+			int[] column = Arrays.copyOf(this.columns.get(attr),
+					this.columns.get(attr).length);
+			for (int row = 0; row < this.size; row++) {
+				if (column[row] == from) {
+					column[row] = to;
+				}
+			}
+			table.values.set(attr, dictionary);
+			table.columns.set(attr, column);
+		}
+		return table;
+	}
+
+	private int attributeIdOrAdd(String attribute) {
+		int attr = this.attributes.codeOrAdd(attribute);
+		if (attr == this.columns.size()) {
+			int[] column = new int[this.ids.length];
+			Arrays.fill(column, NO_VALUE);
+			this.columns.add(column);
+			this.values.add(new Dictionary());
+		}
+		return attr;
+	}
+
+	private void grow(int capacity) {
+		capacity = Math.max(capacity, this.ids.length);
+		this.ids = Arrays.copyOf(this.ids, capacity);
+		this.names = Arrays.copyOf(this.names, capacity);
+		this.ipAddresses = Arrays.copyOf(this.ipAddresses, capacity);
+		this.metaInfos = Arrays.copyOf(this.metaInfos, capacity);
+		this.decisions = Arrays.copyOf(this.decisions, capacity);
+		for (int attr = 0; attr < this.columns.size(); attr++) {
+			int[] column = Arrays.copyOf(this.columns.get(attr), capacity);
+			Arrays.fill(column, this.size, capacity, NO_VALUE);
+			this.columns.set(attr, column);
+			if (this.shared) {
+				this.values.set(attr, this.values.get(attr).copy());
+			}
+		}
+		this.shared = false;
+	}
+
+	/**
+	 * Bidirectional mapping between strings and dense int codes.
+	 */
+	static class Dictionary {
+		private final Map<String, Integer> codes;
+		private final List<String> values;
+
+		Dictionary() {
+			this(new HashMap<String, Integer>(), new ArrayList<String>());
+		}
+
+		private Dictionary(Map<String, Integer> codes, List<String> values) {
+			this.codes = codes;
+			this.values = values;
+		}
+
+		int code(String value) {
+			Integer code = this.codes.get(value);
+			return code == null ? NO_VALUE : code;
+		}
+
+		int codeOrAdd(String value) {
+			Integer code = this.codes.get(value);
+			if (code == null) {
+				code = this.values.size();
+				this.codes.put(value, code);
+				this.values.add(value);
+			}
+			return code;
+		}
+
+		String value(int code) {
+			return this.values.get(code);
+		}
+
+		int size() {
+			return this.values.size();
+		}
+
+		Dictionary copy() {
+			return new Dictionary(new HashMap<String, Integer>(this.codes),
+					new ArrayList<String>(this.values));
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package at.ac.tuwien.infosys.store.model;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Result of the invocation of one device of a {@link BatchInvocationDTO},
+ * either the status and body of the device's response or an error. Results
+ * are streamed as one JSON object per line, e.g.,
+ *
+ * <pre>
+ * {"device":"10_0_0_1","status":200,"body":"..."}
+ * {"device":"10_0_0_2","error":"Connection refused"}
+ * </pre>
+ *
+ * @author stefan
+ *
+ */
+public class InvocationResultDTO {
+
+	public static final String CONTENT_TYPE = "application/x-ndjson";
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private String device;
+	private int status;
+	private String body;
+	private String error;
+
+	public InvocationResultDTO() {
+	}
+
+	public static InvocationResultDTO response(String device, int status,
+			String body) {
+		InvocationResultDTO result = new InvocationResultDTO();
+		result.device = device;
+		result.status = status;
+		result.body = body;
+		return result;
+	}
+
+	public static InvocationResultDTO error(String device, String error) {
+		InvocationResultDTO result = new InvocationResultDTO();
+		result.device = device;
+		result.error = error;
+		return result;
+	}
+
+	public String getDevice() {
+		return device;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Message of the failed invocation, null if the device responded.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Writes the result as one line.
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		JsonGenerator json = JSON.createGenerator(writer);
+		json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		json.writeStartObject();
+		json.writeStringField("device", this.device);
+		if (this.error != null) {
+			json.writeStringField("error", this.error);
+		} else {
+			json.writeNumberField("status", this.status);
+			json.writeStringField("body", this.body);
+		}
+		json.writeEndObject();
+		json.close();
+		writer.write('\n');
+	}
+
+	/**
+	 * Reads a line written by {@link #writeTo}.
+	 */
+	public static InvocationResultDTO readFrom(String line) throws IOException {
+		InvocationResultDTO result = new InvocationResultDTO();
+		JsonParser json = JSON.createParser(line);
+		try {
+			if (json.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Not an invocation result: " + line);
+			}
+			while (json.nextToken() == JsonToken.FIELD_NAME) {
+				String field = json.getCurrentName();
+				JsonToken value = json.nextToken();
+				if ("status".equals(field)) {
+					result.status = json.getIntValue();
+				} else if (value == JsonToken.VALUE_NULL) {
+					continue;
+				} else if ("device".equals(field)) {
+					result.device = json.getText();
+				} else if ("body".equals(field)) {
+					result.body = json.getText();
+				} else if ("error".equals(field)) {
+					result.error = json.getText();
+				} else {
+					json.skipChildren();
+				}
+			}
+		} finally {
+			json.close();
+		}
+		if (result.device == null) {
+			throw new IOException("Invocation result without device: " + line);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,78 @@
+package at.ac.tuwien.infosys.store.model;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.DeviceDTO.Decison.DECISION;
+
+public class DeviceTableTest {
+
+	private DeviceTable table;
+
+	@Before
+	public void setUp() {
+		List<DeviceDTO> devices = new ArrayList<DeviceDTO>();
+		for (int i = 0; i < 100; i++) {
+			DeviceDTO d = new DeviceDTO("D" + i, "device" + i, "");
+			d.addMeta("location", i % 10 == 0 ? "" : "location" + i % 3);
+			if (i % 2 == 0) {
+				d.addMeta("owner", "stefan");
+			}
+			d.setDecision(i % 4 == 0 ? DECISION.GOOD : null);
+			devices.add(d);
+		}
+		table = DeviceTable.of(devices);
+	}
+
+	@Test
+	public void test_valuesAreDictionaryEncoded() {
+		assertThat(table.size(), equalTo(100));
+		assertThat(table.getAttributeCount(), equalTo(2));
+		int location = table.attributeId("location");
+		// location0, location1, location2 and ""
+		assertThat(table.cardinality(location), equalTo(4));
+		assertThat(table.code(1, location),
+				equalTo(table.valueCode(location, "location1")));
+		assertThat(table.get(3, "owner"), equalTo(null));
+		assertThat(table.code(3, table.attributeId("owner")),
+				equalTo(DeviceTable.NO_VALUE));
+	}
+
+	@Test
+	public void test_toDeviceRestoresDevice() {
+		DeviceDTO d = table.toDevice(4);
+		assertThat(d.getId(), equalTo("D4"));
+		assertThat(d.getName(), equalTo("device4"));
+		assertThat(d.getMeta().get("location"), equalTo("location1"));
+		assertThat(d.getMeta().get("owner"), equalTo("stefan"));
+		assertThat(d.getDecision(), equalTo(DECISION.GOOD));
+		assertThat(table.toDevice(5).getMeta().containsKey("owner"),
+				equalTo(false));
+		assertThat(table.toDevice(5).getDecision(), equalTo(null));
+	}
+
+	@Test
+	public void test_replaceDoesNotModifyTable() {
+		DeviceTable replaced = table.replace("",
+				Collections.singletonMap("location", "?"));
+		assertThat(replaced.get(10, "location"), equalTo("?"));
+		assertThat(table.get(10, "location"), equalTo(""));
+		assertThat(replaced.get(11, "location"), equalTo("location2"));
+		// both tables can grow independently
+		DeviceDTO d = new DeviceDTO("D100");
+		d.addMeta("location", "x");
+		replaced.add(d);
+		table.add(new DeviceDTO("D100"));
+		assertThat(replaced.get(100, "location"), equalTo("x"));
+		assertThat(table.get(100, "location"), equalTo(null));
+		assertThat(table.valueCode(table.attributeId("location"), "?"),
+				equalTo(DeviceTable.NO_VALUE));
+	}
+}
@@ -25,10 +25,14 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.logging.Logger;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.concurrent.ListenableFuture;
@@ -41,12 +45,17 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.AsyncRestTemplate;
 
+import at.ac.tuwien.infosys.invocation.BatchInvoker;
 import at.ac.tuwien.infosys.model.Device;
 import at.ac.tuwien.infosys.model.Profile;
+import at.ac.tuwien.infosys.store.ChangeFeed;
 import at.ac.tuwien.infosys.store.IDeviceStore;
 import at.ac.tuwien.infosys.store.Image;
+import at.ac.tuwien.infosys.store.model.BatchInvocationDTO;
+import at.ac.tuwien.infosys.store.model.DeviceChangesDTO;
 import at.ac.tuwien.infosys.store.model.DeviceDTO;
 import at.ac.tuwien.infosys.store.model.DevicesDTO;
+import at.ac.tuwien.infosys.store.model.InvocationResultDTO;
 
 @RestController
 @RequestMapping("/device-manager")
@@ -58,8 +67,18 @@ public class DeviceManager {
 	@Autowired
 	private IDeviceStore deviceStore;
 
+	@Autowired
+	private ChangeFeed changeFeed;
+
+	@Autowired
+	private BatchInvoker batchInvoker;
+
 	@Autowired
 	private AsyncRestTemplate asyncRestTemplate;
+
+	// API manager that keeps the block index of the governance scope
+	@Value("${apimanager.url}")
+	private String apiManagerUrl;
 	
 	/**
 	 * This method is used by SD gateway to report its current profile to the
@@ -138,6 +157,8 @@ public class DeviceManager {
 			deviceStore.addDevice(id);
 		}
 		deviceStore.addDeviceMetaInfo(id, metaInfo);
+		notifyScopeIndex(asyncRestTemplate.postForEntity(scopeIndexUrl(id),
+				new HttpEntity<String>(metaInfo), String.class), id);
 		return new ResponseEntity<String>("Meta Info added for: " + id,
 				HttpStatus.OK);
 	}
@@ -278,19 +299,86 @@ public class DeviceManager {
 		DevicesDTO dtos = new DevicesDTO();
 
 		for (Device device : devices) {
-			// location=gh1&type=FM5300
-			DeviceDTO dto = new DeviceDTO(device.getId(), device.getName(),
-					device.getMetaInfo());
-			String[] meta = device.getMetaInfo().split("&");
-			for (String datum : meta) {
-				String[] split = datum.split("=");
-				dto.addMetaData(split[0], split[1]);
-			}
-			dtos.addDTO(dto);
+			dtos.addDTO(toDTO(device));
 		}
 		return new ResponseEntity<DevicesDTO>(dtos, HttpStatus.OK);
 	}
 
+	/**
+	 * Devices that changed since the sequence number, e.g.,
+	 * /devices?since=42&epoch=..., used by the API manager to keep its replica
+	 * of this manager's devices up to date. All devices are returned if the
+	 * changes since the sequence number are not known anymore.
+	 * 
+	 * @param since
+	 * @param epoch
+	 *            epoch of the sequence number, as returned with the last
+	 *            changes
+	 * @return
+	 */
+	@RequestMapping(value = "/devices", params = "since", method = RequestMethod.GET)
+	public ResponseEntity<DeviceChangesDTO> getDeviceChanges(
+			@RequestParam("since") long since,
+			@RequestParam(value = "epoch", required = false, defaultValue = "") String epoch) {
+		// read the sequence number before the devices, changes in between
+		// are sent again next time
+		String currentEpoch = changeFeed.getEpoch();
+		long sequence = changeFeed.getSequence();
+		List<String> changed = changeFeed.changedSince(epoch, since);
+
+		if (changed == null) {
+			DeviceChangesDTO changes = new DeviceChangesDTO(currentEpoch, 0,
+					sequence, true);
+			for (Device device : deviceStore.getAllDevices()) {
+				changes.getDevices().add(toDTO(device));
+			}
+			return new ResponseEntity<DeviceChangesDTO>(changes, HttpStatus.OK);
+		}
+
+		DeviceChangesDTO changes = new DeviceChangesDTO(currentEpoch, since,
+				sequence, false);
+		for (String deviceId : changed) {
+			Device device = deviceStore.findDevice(deviceId);
+			if (device == null) {
+				changes.getRemoved().add(deviceId);
+			} else {
+				changes.getDevices().add(toDTO(device));
+			}
+		}
+		return new ResponseEntity<DeviceChangesDTO>(changes, HttpStatus.OK);
+	}
+
+	/**
+	 * Invokes a capability on a batch of this manager's devices on behalf of
+	 * the API manager. The result of every device is streamed back as soon as
+	 * its invocation completes, one {@link InvocationResultDTO} per line.
+	 * 
+	 * @param batch
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value = "/invoke", method = RequestMethod.POST, consumes = "application/json", produces = InvocationResultDTO.CONTENT_TYPE)
+	public void invokeBatch(@RequestBody BatchInvocationDTO batch,
+			HttpServletResponse response) throws IOException {
+		logger.info("Invoking " + batch.getCapaId() + "/" + batch.getMethod()
+				+ " on " + batch.getDeviceIds().size() + " devices");
+		response.setContentType(InvocationResultDTO.CONTENT_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		batchInvoker.invoke(batch, response.getWriter());
+	}
+
+	private static DeviceDTO toDTO(Device device) {
+		// location=gh1&type=FM5300
+		DeviceDTO dto = new DeviceDTO(device.getId(), device.getName(),
+				device.getMetaInfo());
+		String[] meta = device.getMetaInfo().split("&");
+		for (String datum : meta) {
+			String[] split = datum.split("=");
+			dto.addMetaData(split[0], split[1]);
+		}
+		return dto;
+	}
+
 	@RequestMapping(value = "/clean", method = RequestMethod.GET)
 	public ResponseEntity<String> clean() {
 		try {
@@ -305,8 +393,33 @@ public class DeviceManager {
 	@RequestMapping(value = "/unregister/{deviceId}", method = RequestMethod.DELETE)
 	public ResponseEntity<String> unregisterDevice(@PathVariable String deviceId) {
 		deviceStore.removeDevice(deviceId);
+		notifyScopeIndex(asyncRestTemplate.delete(scopeIndexUrl(deviceId)),
+				deviceId);
 		return new ResponseEntity<String>(HttpStatus.OK);
 	}
+
+	private String scopeIndexUrl(String deviceId) {
+		return apiManagerUrl + "/governanceScope/index/" + deviceId;
+	}
+
+	/**
+	 * Failures are only logged, the scope index of the API manager picks up
+	 * the change with its next reconciliation.
+	 */
+	private <T> void notifyScopeIndex(ListenableFuture<T> result,
+			final String deviceId) {
+		result.addCallback(new ListenableFutureCallback<T>() {
+			@Override
+			public void onSuccess(T result) {
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				logger.info("Could not update scope index for device "
+						+ deviceId + ": " + t.getMessage());
+			}
+		});
+	}
 	
 	
 	@Configuration
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014 Technische Universitaet Wien (TUW), Distributed SystemsGroup E184.
+ *
+ * This work was partially supported by the Pacific Controls under the Pacific Controls
+ * Cloud Computing Lab (pc3l.infosys.tuwien.ac.at)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ac.tuwien.infosys.invocation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Scope;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import at.ac.tuwien.infosys.model.DefaultMappingModel;
+import at.ac.tuwien.infosys.store.model.BatchInvocationDTO;
+import at.ac.tuwien.infosys.store.model.InvocationResultDTO;
+
+/**
+ * Invokes a capability on a batch of devices on behalf of the API manager,
+ * close to the devices. The invocations of all batches share a pool of
+ * invocation.parallelism threads, the result of every device is written as
+ * soon as it completes.
+ */
+@Component
+@Scope(value = "singleton")
+public class BatchInvoker {
+
+	@Value("${invocation.parallelism:64}")
+	private int parallelism = 64;
+	// milliseconds to connect to and to read from a device
+	@Value("${invocation.timeout:10000}")
+	private int timeout = 10000;
+
+	private ExecutorService executor;
+	private RestTemplate restTemplate;
+
+	public BatchInvoker() {
+	}
+
+	public BatchInvoker(int parallelism, int timeout) {
+		this.parallelism = parallelism;
+		this.timeout = timeout;
+		start();
+	}
+
+	@PostConstruct
+	public void start() {
+		this.executor = Executors.newFixedThreadPool(parallelism);
+		SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+		factory.setConnectTimeout(timeout);
+		factory.setReadTimeout(timeout);
+		this.restTemplate = new RestTemplate(factory);
+	}
+
+	@PreDestroy
+	public void stop() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Invokes all devices of the batch and writes one line per device, see
+	 * {@link InvocationResultDTO}. Returns when all results are written. If
+	 * the writer fails (e.g., the API manager disconnected), the pending
+	 * invocations are cancelled.
+	 */
+	public void invoke(BatchInvocationDTO batch, Writer writer)
+			throws IOException {
+		CompletionService<InvocationResultDTO> completion = new ExecutorCompletionService<InvocationResultDTO>(
+				executor);
+		List<Future<InvocationResultDTO>> pending = new ArrayList<Future<InvocationResultDTO>>();
+		for (final String deviceId : batch.getDeviceIds()) {
+			final String url = new DefaultMappingModel(batch.getCapaId(),
+					deviceId, batch.getMethod(), batch.getArgs()).getMapping();
+			pending.add(completion.submit(new Callable<InvocationResultDTO>() {
+				@Override
+				public InvocationResultDTO call() {
+					return invokeDevice(deviceId, url);
+				}
+			}));
+		}
+		try {
+			for (int i = 0; i < pending.size(); i++) {
+				completion.take().get().writeTo(writer);
+				writer.flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancel(pending);
+		} catch (ExecutionException e) {
+			// invokeDevice does not throw
+			cancel(pending);
+			throw new IllegalStateException(e.getCause());
+		} catch (IOException e) {
+			cancel(pending);
+			throw e;
+		}
+	}
+
+	protected InvocationResultDTO invokeDevice(String deviceId, String url) {
+		try {
+			ResponseEntity<String> response = restTemplate.getForEntity(url,
+					String.class);
+			return InvocationResultDTO.response(deviceId, response
+					.getStatusCode().value(), response.getBody());
+		} catch (RuntimeException e) {
+			return InvocationResultDTO.error(deviceId,
+					String.valueOf(e.getMessage()));
+		}
+	}
+
+	private static void cancel(List<Future<InvocationResultDTO>> pending) {
+		for (Future<InvocationResultDTO> future : pending) {
+			future.cancel(true);
+		}
+	}
+}
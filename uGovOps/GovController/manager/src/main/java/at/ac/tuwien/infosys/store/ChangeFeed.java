@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014 Technische Universitaet Wien (TUW), Distributed SystemsGroup E184.
+ *
+ * This work was partially supported by the Pacific Controls under the Pacific Controls
+ * Cloud Computing Lab (pc3l.infosys.tuwien.ac.at)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ac.tuwien.infosys.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sequence numbers of the device changes of this manager. Only the last
+ * change of a device is kept, so the changes since a sequence number are a
+ * tail of the feed. A new epoch is started when the manager starts or the
+ * store is cleaned, clients of an older epoch have to resynchronize
+ * completely.
+ *
+ * Changes made in a transaction are recorded when it commits, so a client
+ * that reads the devices of a sequence number also sees their changes.
+ */
+@Component
+@Scope(value = "singleton")
+public class ChangeFeed {
+
+	private static final int MAX_ENTRIES = 100000;
+
+	private String epoch = UUID.randomUUID().toString();
+	private long sequence = 0;
+	// changes before the horizon are not known anymore
+	private long horizon = 0;
+	// sequence number of the last change of a device -> device id
+	private final TreeMap<Long, String> changes = new TreeMap<Long, String>();
+	private final Map<String, Long> sequences = new HashMap<String, Long>();
+
+	public synchronized String getEpoch() {
+		return epoch;
+	}
+
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Records a change (register, unregister or meta info update) of the
+	 * device.
+	 *
+	 * @return the sequence number of the change
+	 */
+	public synchronized long changed(String deviceId) {
+		this.sequence++;
+		Long previous = this.sequences.put(deviceId, this.sequence);
+		if (previous != null) {
+			this.changes.remove(previous);
+		}
+		this.changes.put(this.sequence, deviceId);
+		if (this.changes.size() > MAX_ENTRIES) {
+			Map.Entry<Long, String> eldest = this.changes.pollFirstEntry();
+			this.sequences.remove(eldest.getValue());
+			this.horizon = eldest.getKey();
+		}
+		return this.sequence;
+	}
+
+	/**
+	 * Records the change when the current transaction commits, immediately if
+	 * there is none. Nothing is recorded if the transaction rolls back.
+	 */
+	public void changedAfterCommit(final String deviceId) {
+		afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				changed(deviceId);
+			}
+		});
+	}
+
+	/**
+	 * Starts a new epoch when the current transaction commits.
+	 */
+	public void resetAfterCommit() {
+		afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				reset();
+			}
+		});
+	}
+
+	/**
+	 * Starts a new epoch, e.g., after all devices were removed.
+	 */
+	public synchronized void reset() {
+		this.epoch = UUID.randomUUID().toString();
+		this.sequence = 0;
+		this.horizon = 0;
+		this.changes.clear();
+		this.sequences.clear();
+	}
+
+	/**
+	 * Ids of the devices that changed after the sequence number of the epoch,
+	 * or null if the changes are not known and a full resynchronization is
+	 * needed.
+	 */
+	public synchronized List<String> changedSince(String epoch, long since) {
+		if (!this.epoch.equals(epoch) || since < this.horizon
+				|| since > this.sequence) {
+			return null;
+		}
+		return new ArrayList<String>(this.changes.tailMap(since, false)
+				.values());
+	}
+
+	private void afterCommit(final Runnable action) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		TransactionSynchronizationManager
+				.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						action.run();
+					}
+				});
+	}
+}
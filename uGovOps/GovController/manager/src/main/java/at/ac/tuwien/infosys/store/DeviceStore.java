@@ -48,6 +48,9 @@ public class DeviceStore implements IDeviceStore {
 	@Autowired
 	private ImageStorage updateStorage;
 
+	@Autowired
+	private ChangeFeed changeFeed;
+
 	private DeviceStore() {
 	}
 
@@ -59,6 +62,7 @@ public class DeviceStore implements IDeviceStore {
 	public synchronized void addDevice(String deviceId) {
 		deviceRepository.saveAndFlush(new Device(deviceId, "Gateway-"
 				+ deviceId));
+		changeFeed.changedAfterCommit(deviceId);
 	}
 
 	public synchronized long getDeviceCount() {
@@ -104,6 +108,7 @@ public class DeviceStore implements IDeviceStore {
 			Device device = getDevice(id);
 			device.setMetaInfo(metaInfo);
 			deviceRepository.saveAndFlush(device);
+			changeFeed.changedAfterCommit(id);
 		}
 	}
 
@@ -112,6 +117,11 @@ public class DeviceStore implements IDeviceStore {
 		return deviceRepository.getOne(id);
 	}
 
+	@Transactional
+	public synchronized Device findDevice(String id) {
+		return deviceRepository.findOne(id);
+	}
+
 	@Transactional
 	public synchronized void addUpdate(Image image) {
 
@@ -184,6 +194,7 @@ public class DeviceStore implements IDeviceStore {
 		deviceRepository.flush();
 		deviceUpdateRepository.deleteAll();
 		deviceRepository.flush();
+		changeFeed.resetAfterCommit();
 	}
 
 	@Transactional
@@ -192,6 +203,7 @@ public class DeviceStore implements IDeviceStore {
 			Device device = getDevice(deviceId);
 			deviceRepository.delete(device);
 			deviceRepository.flush();
+			changeFeed.changedAfterCommit(deviceId);
 		}
 	}
 
@@ -44,6 +44,11 @@ public interface IDeviceStore {
 
 	// public Device getDevice(String id);
 
+	/**
+	 * The device or null if it is not known.
+	 */
+	public Device findDevice(String id);
+
 	public void addUpdate(Image image);
 
 	public InputStream getUpdate(String deviceId) throws IOException;
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014 Technische Universitaet Wien (TUW), Distributed SystemsGroup E184.
+ *
+ * This work was partially supported by the Pacific Controls under the Pacific Controls
+ * Cloud Computing Lab (pc3l.infosys.tuwien.ac.at)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ac.tuwien.infosys.invocation;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.infosys.store.model.BatchInvocationDTO;
+import at.ac.tuwien.infosys.store.model.InvocationResultDTO;
+
+public class BatchInvokerTest {
+
+	private BatchInvoker invoker;
+
+	@Before
+	public void setUp() {
+		invoker = new BatchInvoker(4, 1000) {
+			@Override
+			protected InvocationResultDTO invokeDevice(String deviceId,
+					String url) {
+				if (deviceId.equals("10_0_0_3")) {
+					return InvocationResultDTO.error(deviceId,
+							"Connection refused");
+				}
+				return InvocationResultDTO.response(deviceId, 200, url);
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		invoker.stop();
+	}
+
+	@Test
+	public void test_oneLinePerDevice() throws IOException {
+		StringWriter out = new StringWriter();
+		invoker.invoke(new BatchInvocationDTO("sensor", "read", "a,b", Arrays
+				.asList("10_0_0_1", "10_0_0_2", "10_0_0_3")), out);
+
+		String[] lines = out.toString().split("\n");
+		assertThat(lines.length, equalTo(3));
+		Map<String, InvocationResultDTO> results = new HashMap<String, InvocationResultDTO>();
+		for (String line : lines) {
+			InvocationResultDTO result = InvocationResultDTO.readFrom(line);
+			results.put(result.getDevice(), result);
+		}
+		assertThat(results.get("10_0_0_1").getStatus(), equalTo(200));
+		assertThat(results.get("10_0_0_1").getBody(),
+				equalTo("http://10.0.0.1/cgi-bin/mapper/sensor/read/arguments?arg1=a&arg2=b"));
+		assertThat(results.get("10_0_0_3").getError(),
+				equalTo("Connection refused"));
+	}
+
+	@Test
+	public void test_bodyWithNewlinesStaysOnOneLine() throws IOException {
+		StringWriter out = new StringWriter();
+		InvocationResultDTO.response("D1", 200, "line1\nline2").writeTo(out);
+
+		assertThat(out.toString().indexOf('\n'), equalTo(out.toString()
+				.length() - 1));
+		InvocationResultDTO result = InvocationResultDTO.readFrom(out
+				.toString().trim());
+		assertThat(result.getBody(), equalTo("line1\nline2"));
+		assertThat(result.getError(), equalTo(null));
+	}
+}
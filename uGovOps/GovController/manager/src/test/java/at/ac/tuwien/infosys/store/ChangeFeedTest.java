@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014 Technische Universitaet Wien (TUW), Distributed SystemsGroup E184.
+ *
+ * This work was partially supported by the Pacific Controls under the Pacific Controls
+ * Cloud Computing Lab (pc3l.infosys.tuwien.ac.at)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.ac.tuwien.infosys.store;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class ChangeFeedTest {
+
+	private ChangeFeed feed;
+	private String epoch;
+
+	@Before
+	public void setUp() {
+		feed = new ChangeFeed();
+		epoch = feed.getEpoch();
+		feed.changed("D1");
+		feed.changed("D2");
+		feed.changed("D3");
+	}
+
+	@Test
+	public void test_changedSince() {
+		assertThat(feed.getSequence(), equalTo(3L));
+		assertThat(feed.changedSince(epoch, 1), equalTo(Arrays.asList("D2", "D3")));
+		assertThat(feed.changedSince(epoch, 3).isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void test_onlyLastChangeOfDeviceIsKept() {
+		feed.changed("D1");
+		assertThat(feed.changedSince(epoch, 0), equalTo(Arrays.asList("D2", "D3", "D1")));
+		assertThat(feed.changedSince(epoch, 3), equalTo(Arrays.asList("D1")));
+	}
+
+	@Test
+	public void test_unknownStateNeedsFullSync() {
+		assertNull(feed.changedSince("other", 1));
+		assertNull(feed.changedSince(epoch, 4));
+		feed.reset();
+		assertNull(feed.changedSince(epoch, 1));
+		assertThat(feed.changedSince(feed.getEpoch(), 0).isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void test_changeIsRecordedAfterCommit() {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			feed.changedAfterCommit("D4");
+			assertThat(feed.getSequence(), equalTo(3L));
+			for (TransactionSynchronization s : TransactionSynchronizationManager
+					.getSynchronizations()) {
+				s.afterCommit();
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertThat(feed.changedSince(epoch, 3), equalTo(Arrays.asList("D4")));
+	}
+
+	@Test
+	public void test_rolledBackChangeIsNotRecorded() {
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			feed.changedAfterCommit("D4");
+			for (TransactionSynchronization s : TransactionSynchronizationManager
+					.getSynchronizations()) {
+				s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertThat(feed.getSequence(), equalTo(3L));
+	}
+
+	@Test
+	public void test_withoutTransactionChangeIsRecordedImmediately() {
+		feed.changedAfterCommit("D4");
+		assertThat(feed.getSequence(), equalTo(4L));
+	}
+}